@@ -0,0 +1,378 @@
+package com.esrc.biosignal;
+
+import android.Manifest;
+import android.app.Activity;
+import android.app.Application;
+import android.bluetooth.BluetoothAdapter;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.esrc.biosignal.commonutils.CommonVariables;
+import com.esrc.biosignal.libs.BiosignalConsumer;
+import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.libs.LinkParameters;
+import com.esrc.biosignal.libs.SignalNotifier;
+import com.esrc.biosignal.libs.StateNotifier;
+import com.esrc.biosignal.recordutils.PpgSegmentStore;
+import com.esrc.biosignal.recordutils.ResultStore;
+import com.esrc.biosignal.recordutils.SessionRecorder;
+import com.esrc.biosignal.recordutils.SessionResult;
+import com.esrc.biosignal.service.ConnectionStateStore;
+import com.esrc.biosignal.signalutils.EmotionCalculator;
+import com.esrc.biosignal.signalutils.EmotionPipeline;
+
+/**
+ * 앱 전체에서 PPG 장비 연결을 미리 준비해 두는 Application
+ *
+ * 앱 시작과 동시에 BiosignalService 에 바인딩해 두고, 마지막으로 사용한 장비 주소가 있으면
+ * 스캔/선택 없이 바로 연결한다. 앱이 살아있는 동안 바인딩을 유지하므로 손님이 바뀌어도
+ * 서비스가 내려가지 않는다.
+ *
+ * 측정 세션(연결과 스트림)도 여기서 소유한다. 화면은 attach/detach 로 리스너만 붙였다 떼므로
+ * 기준 측정(Feel_Start1)과 감정 측정(Feel_Start2)이 끊김 없는 하나의 스트림 위에서 이어진다.
+ * 박동도 화면이 아니라 Application 의 EmotionPipeline 하나가 받으므로 화면이 바뀌는 사이에도
+ * 빠지는 박동이 없다.
+ */
+public class BiosignalApplication extends Application implements BiosignalConsumer {
+    private static final String TAG = "BiosignalApplication";
+
+    // 장비 주소를 저장하는 기본 SharedPreferences 키
+    public static final String PREF_BIOSIGNAL_ADDRESS = "biosignal";
+
+    private BiosignalManager mBiosignalManager = null;
+    private boolean mServiceConnected = false;
+
+    // 지금 화면에 붙어 있는 리스너 (메인 스레드에서만 사용)
+    private StateNotifier mStateListener = null;
+    private SignalNotifier mSignalListener = null;
+    private boolean mStreamingRequested = false;
+    // 시작 명령을 이미 보냈는지 (재연결 후 다시 시작하는 것은 서비스가 알아서 함)
+    private boolean mSignalingSent = false;
+    // 손님 한 명의 측정 기록 (원시 PPG, 박동, PPI, 스펙트럼)
+    private SessionRecorder mRecorder = null;
+    // 감사용 원시 PPG 전체 보관 (앱이 살아있는 동안 계속 기록)
+    private PpgSegmentStore mSegmentStore = null;
+    // 손님별 측정 결과 저장소와 지금 손님의 결과 (주문까지 이어서 채움)
+    private ResultStore mResultStore = null;
+    private SessionResult mResult = null;
+    // 마지막으로 본 음식 화면 (결제까지 가면 주문한 메뉴)
+    private String mLastMenuItem = null;
+    // 지금 손님의 기준/감정 측정 (측정 중이 아니면 null, 메인 스레드에서만 사용)
+    private EmotionPipeline mPipeline = null;
+
+    // 서비스 상태는 항상 Application 이 받고 붙어 있는 화면에 넘겨줌
+    private final StateNotifier mSessionStateNotifier = new StateNotifier() {
+        @Override
+        public void didChangedState(int state) {
+            if (mStateListener != null) mStateListener.didChangedState(state);
+        }
+
+        @Override
+        public void onLinkParametersChanged(LinkParameters parameters) {
+            if (mStateListener != null) mStateListener.onLinkParametersChanged(parameters);
+        }
+    };
+
+    // 신호도 항상 Application 이 받아 파이프라인에 넣고 붙어 있는 화면에 넘겨줌
+    private final SignalNotifier mSessionSignalNotifier = new SignalNotifier() {
+        @Override
+        public void onReceivedPPG(int ppg) {
+            if (mSignalListener != null) mSignalListener.onReceivedPPG(ppg);
+        }
+
+        @Override
+        public void onReceivedBPM(double bpm) {
+            if (mPipeline != null) mPipeline.addBeat(System.currentTimeMillis(), bpm);
+            if (mSignalListener != null) mSignalListener.onReceivedBPM(bpm);
+        }
+    };
+
+    // 측정 결과는 기록 파일, 결과 화면용 변수, 손님 결과에 한 곳에서 남김
+    private final EmotionPipeline.Listener mPipelineListener = new EmotionPipeline.Listener() {
+        @Override
+        public void onBeat(long timestamp, double bpm, double ppi) {
+            if (ppi != 0 && mRecorder != null) mRecorder.recordPpi(ppi);
+        }
+
+        @Override
+        public void onMeasurement(int phase, EmotionCalculator.Result result) {
+            if (mRecorder != null) mRecorder.recordSpectrum(result.spectrum);
+            if (phase == EmotionPipeline.PHASE_BASELINE) {
+                CommonVariables.bpm1 = result.bpmAverage;
+                CommonVariables.LF1 = result.lf;
+                CommonVariables.HF1 = result.hf;
+                if (mResult != null) mResult.setBaseline(result);
+            } else {
+                CommonVariables.bpm2 = result.bpmAverage;
+                CommonVariables.LF2 = result.lf;
+                CommonVariables.HF2 = result.hf;
+                if (mResult != null) mResult.setStimulus(result);
+            }
+        }
+
+        @Override
+        public void onState(int state) {
+            // 판별 결과까지 저장 (백그라운드), 주문하면 메뉴를 더해 다시 저장
+            if (mResult != null) {
+                mResult.setEmotion(state, System.currentTimeMillis());
+                saveSessionResult();
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // 서비스 바인딩을 미리 해 둠 (측정 화면에서 바인딩 대기 없음)
+        mBiosignalManager = BiosignalManager.getInstanceForApplication(this);
+        mBiosignalManager.setStateNotifier(mSessionStateNotifier);
+        mBiosignalManager.setSignalNotifier(mSessionSignalNotifier);
+        mBiosignalManager.bind(this);
+
+        // 손님 세션과 관계없이 들어오는 원시 PPG 는 모두 세그먼트 저장소에 남김
+        mSegmentStore = new PpgSegmentStore(this);
+        mSegmentStore.subscribeTo(mBiosignalManager, 0);
+
+        // 결과는 백그라운드에서 묶어서 저장, 주문한 메뉴는 화면 이동으로 알아냄
+        mResultStore = new ResultStore(this);
+        registerActivityLifecycleCallbacks(mOrderTracker);
+    }
+
+    /**
+     * 서비스 바인딩 완료 콜백 함수
+     */
+    @Override
+    public void onBiosignalServiceConnect() {
+        mServiceConnected = true;
+        if (mStreamingRequested) startStreaming();
+        else autoConnect();
+    }
+
+    /**
+     * 화면의 리스너를 세션에 붙이고 측정 시작 (이미 스트림 중이면 이어서 받기만 함)
+     */
+    public void attach(StateNotifier stateListener, SignalNotifier signalListener) {
+        mStateListener = stateListener;
+        mSignalListener = signalListener;
+        startStreaming();
+    }
+
+    /**
+     * 화면의 리스너만 떼어냄, 연결과 스트림은 그대로 유지
+     * (다음 화면이 먼저 attach 한 경우에는 그 리스너를 건드리지 않음)
+     */
+    public void detach(StateNotifier stateListener, SignalNotifier signalListener) {
+        if (mStateListener == stateListener) mStateListener = null;
+        if (mSignalListener == signalListener) mSignalListener = null;
+    }
+
+    /**
+     * 측정 스트림 시작 (연결이 안 되어 있으면 연결부터, READY 가 되면 서비스가 바로 시작)
+     */
+    public void startStreaming() {
+        mStreamingRequested = true;
+        // 이전 화면에서 이어지는 스트림이면 다시 보내지 않음
+        if (mSignalingSent || !mServiceConnected || !autoConnect()) return;
+        if (mRecorder == null) {
+            mRecorder = new SessionRecorder(SessionRecorder.createSessionFile(this));
+            mRecorder.subscribeTo(mBiosignalManager, 0);
+            // 새 손님
+            mResult = new SessionResult(mRecorder.getStartTime());
+            mResult.setSessionFile(mRecorder.getFile().getName());
+            mLastMenuItem = null;
+            // 기준 측정이 끝나도 자극 영상이 시작될 때까지 감정 측정은 기다림
+            mPipeline = new EmotionPipeline(mRecorder.getStartTime());
+            mPipeline.deferEmotion();
+            mPipeline.setListener(mPipelineListener);
+        }
+        try {
+            mBiosignalManager.startSignaling(0);
+            mSignalingSent = true;
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 한 손님의 측정이 끝나면 스트림만 멈춤, 링크는 다음 손님을 위해 유지
+     */
+    public void stopStreaming() {
+        mStreamingRequested = false;
+        mSignalingSent = false;
+        mPipeline = null;
+        if (mRecorder != null) {
+            mRecorder.close();
+            mRecorder = null;
+        }
+        if (!mServiceConnected) return;
+        try {
+            mBiosignalManager.stopSignaling(0);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 진행 중인 측정의 기록기 (측정 중이 아니면 null)
+     */
+    public SessionRecorder getRecorder() {
+        return mRecorder;
+    }
+
+    /**
+     * 진행 중인 측정의 기준/감정 계산 (측정 중이 아니면 null)
+     */
+    public EmotionPipeline getPipeline() {
+        return mPipeline;
+    }
+
+    /**
+     * 지금 손님의 측정 결과 (측정을 시작한 적이 없으면 null)
+     */
+    public SessionResult getSessionResult() {
+        return mResult;
+    }
+
+    /**
+     * 지금 손님의 결과를 저장 (백그라운드에서 묶어서 기록)
+     */
+    public void saveSessionResult() {
+        if (mResult != null) mResultStore.save(mResult);
+    }
+
+    public ResultStore getResultStore() {
+        return mResultStore;
+    }
+
+    // 음식 화면 -> 결제 -> 완료 로 가면 주문, 모드 선택 화면으로 돌아가면 그 손님은 끝
+    private final ActivityLifecycleCallbacks mOrderTracker = new ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityResumed(Activity activity) {
+            if (activity.getClass().getName().startsWith("com.esrc.biosignal.Food.")) {
+                mLastMenuItem = activity.getClass().getSimpleName().replaceFirst("^Feel_", "");
+            } else if (activity instanceof Finish) {
+                if (mResult != null && mResult.isDecided() && !mResult.isOrdered() && mLastMenuItem != null) {
+                    mResult.setOrder(mLastMenuItem, System.currentTimeMillis());
+                    saveSessionResult();
+                }
+            } else if (activity instanceof SelectMode) {
+                mResult = null;
+                mLastMenuItem = null;
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    };
+
+    /**
+     * 화면에서 DSP 스트림을 직접 구독할 때 사용
+     */
+    public BiosignalManager getBiosignalManager() {
+        return mBiosignalManager;
+    }
+
+    /**
+     * 원시 PPG 세그먼트 저장소
+     */
+    public PpgSegmentStore getSegmentStore() {
+        return mSegmentStore;
+    }
+
+    /**
+     * 마지막으로 사용한 장비 주소 (없으면 null)
+     */
+    public String getKnownAddress() {
+        String address = PreferenceManager.getDefaultSharedPreferences(this).getString(PREF_BIOSIGNAL_ADDRESS, null);
+        if (!isUsableAddress(address) && mBiosignalManager != null) {
+            address = mBiosignalManager.getLastConnectedAddress();
+        }
+        return isUsableAddress(address) ? address : null;
+    }
+
+    // 한 번도 연결한 적 없을 때의 기본값이나 형식이 틀린 주소는 모르는 장비로 취급
+    private static boolean isUsableAddress(String address) {
+        return address != null
+                && !ConnectionStateStore.DEFAULT_ADDRESS.equals(address)
+                && BluetoothAdapter.checkBluetoothAddress(address);
+    }
+
+    public boolean hasKnownDevice() {
+        return getKnownAddress() != null;
+    }
+
+    /**
+     * 알고 있는 장비에 바로 연결 (이미 연결 중이면 아무것도 안 함)
+     *
+     * @return 연결을 시작했거나 이미 연결되어 있으면 true
+     */
+    public boolean autoConnect() {
+        String address = getKnownAddress();
+        if (!mServiceConnected || address == null || !canConnect()) return false;
+
+        try {
+            if (mBiosignalManager.getConnectionState(0) == BiosignalManager.STATE_DISCONNECTED) {
+                Log.d(TAG, "autoConnect : " + address);
+                mBiosignalManager.connect(0, address);
+            }
+            return true;
+        } catch (RemoteException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 장비 선택 화면에서 고른 장비로 교체 후 연결
+     */
+    public void useDevice(String address) {
+        PreferenceManager.getDefaultSharedPreferences(this).edit().putString(PREF_BIOSIGNAL_ADDRESS, address).apply();
+        if (!mServiceConnected || !canConnect()) return;
+
+        try {
+            // 다른 장비면 서비스가 기존 연결을 닫고 새로 연결함
+            mBiosignalManager.connect(0, address);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // 블루투스가 켜져 있고 (12 이상은) 연결 권한이 있어야 자동 연결 가능
+    private boolean canConnect() {
+        BluetoothAdapter adapter = BluetoothAdapter.getDefaultAdapter();
+        if (adapter == null || !adapter.isEnabled()) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT)
+                    == PackageManager.PERMISSION_GRANTED;
+        }
+        return true;
+    }
+}
@@ -11,7 +11,6 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Bundle;
@@ -61,6 +60,13 @@ public class Feel_Connect extends Activity implements BiosignalConsumer {
         // 인터페이스 초기화
         initialize();
 
+        // 이전에 쓰던 장비가 있으면 장비 선택 없이 바로 연결 (Application 이 바인딩 유지)
+        BiosignalApplication app = (BiosignalApplication) getApplication();
+        if (app.hasKnownDevice()) {
+            app.autoConnect();
+            PPGstate = true;
+        }
+
         // Permission 요청
         if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             if (!hasPermissions(PERMISSIONS)) {
@@ -112,8 +118,8 @@ public class Feel_Connect extends Activity implements BiosignalConsumer {
                     String deviceAddress = data.getStringExtra(BluetoothDevice.EXTRA_DEVICE);
                     BluetoothDevice mDevice = BluetoothAdapter.getDefaultAdapter().getRemoteDevice(deviceAddress);
 
-                    SharedPreferences pref = PreferenceManager.getDefaultSharedPreferences(this);
-                    pref.edit().putString("biosignal", mDevice.getAddress()).apply();
+                    // 주소 저장 후 Application 이 바로 연결
+                    ((BiosignalApplication) getApplication()).useDevice(mDevice.getAddress());
                   //  Toast.makeText(this, "Save address of biosignal : " + mDevice.getAddress(), Toast.LENGTH_SHORT).show();
                     PPGstate=true;
                     Toast.makeText(this, "장비가 연결되었습니다", Toast.LENGTH_SHORT).show(); //2초인듯?
@@ -167,19 +173,15 @@ public class Feel_Connect extends Activity implements BiosignalConsumer {
         mBIosignalManager.setStateNotifier(new StateNotifier() {
             @Override
             public void didChangedState(int state) {
-                if (state == BiosignalManager.STATE_CONNECTED) {
-                    Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        public void run() {
-                            try {
-                                if (mBIosignalManager != null) {
-                                    mBIosignalManager.startSignaling(0);
-                                }
-                            } catch (RemoteException e) {
-                                e.printStackTrace();
-                            }
+                // 알림 설정까지 끝나 READY 가 되는 즉시 측정 시작
+                if (state == BiosignalManager.STATE_READY) {
+                    try {
+                        if (mBIosignalManager != null) {
+                            mBIosignalManager.startSignaling(0);
                         }
-                    }, 5000);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
                 }
             }
         });
@@ -9,10 +9,10 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
+import android.graphics.Color;
 import android.os.Build;
-import android.os.Environment;
 import android.os.Handler;
-import android.os.RemoteException;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
 import android.os.Bundle;
 import android.util.Log;
@@ -24,62 +24,33 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.esrc.biosignal.FFT.Complex;
-import com.esrc.biosignal.FFT.FastFourierTransform;
-import com.esrc.biosignal.commonutils.CommonVariables;
-import com.esrc.biosignal.graphutils.LineChartGraph;
-import com.esrc.biosignal.libs.BiosignalConsumer;
-import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.graphutils.DashboardView;
 import com.esrc.biosignal.libs.SignalNotifier;
+import com.esrc.biosignal.libs.SignalSnapshot;
+import com.esrc.biosignal.libs.SnapshotBridge;
 import com.esrc.biosignal.libs.StateNotifier;
+import com.esrc.biosignal.signalutils.EmotionPipeline;
 import androidx.annotation.NonNull;
 import androidx.core.content.ContextCompat;
 
-import java.text.SimpleDateFormat;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 
-public class Feel_Start1 extends Activity implements BiosignalConsumer {
+public class Feel_Start1 extends Activity {
     private static final String TAG = "Feel_Start1";
     private final Activity act = this;
 
     // PPG 장비 관련 변수
-    private BiosignalManager mBIosignalManager = null;  // PPG 장비 관리 객체
 
     // 인터페이스 관련 변수
-    private LineChartGraph mPPGGraph;  // PPG 그래프 레이아웃
+    private DashboardView mDashboard;  // PPG / 심박 / 스펙트럼 대시보드 (전용 렌더 스레드)
     private TextView mBpmTv;  // BPM 텍스트 레이아웃
+    private SnapshotBridge mBridge;  // DSP 상태를 프레임당 한 번만 화면에 전달 (대시보드와 HR 표시 모두)
+    private long mShownBpm = -1;      // 지금 보이는 HR / 남은 초 (바뀔 때만 글자 갱신)
+    private long mShownSeconds = -2;
     private Button mStopBtn;  // 종료 버튼 레이아웃
 
-    //파일 작성 관련
-    final static String foldername = Environment.getExternalStorageDirectory().getAbsolutePath()+"/TestLog";
-    //final static String file_ppg = "ppg1.txt";
-//    final static String file_bpm = "bpm1.txt";
-    //final static String file_ppi  ="ppi1.txt";
-//    final static String file_LF="LF1.txt";
-//    final static String file_HF="HF1.txt";
-    final static String file_FFT="FFT1.txt";    //실험 데이터 받는 파일
-
-
-    //FFT 관련
-    private int countPPI=0;
-    private double[] ppiList1=new double[32];    //0~31까지의 index, ppi 정보 들어있는 배열
-    private double[] FFTList1=new double[32];   //FFT한 결과 받아옴
-    //private double[] useFFT1=new double[16];     //FFT한 결과에서 0(DC)를 제외하고 1~16까지의 값을 저장할 예정
-
-    //값 처리 변수
-    private double[] BPMList1=new double[32];   //BPM 평균 계산 위해 BPM 저장
-    private double BPM_sum;
-    private double BPM_average;
-    private double LF;
-    private double HF;
 
 
     //다음 페이지로 넘어가게끔 함
@@ -87,95 +58,23 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
     Runnable r = new Runnable() {
         @Override
         public void run() {
-            //데이터를 저장
-            Data_Cal();
+            //기준 측정 마감 (PPI 32개가 다 안 모였으면 모인 만큼으로 계산), 다음 박동부터 감정 측정
+            EmotionPipeline pipeline = ((BiosignalApplication) getApplication()).getPipeline();
+            if (pipeline != null) pipeline.endBaseline();
             Intent intent = new Intent(getApplicationContext(), Feel_Start2.class);
             startActivity(intent); // 다음화면으로 넘어가기
-            unbind(); // 해제
+            // 여기서 바로 떼면 Feel_Start2 가 붙기 전 박동이 버려짐,
+            // 다음 화면이 먼저 attach 하고 이 화면은 onDestroy 에서 리스너를 뗌
+            finish();
         }
     };
 
-    //데이터 처리
-    public void Data_Cal(){
-        //FFT 결과값 저장
-        for(int i=0;i<32;i++) {
-            FFTList1[i]=FFT_Cal(ppiList1)[i];   //FFT 계산
-            BPM_sum+=BPMList1[i];   //평균 계산 위해 bpm 값 더함
-            String contents2=FFTList1[i]+"\n";
-            WriteTextFile(foldername,file_FFT,contents2);
-        }
-        BPM_average=BPM_sum/32;     //BPM 평균 구함
-
-        CommonVariables.bpm1 = BPM_average;
-
-        /**LF 계산*/
-        //LF영역 2~4번
-        for(int j=2;j<=4;j++){
-            LF+=FFTList1[j];
-        }
-
-        /**HF 계산*/
-        //HF영역 5~12번
-        for(int k=5;k<=12;k++){
-            HF+=FFTList1[k];
-        }
-        CommonVariables.LF1=LF;
-        CommonVariables.HF1=HF;
-
-    }
-
-    //FFT 계산하는 함수
-    public static double[] FFT_Cal(double[] input){
-        FastFourierTransform FastFT=new FastFourierTransform();
-        Complex[] cinput = new Complex[input.length]; //make complex arr
-        for (int i = 0; i < input.length; i++)
-            cinput[i] = new Complex(input[i], 0.0);//input re: input[i], im: 0,0,0...-->real!
-
-        FastFT.fft(cinput);
-
-//        System.out.println("Results:");
-//        for (Complex c : cinput) {
-//            System.out.println(c);
-//        }
-
-        double[] power_spectrum=new double[input.length];
-
-        for(int i=0;i<input.length;i++){
-            power_spectrum[i]=((cinput[i].re*cinput[i].re)+(cinput[i].im*cinput[i].im))/(input.length*input.length)*2;
-            // System.out.printf("%.9f\n",power_spectrum[i]);
-        }
-
-        return power_spectrum;
-    }
-
-
-    public void WriteTextFile(String foldername, String filename, String contents){
-        try{
-            File dir = new File (foldername);
-            //디렉토리 폴더가 없으면 생성함
-            if(!dir.exists()){
-                dir.mkdir();
-            }
-            //파일 output stream 생성
-            FileOutputStream fos = new FileOutputStream(foldername+"/"+filename, true);
-            //파일쓰기
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos));
-            writer.write(contents);
-            writer.flush();
-
-            writer.close();
-            fos.close();
-        }catch (IOException e){
-            e.printStackTrace();
-        }
-    }
-
-
     @Override
     protected void onResume() {
         super.onResume();
         // 다시 화면에 들어어왔을 때 예약 걸어주기
-        handler.postDelayed(r, 47000); // 47초 뒤에 Runnable 객체 수행, 32초동안 PPI 측정
+        handler.postDelayed(r, 42000); // 42초 뒤에 Runnable 객체 수행, 32초동안 PPI 측정 (READY 즉시 시작하므로 고정 대기 5초 제외)
+        mBridge.setDeadline(SystemClock.uptimeMillis() + 42000);
 
     }
 
@@ -184,6 +83,7 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
         super.onPause();
         // 화면을 벗어나면, handler 에 예약해놓은 작업을 취소
         handler.removeCallbacks(r); // 예약 취소
+        mBridge.setDeadline(0);
 
     }
 
@@ -227,7 +127,7 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
      */
     @Override
     public void onDestroy() {
-        // 앱 종료 시 PPG 장비 연결 해제
+        // 화면 종료 시 리스너만 해제 (장비 연결은 Application 이 유지)
         unbind();
         super.onDestroy();
         Toast.makeText(this,"감성 측정을 종료합니다",Toast.LENGTH_SHORT).show();   //2초정도
@@ -239,10 +139,11 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
      */
     private void initialize() {
         // 인터페이스 초기화
-        mPPGGraph = new LineChartGraph(this, (RelativeLayout) findViewById(R.id.ppg_view));
-        mPPGGraph.setWindowSize(300);
-        mPPGGraph.setIntervalSize(2);
+        mDashboard = new DashboardView(this, (RelativeLayout) findViewById(R.id.ppg_view));
+        mDashboard.setWindowSize(300);
+        mDashboard.setFillColor(Color.WHITE);
         mBpmTv = (TextView) findViewById(R.id.bpm_tv);
+        mBridge = new SnapshotBridge(300);
 
         mStopBtn = (Button) findViewById(R.id.stop_btn);
 
@@ -261,7 +162,8 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
                             @Override
                             public void onClick(DialogInterface dialog, int which) {
                                 Intent home = new Intent(Feel_Start1.this, SelectMode.class);
-                                onDestroy();//연결종료
+                                stopMeasurement();
+                                onDestroy();//리스너 해제 (연결은 유지)
                                 handler.removeCallbacks(r); // 예약 취소
                                 startActivity(home);
                             }
@@ -278,23 +180,15 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
      * PPG 신호 콜백 함수
      */
     private void onCallbackReceivedPPG(int ppg) {
-        mPPGGraph.addValue((float) ppg);
+        // 파형은 대시보드가 SnapshotBridge 스냅샷으로 받아서 그림
     }
 
     /**
      * BPM 콜백 함수
      */
     private void onCallbackReceivedBPM(double bpm) {
-        mBpmTv.setText("HR = " + Long.toString(Math.round(bpm)));
-
-        //FFT위해 배열에 저장
-        if(countPPI<32) {
-            BPMList1[countPPI]=bpm;
-            ppiList1[countPPI] = (60 / bpm);   //0~34까지의 index에 ppi값 저장
-            //Log.d(TAG, "\nindex"+countPPI+" : " + ppiList1[countPPI]); //확인위해 Log찍어봄
-            countPPI++;
-        }
-
+        // HR 표시는 mSnapshotListener 가 프레임마다 함 (여기서는 화면을 건드리지 않음)
+        // PPI 수집과 기준 측정 계산은 Application 의 EmotionPipeline 이 함
     }
 
 
@@ -322,96 +216,74 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
     }
 
     /**
-     * PPG 장비 관리 객체 설정 함수
+     * 측정 화면 리스너를 세션에 붙임 (연결/스트림은 Application 이 유지)
      */
     private void bind() {
-        onBindBiosignalService(true);
+        BiosignalApplication app = (BiosignalApplication) getApplication();
+        app.attach(mStateNotifier, mSignalNotifier);
+        mBridge.subscribeTo(app.getBiosignalManager(), 0);
+        mBridge.setListener(mSnapshotListener);
     }
 
     /**
-     * PPG 장비 관리 객체 해제 함수
+     * 측정 화면 리스너만 떼어냄, 다음 화면이 같은 스트림을 이어받음
      */
     private void unbind() {
-        onBindBiosignalService(false);
+        ((BiosignalApplication) getApplication()).detach(mStateNotifier, mSignalNotifier);
+        mBridge.unsubscribe();
     }
 
     /**
-     * PPG 장비 관리 객체 연결 콜백 함수
+     * 최신 측정 상태로 대시보드와 HR 표시 갱신 (메인 스레드, 프레임당 최대 한 번)
      */
-    private void onBindBiosignalService(boolean bind) {
-        if(bind) {
-            if(mBIosignalManager == null) mBIosignalManager = BiosignalManager.getInstanceForApplication(this);
-            mBIosignalManager.bind(this);
-        } else {
-            if(mBIosignalManager == null) return;
-            try {
-                mBIosignalManager.stopSignaling(0);
-                mBIosignalManager.disconnect(0);
-                mBIosignalManager.unBind(this);
-                mBIosignalManager = null;
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    private final SnapshotBridge.Listener mSnapshotListener = new SnapshotBridge.Listener() {
+        @Override
+        public void onSnapshot(SignalSnapshot snapshot) {
+            mDashboard.onSnapshot(snapshot);
+            long bpm = Math.round(snapshot.getBpm());
+            long remaining = snapshot.getRemainingMillis(SystemClock.uptimeMillis());
+            long seconds = remaining < 0 ? -1 : (remaining + 999) / 1000;
+            if (bpm == mShownBpm && seconds == mShownSeconds) return;
+            mShownBpm = bpm;
+            mShownSeconds = seconds;
+            String text = "HR = " + Long.toString(bpm);
+            if (seconds >= 0) text += "  (" + seconds + "초)";
+            mBpmTv.setText(text);
         }
-    }
+    };
 
     /**
-     * PPG 장비 관리 객체 콜백 함수
+     * 측정 중단 (스트림만 멈추고 장비 연결은 유지)
      */
-    @Override
-    public void onBiosignalServiceConnect() {
-        mBIosignalManager.setStateNotifier(new StateNotifier() {
-            @Override
-            public void didChangedState(int state) {
-                if (state == BiosignalManager.STATE_CONNECTED) {
-                    Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        public void run() {
-                            try {
-                                if (mBIosignalManager != null) {
-                                    mBIosignalManager.startSignaling(0);
-                                }
-                            } catch (RemoteException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }, 5000);
-                }
-            }
-        });
-
-        mBIosignalManager.setSignalNotifier(new SignalNotifier() {
-            @Override
-            public void onReceivedPPG(int ppg) {
-                onCallbackReceivedPPG(ppg);
-            }
-
-
-            @Override
-            public void onReceivedBPM(double bpm) {
-                Log.d(TAG, "onReceivedBPM : " + bpm);
-                onCallbackReceivedBPM(bpm);
-            }
-        });
-
-        onConnectSociaLBand();
+    private void stopMeasurement() {
+        ((BiosignalApplication) getApplication()).stopStreaming();
     }
 
     /**
-     * PPG 장비 연결 함수
+     * 연결 상태 콜백 (측정 시작은 서비스가 READY 시점에 처리)
      */
-    private void onConnectSociaLBand() {
-        String address = PreferenceManager.getDefaultSharedPreferences(this).getString("biosignal", null);
-        if(address == null) return;
-        try {
-            if(mBIosignalManager != null) {
-                Log.d(TAG, "onConnectBiosignal : " + address);
-                mBIosignalManager.connect(0, address);
-            }
-        } catch (RemoteException e) {
-            e.printStackTrace();
+    private final StateNotifier mStateNotifier = new StateNotifier() {
+        @Override
+        public void didChangedState(int state) {
+            Log.d(TAG, "didChangedState : " + state);
         }
-    }
+    };
+
+    /**
+     * PPG 신호 콜백
+     */
+    private final SignalNotifier mSignalNotifier = new SignalNotifier() {
+        @Override
+        public void onReceivedPPG(int ppg) {
+            onCallbackReceivedPPG(ppg);
+        }
+
+        @Override
+        public void onReceivedBPM(double bpm) {
+            Log.d(TAG, "onReceivedBPM : " + bpm);
+            onCallbackReceivedBPM(bpm);
+        }
+    };
     // ###########################################
 
     // ############# Permission 관련 #############
@@ -492,7 +364,8 @@ public class Feel_Start1 extends Activity implements BiosignalConsumer {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         Intent home = new Intent(Feel_Start1.this, SelectMode.class);
-                        onDestroy();//
+                        stopMeasurement();
+                        onDestroy();//리스너 해제 (연결은 유지)
                         handler.removeCallbacks(r); // 예약 취소
                         startActivity(home);
                     }
@@ -7,69 +7,39 @@ import android.bluetooth.BluetoothDevice;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.os.Environment;
+import android.graphics.Color;
 import android.os.Handler;
-import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.RelativeLayout;
 import android.widget.Toast;
 import android.widget.VideoView;
 import android.widget.MediaController;
 
-import com.esrc.biosignal.FFT.Complex;
-import com.esrc.biosignal.FFT.FastFourierTransform;
-import com.esrc.biosignal.commonutils.CommonVariables;
-import com.esrc.biosignal.libs.BiosignalConsumer;
-import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.graphutils.DashboardView;
 import com.esrc.biosignal.libs.SignalNotifier;
+import com.esrc.biosignal.libs.SnapshotBridge;
 import com.esrc.biosignal.libs.StateNotifier;
+import com.esrc.biosignal.signalutils.EmotionPipeline;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 
-public class Feel_Start2 extends Activity implements BiosignalConsumer {
+public class Feel_Start2 extends Activity {
     private static final String TAG = "Feel_Start2";
     private final Activity act = this;
 
     // PPG 장비 관련 변수
-    private BiosignalManager mBIosignalManager = null;  // PPG 장비 관리 객체
 
     // 인터페이스 관련 변수
     private Button mStopBtn;  // 종료 버튼 레이아웃
-
-
-    //파일 작성 관련
-    final static String foldername = Environment.getExternalStorageDirectory().getAbsolutePath()+"/TestLog";
-    //final static String file_ppg = "ppg2.txt";
-    //final static String file_bpm = "bpm2.txt";
-    //final static String file_ppi  ="ppi2.txt";
-//    final static String file_LF="LF2.txt";
-//    final static String file_HF="HF2.txt";
-    final static String file_FFT="FFT2.txt";    //실험 데이터 받는 파일
-
-    //FFT 관련
-    private int countPPI=0;
-    private double[] ppiList2=new double[32];    //0~31까지의 index, ppi 정보 들어있는 배열
-    private double[] FFTList2=new double[32];   //FFT한 결과 받아옴
-
-    //값 처리 변수
-    private double[] BPMList2=new double[32];   //BPM 평균 계산 위해 BPM 저장
-    private double BPM_sum;
-    private double BPM_average;
-    private double LF;
-    private double HF;
-    private double LFperHF1;//감정 관련 상태
-    private double LFperHF2;//안정 상태일때
+    private DashboardView mDashboard;  // 영상 재생 중에도 PPG / 심박 / 스펙트럼 표시
+    private SnapshotBridge mBridge;  // DSP 상태를 프레임당 한 번만 대시보드에 전달
 
 
     //상태
@@ -80,10 +50,8 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
     Runnable r2 = new Runnable() {
         @Override
         public void run() {
-            //데이터를 저장
-            Data_Cal();
+            //감정 측정 마감 후 감정 상태 판별하여 창 전환
             State();
-            //감정 상태 판별하여 창 전환
 
             /**angry*/
             if(state==1) {
@@ -104,116 +72,29 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
                 startActivity(happy); // 다음화면으로 넘어가기
             }
 
+            // 이번 손님 측정 끝, 스트림만 멈추고 링크는 다음 손님을 위해 유지
+            stopMeasurement();
             finish(); // Activity 화면 제거
         }
     };
 
     //상태 결정
     public void State(){
-
-        //LF/HF 구하기
-        LFperHF1=CommonVariables.LF1/CommonVariables.HF1;
-        LFperHF2=CommonVariables.LF2/CommonVariables.HF2;
-
-        /**angry
-         * LF/HF가 진정보다 작고, BPM이 진정보다 더 높음*/
-        if(LFperHF1<=LFperHF2 && CommonVariables.bpm1>=CommonVariables.bpm2){
-            state=1;
-        }
-        /**
-         * LF/HF가 진정보다 작고 BPM이 진정보다 더 낮음sad*/
-        else if(LFperHF1<=LFperHF2 && CommonVariables.bpm1<=CommonVariables.bpm2){
-            state=2;
-        }
-        /**
-         * LF/HF가 진정보다 큼happy*/
-        else{       //(LFperHF1<=LFperHF2)
-            state=3;
-        }
-    }
-
-    //데이터 처리
-    public void Data_Cal(){
-        //FFT 결과값 저장
-        for(int i=0;i<32;i++) {
-            FFTList2[i]=FFT_Cal(ppiList2)[i];   //FFT 계산
-            String contents2=FFTList2[i]+"\n";
-            WriteTextFile(foldername,file_FFT,contents2);
-            BPM_sum+=BPMList2[i];   //평균 계산 위해 bpm 값 더함
-        }
-        BPM_average=BPM_sum/32;     //BPM 평균 구함
-
-        CommonVariables.bpm2 = BPM_average;
-
-        /**LF 계산*/
-        //LF영역 2~4번
-        for(int j=2;j<=4;j++){
-            LF+=FFTList2[j];
-        }
-
-        /**HF 계산*/
-        //HF영역 5~12번
-        for(int k=5;k<=12;k++){
-            HF+=FFTList2[k];
-        }
-
-        CommonVariables.LF2=LF;
-        CommonVariables.HF2=HF;
-
-
-    }
-
-
-    //FFT 계산하는 함수
-    public static double[] FFT_Cal(double[] input){
-        FastFourierTransform FastFT=new FastFourierTransform();
-        Complex[] cinput = new Complex[input.length]; //make complex arr
-        for (int i = 0; i < input.length; i++)
-            cinput[i] = new Complex(input[i], 0.0);//input re: input[i], im: 0,0,0...-->real!
-
-        FastFT.fft(cinput);
-
-//        System.out.println("Results:");
-//        for (Complex c : cinput) {
-//            System.out.println(c);
-//        }
-
-        double[] power_spectrum=new double[input.length];
-
-        for(int i=0;i<input.length;i++){
-            power_spectrum[i]=((cinput[i].re*cinput[i].re)+(cinput[i].im*cinput[i].im))/(input.length*input.length)*2;
-            //System.out.printf("%.9f\n",power_spectrum[i]);
-        }
-
-        return power_spectrum;
-    }
-
-    public void WriteTextFile(String foldername, String filename, String contents){
-        try{
-            File dir = new File (foldername);
-            //디렉토리 폴더가 없으면 생성함
-            if(!dir.exists()){
-                dir.mkdir();
-            }
-            //파일 output stream 생성
-            FileOutputStream fos = new FileOutputStream(foldername+"/"+filename, true);
-            //파일쓰기
-            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(fos));
-            writer.write(contents);
-            writer.flush();
-
-            writer.close();
-            fos.close();
-        }catch (IOException e){
-            e.printStackTrace();
-        }
+        /**angry : LF/HF가 진정보다 작고, BPM이 진정보다 더 높음
+         * sad : LF/HF가 진정보다 작고 BPM이 진정보다 더 낮음
+         * happy : LF/HF가 진정보다 큼 (재생 엔진과 같은 판별)
+         * 계산, 결과 화면용 변수, 손님 결과 저장은 Application 의 EmotionPipeline 이 함*/
+        EmotionPipeline pipeline = ((BiosignalApplication) getApplication()).getPipeline();
+        if (pipeline == null) return;
+        pipeline.endEmotion();  // PPI 32개가 다 안 모였으면 모인 만큼으로 계산
+        state = pipeline.getState();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
         // 다시 화면에 들어어왔을 때 예약 걸어주기
-        handler2.postDelayed(r2, 50000); //50초 뒤에 Runnable 객체 수행, 35초동안 PPI 측정
+        handler2.postDelayed(r2, 45000); //45초 뒤에 Runnable 객체 수행, 35초동안 PPI 측정 (READY 즉시 시작하므로 고정 대기 5초 제외)
 
     }
 
@@ -267,7 +148,7 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
      */
     @Override
     public void onDestroy() {
-        // 앱 종료 시 PPG 장비 연결 해제
+        // 화면 종료 시 리스너만 해제 (장비 연결은 Application 이 유지)
         unbind();
         super.onDestroy();
     }
@@ -279,6 +160,10 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
         // 인터페이스 초기화
         //mPPGGraph = new LineChartGraph(this, (RelativeLayout) findViewById(R.id.ppg_view), 300, 2);
         //mBpmTv = (TextView) findViewById(R.id.bpm_tv);
+        mDashboard = new DashboardView(this, (RelativeLayout) findViewById(R.id.dashboard_view));
+        mDashboard.setWindowSize(300);
+        mDashboard.setFillColor(Color.rgb(0x33, 0x50, 0x1a));
+        mBridge = new SnapshotBridge(300);
 
         //mStartBtn = (Button) findViewById(R.id.start_btn);
         mStopBtn = (Button) findViewById(R.id.stop_btn);
@@ -305,7 +190,8 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
                             public void onClick(DialogInterface dialog, int which) {
                                 //넘어가는 부분
                                 Intent home = new Intent(Feel_Start2.this, Feel_Angry.class);
-                                onDestroy();//연결종료
+                                stopMeasurement();
+                                onDestroy();//리스너 해제 (연결은 유지)
                                 handler2.removeCallbacks(r2); // 예약 취소
                                 startActivity(home);
                             }
@@ -328,19 +214,7 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
      * BPM 콜백 함수
      */
     private void onCallbackReceivedBPM(double bpm) {
-//        String contents = (bpm) + "\n";
-//        WriteTextFile(foldername, file_bpm, contents);
-//        String contents2=(60/bpm)+"\n";
-//        WriteTextFile(foldername,file_ppi,contents2);
-
-        //FFT위해 배열에 저장
-        if(countPPI<32) {
-            ppiList2[countPPI] = (60 / bpm);   //0~34까지의 index에 ppi값 저장
-            BPMList2[countPPI]=bpm;
-            //Log.d(TAG, "\nindex"+countPPI+" : " + ppiList2[countPPI]); //확인위해 Log찍어봄
-            countPPI++;
-
-        }
+        // PPI 수집과 감정 측정 계산은 Application 의 EmotionPipeline 이 함
     }
 
     // ############# PPG 장비 연결 관련 #############
@@ -367,97 +241,55 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
     }
 
     /**
-     * PPG 장비 관리 객체 설정 함수
+     * 측정 화면 리스너를 세션에 붙임 (연결/스트림은 Application 이 유지)
      */
     private void bind() {
-        onBindBiosignalService(true);
+        BiosignalApplication app = (BiosignalApplication) getApplication();
+        app.attach(mStateNotifier, mSignalNotifier);
+        mBridge.subscribeTo(app.getBiosignalManager(), 0);
+        mBridge.setListener(mDashboard);
     }
 
     /**
-     * PPG 장비 관리 객체 해제 함수
+     * 측정 화면 리스너만 떼어냄, 다음 화면이 같은 스트림을 이어받음
      */
     private void unbind() {
-        onBindBiosignalService(false);
+        ((BiosignalApplication) getApplication()).detach(mStateNotifier, mSignalNotifier);
+        mBridge.unsubscribe();
     }
 
     /**
-     * PPG 장비 관리 객체 연결 콜백 함수
+     * 측정 중단 (스트림만 멈추고 장비 연결은 유지)
      */
-    private void onBindBiosignalService(boolean bind) {
-        if (bind) {
-            if (mBIosignalManager == null)
-                mBIosignalManager = BiosignalManager.getInstanceForApplication(this);
-            mBIosignalManager.bind(this);
-        } else {
-            if (mBIosignalManager == null) return;
-            try {
-                mBIosignalManager.stopSignaling(0);
-                mBIosignalManager.disconnect(0);
-                mBIosignalManager.unBind(this);
-                mBIosignalManager = null;
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
-        }
+    private void stopMeasurement() {
+        ((BiosignalApplication) getApplication()).stopStreaming();
     }
 
     /**
-     * PPG 장비 관리 객체 콜백 함수
+     * 연결 상태 콜백 (측정 시작은 서비스가 READY 시점에 처리)
      */
-    @Override
-    public void onBiosignalServiceConnect() {
-        mBIosignalManager.setStateNotifier(new StateNotifier() {
-            @Override
-            public void didChangedState(int state) {
-                if (state == BiosignalManager.STATE_CONNECTED) {
-                    Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        public void run() {
-                            try {
-                                if (mBIosignalManager != null) {
-                                    mBIosignalManager.startSignaling(0);
-                                }
-                            } catch (RemoteException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }, 5000);
-                }
-            }
-        });
-
-        mBIosignalManager.setSignalNotifier(new SignalNotifier() {
-            @Override
-            public void onReceivedPPG(int ppg) {
-                  onCallbackReceivedPPG(ppg);
-
-            }
-
-            @Override
-            public void onReceivedBPM(double bpm) {
-                Log.d(TAG, "onReceivedBPM : " + bpm);
-                 onCallbackReceivedBPM(bpm);
-            }
-        });
-
-        onConnectSociaLBand();
-    }
+    private final StateNotifier mStateNotifier = new StateNotifier() {
+        @Override
+        public void didChangedState(int state) {
+            Log.d(TAG, "didChangedState : " + state);
+        }
+    };
 
     /**
-     * PPG 장비 연결 함수
+     * PPG 신호 콜백
      */
-    private void onConnectSociaLBand() {
-        String address = PreferenceManager.getDefaultSharedPreferences(this).getString("biosignal", null);
-        if (address == null) return;
-        try {
-            if (mBIosignalManager != null) {
-                Log.d(TAG, "onConnectBiosignal : " + address);
-                mBIosignalManager.connect(0, address);
-            }
-        } catch (RemoteException e) {
-            e.printStackTrace();
+    private final SignalNotifier mSignalNotifier = new SignalNotifier() {
+        @Override
+        public void onReceivedPPG(int ppg) {
+            onCallbackReceivedPPG(ppg);
         }
-    }
+
+        @Override
+        public void onReceivedBPM(double bpm) {
+            Log.d(TAG, "onReceivedBPM : " + bpm);
+            onCallbackReceivedBPM(bpm);
+        }
+    };
     // ###########################################
 
 
@@ -475,7 +307,8 @@ public class Feel_Start2 extends Activity implements BiosignalConsumer {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
                         Intent home = new Intent(Feel_Start2.this, SelectMode.class);
-                        onDestroy();//
+                        stopMeasurement();
+                        onDestroy();//리스너 해제 (연결은 유지)
                         handler2.removeCallbacks(r2); // 예약 취소
                         startActivity(home);
                     }
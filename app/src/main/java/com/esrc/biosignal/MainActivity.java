@@ -22,7 +22,8 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import com.esrc.biosignal.graphutils.LineChartGraph;
+import com.esrc.biosignal.graphutils.HistoryChartView;
+import com.esrc.biosignal.graphutils.StripChartView;
 import com.esrc.biosignal.libs.BiosignalConsumer;
 import com.esrc.biosignal.libs.BiosignalManager;
 import com.esrc.biosignal.libs.SignalNotifier;
@@ -40,7 +41,8 @@ public class MainActivity extends Activity implements BiosignalConsumer {
     private BiosignalManager mBIosignalManager = null;  // PPG 장비 관리 객체
 
     // 인터페이스 관련 변수
-    private LineChartGraph mPPGGraph;  // PPG 그래프 레이아웃
+    private StripChartView mPPGGraph;  // PPG 그래프 레이아웃
+    private HistoryChartView mHistoryGraph;  // 측정 시작부터 지금까지 PPG 전체
     private TextView mBpmTv;  // BPM 텍스트 레이아웃
     private Button mConnectBtn;  // 장비 연결 버튼 레이아웃
     private Button mStartBtn;  // 시작 버튼 레이아웃
@@ -87,9 +89,9 @@ public class MainActivity extends Activity implements BiosignalConsumer {
      */
     private void initialize() {
         // 인터페이스 초기화
-        mPPGGraph = new LineChartGraph(this, (RelativeLayout) findViewById(R.id.ppg_view));
+        mPPGGraph = new StripChartView(this, (RelativeLayout) findViewById(R.id.ppg_view));
         mPPGGraph.setWindowSize(400);
-        mPPGGraph.setIntervalSize(2);
+        mHistoryGraph = new HistoryChartView(this, (RelativeLayout) findViewById(R.id.history_view));
         mBpmTv = (TextView) findViewById(R.id.bpm_tv);
         mConnectBtn = (Button) findViewById(R.id.connect_btn);
         mStartBtn = (Button) findViewById(R.id.start_btn);
@@ -104,6 +106,7 @@ public class MainActivity extends Activity implements BiosignalConsumer {
         mStartBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
+                mHistoryGraph.clear();
                 bind();
                 Toast.makeText(act, "측정이 시작되었습니다.", Toast.LENGTH_SHORT).show();
             }
@@ -122,6 +125,7 @@ public class MainActivity extends Activity implements BiosignalConsumer {
      */
     private void onCallbackReceivedPPG(int ppg) {
         mPPGGraph.addValue((float) ppg);
+        mHistoryGraph.addValue((float) ppg);
     }
 
     /*
@@ -199,19 +203,15 @@ public class MainActivity extends Activity implements BiosignalConsumer {
         mBIosignalManager.setStateNotifier(new StateNotifier() {
             @Override
             public void didChangedState(int state) {
-                if (state == BiosignalManager.STATE_CONNECTED) {
-                    Handler handler = new Handler();
-                    handler.postDelayed(new Runnable() {
-                        public void run() {
-                            try {
-                                if (mBIosignalManager != null) {
-                                    mBIosignalManager.startSignaling(0);
-                                }
-                            } catch (RemoteException e) {
-                                e.printStackTrace();
-                            }
+                // 알림 설정까지 끝나 READY 가 되는 즉시 측정 시작
+                if (state == BiosignalManager.STATE_READY) {
+                    try {
+                        if (mBIosignalManager != null) {
+                            mBIosignalManager.startSignaling(0);
                         }
-                    }, 5000);
+                    } catch (RemoteException e) {
+                        e.printStackTrace();
+                    }
                 }
             }
         });
@@ -231,6 +231,15 @@ public class MainActivity extends Activity implements BiosignalConsumer {
         });
 
         onConnectSociaLBand();
+
+        // 앱이 미리 연결해 둔 경우 READY 알림이 다시 오지 않으므로 바로 측정 시작
+        if (mBIosignalManager.getConnectionState(0) == BiosignalManager.STATE_READY) {
+            try {
+                mBIosignalManager.startSignaling(0);
+            } catch (RemoteException e) {
+                e.printStackTrace();
+            }
+        }
     }
 
     /**
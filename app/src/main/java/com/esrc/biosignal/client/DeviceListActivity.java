@@ -17,6 +17,8 @@ import android.location.LocationManager;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.provider.Settings;
 import android.util.Log;
 import android.view.Gravity;
@@ -34,6 +36,7 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.esrc.biosignal.R;
+import com.esrc.biosignal.service.BiosignalService;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -48,6 +51,10 @@ public class DeviceListActivity extends Activity {
     private static final long SCAN_PERIOD = 10_000L;
     private static final int REQ_BT_ENABLE = 1001;
     private static final int REQ_PERMS = 1002;
+    // 목록 갱신은 최대 250ms에 한 번
+    private static final long UI_REFRESH_MS = 250L;
+    // 컨트롤러 배칭을 지원하면 결과를 모아서 받음
+    private static final long REPORT_DELAY_MS = 500L;
 
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothLeScanner mScanner;
@@ -58,8 +65,13 @@ public class DeviceListActivity extends Activity {
 
     private TextView mEmptyList;
     private DeviceAdapter deviceAdapter;
+    // RSSI 내림차순으로 항상 정렬된 상태 유지 (스캔 콜백이 갱신)
     private final List<BluetoothDevice> deviceList = new ArrayList<>();
     private final Map<String, Integer> devRssiValues = new HashMap<>();
+    // 어댑터가 보여주는 목록, 갱신 시점에만 deviceList에서 복사
+    private final List<BluetoothDevice> shownDevices = new ArrayList<>();
+    private boolean mRefreshPending = false;
+    private long mLastRefresh = 0L;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -102,11 +114,11 @@ public class DeviceListActivity extends Activity {
             }
         }
 
-        deviceAdapter = new DeviceAdapter(this, deviceList);
+        deviceAdapter = new DeviceAdapter(this, shownDevices);
         ListView newDevicesListView = findViewById(R.id.new_devices);
         newDevicesListView.setAdapter(deviceAdapter);
         newDevicesListView.setOnItemClickListener((parent, view, position, id) -> {
-            BluetoothDevice device = deviceList.get(position);
+            BluetoothDevice device = shownDevices.get(position);
             stopScanIfNeeded();
 
             Intent result = new Intent();
@@ -208,6 +220,9 @@ public class DeviceListActivity extends Activity {
         // 목록 초기화
         deviceList.clear();
         devRssiValues.clear();
+        shownDevices.clear();
+        mHandler.removeCallbacks(refreshRunnable);
+        mRefreshPending = false;
         deviceAdapter.notifyDataSetChanged();
         mEmptyList.setText(R.string.scanning);
 
@@ -218,18 +233,18 @@ public class DeviceListActivity extends Activity {
                     BluetoothDevice device = result.getDevice();
                     if (device == null || device.getAddress() == null) return;
 
-                    String addr = device.getAddress();
-                    if (!devRssiValues.containsKey(addr)) {
-                        deviceList.add(device);
-                    }
-                    devRssiValues.put(addr, result.getRssi());
-                    deviceAdapter.notifyDataSetChanged();
-                    mEmptyList.setText("");
+                    placeByRssi(device, result.getRssi());
+                    scheduleRefresh();
                 }
 
                 @Override
                 public void onBatchScanResults(List<ScanResult> results) {
-                    for (ScanResult r : results) onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, r);
+                    for (ScanResult r : results) {
+                        BluetoothDevice device = r.getDevice();
+                        if (device == null || device.getAddress() == null) continue;
+                        placeByRssi(device, r.getRssi());
+                    }
+                    scheduleRefresh();
                 }
 
                 @Override
@@ -240,11 +255,17 @@ public class DeviceListActivity extends Activity {
             };
         }
 
-        // 필터 없이 전체 스캔 (Nordic 포함 주변 BLE 전부)
-        List<ScanFilter> filters = null;
-        ScanSettings settings = new ScanSettings.Builder()
-                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
-                .build();
+        // 센서의 UART 서비스를 광고하는 기기만 (주변 비콘은 컨트롤러에서 걸러짐)
+        List<ScanFilter> filters = new ArrayList<>();
+        filters.add(new ScanFilter.Builder()
+                .setServiceUuid(new ParcelUuid(BiosignalService.RX_SERVICE_UUID))
+                .build());
+        ScanSettings.Builder settingsBuilder = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY);
+        if (mBluetoothAdapter.isOffloadedScanBatchingSupported()) {
+            settingsBuilder.setReportDelay(REPORT_DELAY_MS);
+        }
+        ScanSettings settings = settingsBuilder.build();
 
         mScanner.startScan(filters, settings, mScanCb);
         mScanning = true;
@@ -252,6 +273,7 @@ public class DeviceListActivity extends Activity {
         // 일정 시간 후 자동 종료
         mHandler.postDelayed(() -> {
             stopScanIfNeeded();
+            refreshList();
             if (deviceList.isEmpty()) {
                 mEmptyList.setText(R.string.no_devices_found);
             }
@@ -260,11 +282,62 @@ public class DeviceListActivity extends Activity {
 
     private void stopScanIfNeeded() {
         if (mScanning && mScanner != null && mScanCb != null) {
+            // 배칭 중 모인 결과도 받아두기
+            try { mScanner.flushPendingScanResults(mScanCb); } catch (Exception ignored) {}
             try { mScanner.stopScan(mScanCb); } catch (Exception ignored) {}
         }
         mScanning = false;
     }
 
+    // 바뀐 기기 하나만 빼서 이진 탐색한 자리에 다시 끼움 (전체 재정렬 없음)
+    private void placeByRssi(BluetoothDevice device, int rssi) {
+        String addr = device.getAddress();
+        Integer old = devRssiValues.get(addr);
+        if (old != null) {
+            if (old == rssi) return;
+            for (int i = lowerBound(old); i < deviceList.size(); i++) {
+                if (addr.equals(deviceList.get(i).getAddress())) {
+                    deviceList.remove(i);
+                    break;
+                }
+            }
+        }
+        devRssiValues.put(addr, rssi);
+        deviceList.add(lowerBound(rssi), device);
+    }
+
+    // rssi 이하인 첫 위치 (deviceList는 RSSI 내림차순)
+    private int lowerBound(int rssi) {
+        int lo = 0, hi = deviceList.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (devRssiValues.get(deviceList.get(mid).getAddress()) > rssi) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // 광고가 아무리 많이 와도 화면 갱신은 UI_REFRESH_MS 에 한 번
+    private void scheduleRefresh() {
+        if (mRefreshPending) return;
+        mRefreshPending = true;
+        long wait = mLastRefresh + UI_REFRESH_MS - SystemClock.uptimeMillis();
+        mHandler.postDelayed(refreshRunnable, Math.max(0L, wait));
+    }
+
+    private final Runnable refreshRunnable = () -> {
+        mRefreshPending = false;
+        refreshList();
+    };
+
+    private void refreshList() {
+        mLastRefresh = SystemClock.uptimeMillis();
+        shownDevices.clear();
+        shownDevices.addAll(deviceList);
+        deviceAdapter.notifyDataSetChanged();
+        if (!shownDevices.isEmpty()) mEmptyList.setText("");
+    }
+
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -301,6 +374,8 @@ public class DeviceListActivity extends Activity {
     protected void onStop() {
         super.onStop();
         stopScanIfNeeded();
+        mHandler.removeCallbacks(refreshRunnable);
+        mRefreshPending = false;
     }
 
     // ---------------- Adapter ----------------
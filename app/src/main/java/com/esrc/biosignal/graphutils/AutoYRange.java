@@ -0,0 +1,79 @@
+package com.esrc.biosignal.graphutils;
+
+/**
+ * 그래프 Y 축 자동 범위 (최근 윈도우 값에 맞춤)
+ * - 최근 값의 최소/최대는 SlidingMinMax 로 샘플당 O(1)
+ * - 값이 축을 벗어나면 바로 넓히고, 값의 폭이 축의 절반 아래로 줄었을 때만 좁혀서
+ *   축이 샘플마다 흔들리지 않게 함 (히스테리시스)
+ * - 맞출 때는 위아래로 MARGIN 만큼 여유를 둠
+ */
+public class AutoYRange {
+    private static final float MARGIN = 0.1f;        // 값 폭 대비 위아래 여유
+    private static final float SHRINK_RATIO = 0.5f;  // 값 폭이 축 폭의 이 비율 아래면 좁힘
+
+    private final SlidingMinMax mWindow;
+    private final float mMinSpan;   // 평평한 신호에서도 축 폭이 0 이 되지 않게
+
+    private float mMin;
+    private float mMax;
+    private boolean mValid = false;
+
+    /**
+     * @param windowSize 최소/최대를 볼 최근 샘플 수 (보통 그래프 윈도우 크기)
+     * @param minSpan    축의 최소 폭
+     */
+    public AutoYRange(int windowSize, float minSpan) {
+        mWindow = new SlidingMinMax(windowSize);
+        mMinSpan = Math.max(minSpan, Float.MIN_NORMAL);
+    }
+
+    /**
+     * 샘플 추가
+     *
+     * @return 축 범위가 바뀌었으면 true
+     */
+    public boolean add(float value) {
+        mWindow.add(value);
+        float lo = mWindow.min();
+        float hi = mWindow.max();
+        float span = hi - lo;
+        if (mValid && lo >= mMin && hi <= mMax && span >= (mMax - mMin) * SHRINK_RATIO) {
+            return false;
+        }
+        if (mValid && lo >= mMin && hi <= mMax && mMax - mMin <= mMinSpan * (1 + 2 * MARGIN)) {
+            // 이미 최소 폭이면 더 좁힐 수 없음
+            return false;
+        }
+        // 값에 맞춰 다시 잡음 (가운데 정렬)
+        float fitted = Math.max(span, mMinSpan);
+        float center = (lo + hi) / 2;
+        float half = fitted * (0.5f + MARGIN);
+        mMin = center - half;
+        mMax = center + half;
+        mValid = true;
+        return true;
+    }
+
+    public float getMin() {
+        return mMin;
+    }
+
+    public float getMax() {
+        return mMax;
+    }
+
+    /** 값이 하나라도 들어와 범위가 정해졌는지 */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    public void clear() {
+        mWindow.clear();
+        mValid = false;
+    }
+
+    public void setWindowSize(int windowSize) {
+        mWindow.setWindowSize(windowSize);
+        mValid = false;
+    }
+}
@@ -0,0 +1,442 @@
+package com.esrc.biosignal.graphutils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+import android.view.ViewGroup;
+import android.widget.RelativeLayout;
+
+import com.esrc.biosignal.libs.SignalSnapshot;
+import com.esrc.biosignal.libs.SnapshotBridge;
+import com.esrc.biosignal.signalutils.EmotionCalculator;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * 측정 화면용 실시간 대시보드 (PPG 파형 + BPM 추이 + PPI 스펙트럼 LF/HF)
+ * - 화면의 SnapshotBridge 가 프레임마다 넘겨주는 스냅샷 하나에서 새 샘플과 새 BPM 만 받음
+ *   (화면의 다른 표시와 같은 상태를 보고, 스트림을 따로 구독하지 않음)
+ * - 그리기는 전용 렌더 스레드 하나에서 Choreographer 로 프레임당 한 번,
+ *   그 프레임까지 모인 상태를 한 번에 복사해서 세 패널을 모두 그림
+ * - BPM 은 SignalManager 가 약 1초마다 내는 창 단위 추정값이라 박동 하나하나의 간격(RR)이 아님,
+ *   그래서 아래 왼쪽 패널은 타코그램이 아니라 BPM 추이
+ * - 스펙트럼도 그 BPM 의 60/BPM 으로 EmotionCalculator 와 같은 계산을 한 것
+ *   (감정 측정이 쓰는 값과 같고, PPI 가 32개 모이면 측정 결과와 같은 값, RR 간격 HRV 는 아님)
+ */
+public class DashboardView extends SurfaceView implements SurfaceHolder.Callback, SnapshotBridge.Listener {
+    private static final String TAG = "DashboardView";
+
+    private static final int TREND_BPMS = 60;         // BPM 추이에 보이는 BPM 개수
+    private static final int SPECTRUM_BINS = 16;      // 1 ~ 16 번 빈 (0 번 DC 는 뺌)
+    private static final int LF_FIRST = 2, LF_LAST = 4;
+    private static final int HF_FIRST = 5, HF_LAST = 12;
+    private static final float MIN_PPG_SPAN = 64f;
+    private static final float MIN_BPM_SPAN = 10f;
+
+    private final Object mLock = new Object();
+
+    // ---- 스냅샷으로 받은 상태 (mLock) ----
+    private float[] mPpg = new float[300];
+    private int mPpgHead = 0;
+    private int mPpgSize = 0;
+    private final AutoYRange mPpgRange = new AutoYRange(mPpg.length, MIN_PPG_SPAN);
+    private final float[] mBeats = new float[TREND_BPMS];
+    private int mBeatHead = 0;
+    private int mBeatSize = 0;
+    private int mBeatCount = 0;
+    private final double[] mPpiList = new double[EmotionCalculator.PPI_COUNT];
+    private final double[] mBpmList = new double[EmotionCalculator.PPI_COUNT];
+    private final float[] mSpectrum = new float[SPECTRUM_BINS + 1];
+    private float mLf = 0;
+    private float mHf = 0;
+    private long mLastSampleIndex = -1;   // 마지막으로 받은 샘플 번호
+    private int mLastBeatCount = 0;       // 마지막으로 받은 스냅샷의 박동 수
+    private boolean mFrameRequested = false;
+    private Handler mRenderHandler = null;
+
+    // ---- 렌더 스레드 전용 (프레임마다 위 상태를 복사해 옴) ----
+    private HandlerThread mRenderThread = null;
+    private float[] mDrawPpg = new float[mPpg.length];
+    private int mDrawPpgSize = 0;
+    private float mDrawPpgMin = 0;
+    private float mDrawPpgMax = 1024;
+    private final float[] mDrawBeats = new float[TREND_BPMS];
+    private int mDrawBeatSize = 0;
+    private int mDrawBeatCount = -1;
+    private final float[] mDrawSpectrum = new float[SPECTRUM_BINS + 1];
+    private float[] mLines = new float[4 * mPpg.length];
+    private final float[] mBeatLines = new float[8 * TREND_BPMS];
+    private String mHrText = "";
+    private String mLfHfText = "";
+
+    private int mFillColor = Color.BLACK;
+    private final Paint mPpgPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mBeatPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mLfPaint = new Paint();
+    private final Paint mHfPaint = new Paint();
+    private final Paint mBinPaint = new Paint();
+    private final Paint mGridPaint = new Paint();
+    private final Paint mTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final float mDensity;
+
+    public DashboardView(Context context) {
+        this(context, (AttributeSet) null);
+    }
+
+    public DashboardView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mDensity = context.getResources().getDisplayMetrics().density;
+        mPpgPaint.setColor(Color.argb(0xFF, 0xFF, 0xBB, 0x00));
+        mPpgPaint.setStyle(Paint.Style.STROKE);
+        mPpgPaint.setStrokeWidth(3f * mDensity);
+        mPpgPaint.setStrokeCap(Paint.Cap.ROUND);
+        mBeatPaint.setColor(Color.RED);
+        mBeatPaint.setStyle(Paint.Style.STROKE);
+        mBeatPaint.setStrokeWidth(2f * mDensity);
+        mBeatPaint.setStrokeCap(Paint.Cap.ROUND);
+        mLfPaint.setColor(Color.argb(0xFF, 0x4F, 0xC3, 0xF7));
+        mHfPaint.setColor(Color.argb(0xFF, 0x81, 0xC7, 0x84));
+        mBinPaint.setColor(Color.argb(0xFF, 0x88, 0x88, 0x88));
+        mGridPaint.setColor(Color.argb(0x66, 0x88, 0x88, 0x88));
+        mGridPaint.setStrokeWidth(1f);
+        mTextPaint.setColor(Color.argb(0xFF, 0x99, 0x99, 0x99));
+        mTextPaint.setTextSize(12f * mDensity);
+        getHolder().addCallback(this);
+    }
+
+    /** StripChartView 처럼 RelativeLayout 에 꽉 차게 붙여서 생성 */
+    public DashboardView(Context context, RelativeLayout layout) {
+        this(context);
+        setLayoutParams(new RelativeLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.addView(this);
+    }
+
+    /** 배경색 (SurfaceView 라서 레이아웃 배경이 비치지 않음) */
+    public void setFillColor(int color) {
+        mFillColor = color;
+        requestFrame();
+    }
+
+    /** PPG 파형에 보이는 샘플 수 */
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 1) return;
+        synchronized (mLock) {
+            if (windowSize == mPpg.length) return;
+            mPpg = new float[windowSize];
+            mPpgHead = 0;
+            mPpgSize = 0;
+            mPpgRange.setWindowSize(windowSize);
+            requestFrameLocked();
+        }
+    }
+
+    /**
+     * SnapshotBridge 가 넘겨준 최신 상태에서 지난번 이후 새로 온 샘플과 BPM 만 받음 (메인 스레드)
+     * 브리지가 프레임 사이 스냅샷을 합쳐 주므로 그 사이 BPM 이 둘 이상 오면 마지막 것만 보임
+     */
+    @Override
+    public void onSnapshot(SignalSnapshot snapshot) {
+        synchronized (mLock) {
+            int count = snapshot.getSampleCount();
+            long last = snapshot.getLastSampleIndex();
+            // 처음이거나 브리지가 비워졌으면 스냅샷에 있는 샘플 전부
+            long fresh = mLastSampleIndex < 0 || last < mLastSampleIndex ? count : last - mLastSampleIndex;
+            for (int i = count - (int) Math.min(fresh, count); i < count; i++) {
+                putSample(snapshot.getSample(i));
+            }
+            mLastSampleIndex = last;
+            if (snapshot.getBeatCount() != mLastBeatCount) {
+                mLastBeatCount = snapshot.getBeatCount();
+                if (mLastBeatCount > 0) putBeat(snapshot.getBpm());
+            }
+            requestFrameLocked();
+        }
+    }
+
+    /** PPG 샘플 하나 추가 (아무 스레드) */
+    public void addSample(float value) {
+        synchronized (mLock) {
+            putSample(value);
+            requestFrameLocked();
+        }
+    }
+
+    private void putSample(float value) {
+        int tail = (mPpgHead + mPpgSize) % mPpg.length;
+        mPpg[tail] = value;
+        if (mPpgSize < mPpg.length) mPpgSize++;
+        else mPpgHead = (mPpgHead + 1) % mPpg.length;
+        mPpgRange.add(value);
+    }
+
+    /** BPM 추가, BPM 추이와 스펙트럼 갱신 (아무 스레드) */
+    public void addBeat(double bpm) {
+        synchronized (mLock) {
+            putBeat(bpm);
+            requestFrameLocked();
+        }
+    }
+
+    private void putBeat(double bpm) {
+        if (bpm <= 0) return;
+        int tail = (mBeatHead + mBeatSize) % mBeats.length;
+        mBeats[tail] = (float) bpm;
+        if (mBeatSize < mBeats.length) mBeatSize++;
+        else mBeatHead = (mBeatHead + 1) % mBeats.length;
+
+        // 측정과 같은 배열 배치: 앞에서부터 채우고, 다 차면 가장 오래된 PPI 를 밀어냄
+        int last = EmotionCalculator.PPI_COUNT - 1;
+        int slot = Math.min(mBeatCount, last);
+        if (mBeatCount > last) {
+            System.arraycopy(mPpiList, 1, mPpiList, 0, last);
+            System.arraycopy(mBpmList, 1, mBpmList, 0, last);
+        }
+        mPpiList[slot] = 60 / bpm;
+        mBpmList[slot] = bpm;
+        mBeatCount++;
+
+        // 박동당 한 번 (32점 FFT)
+        EmotionCalculator.Result result = EmotionCalculator.calculate(mPpiList, mBpmList);
+        for (int i = 0; i <= SPECTRUM_BINS; i++) {
+            mSpectrum[i] = (float) result.spectrum[i];
+        }
+        mLf = (float) result.lf;
+        mHf = (float) result.hf;
+    }
+
+    /** 모든 값 지움 (아무 스레드) */
+    public void clear() {
+        synchronized (mLock) {
+            mPpgHead = 0;
+            mPpgSize = 0;
+            mPpgRange.clear();
+            mBeatHead = 0;
+            mBeatSize = 0;
+            mBeatCount = 0;
+            Arrays.fill(mPpiList, 0);
+            Arrays.fill(mBpmList, 0);
+            Arrays.fill(mSpectrum, 0);
+            mLf = 0;
+            mHf = 0;
+            requestFrameLocked();
+        }
+    }
+
+    private void requestFrame() {
+        synchronized (mLock) {
+            requestFrameLocked();
+        }
+    }
+
+    // 다음 프레임 예약 (이미 예약돼 있으면 아무것도 안 함)
+    private void requestFrameLocked() {
+        if (mFrameRequested || mRenderHandler == null) return;
+        mFrameRequested = true;
+        mRenderHandler.post(mScheduleFrame);
+    }
+
+    // 렌더 스레드에서 Choreographer 에 프레임 콜백 등록
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            takeSnapshot();
+            render();
+        }
+    };
+
+    // ---------------------------------------------------------------- 렌더 스레드
+
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        thread.start();
+        synchronized (mLock) {
+            mRenderThread = thread;
+            mRenderHandler = new Handler(thread.getLooper());
+            mFrameRequested = false;
+            requestFrameLocked();
+        }
+    }
+
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        requestFrame();
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        HandlerThread thread;
+        synchronized (mLock) {
+            thread = mRenderThread;
+            mRenderThread = null;
+            mRenderHandler = null;
+        }
+        if (thread == null) return;
+        // 여기서 돌아가면 Surface 가 없어지므로 렌더 스레드가 끝날 때까지 기다림
+        thread.quit();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 프레임당 한 번, 모인 상태를 렌더 쪽 배열로 복사
+    private void takeSnapshot() {
+        synchronized (mLock) {
+            mFrameRequested = false;
+            if (mDrawPpg.length != mPpg.length) {
+                mDrawPpg = new float[mPpg.length];
+                mLines = new float[4 * mPpg.length];
+            }
+            for (int i = 0; i < mPpgSize; i++) {
+                mDrawPpg[i] = mPpg[(mPpgHead + i) % mPpg.length];
+            }
+            mDrawPpgSize = mPpgSize;
+            if (mPpgRange.isValid()) {
+                mDrawPpgMin = mPpgRange.getMin();
+                mDrawPpgMax = mPpgRange.getMax();
+            }
+            for (int i = 0; i < mBeatSize; i++) {
+                mDrawBeats[i] = mBeats[(mBeatHead + i) % mBeats.length];
+            }
+            mDrawBeatSize = mBeatSize;
+            System.arraycopy(mSpectrum, 0, mDrawSpectrum, 0, mSpectrum.length);
+            if (mBeatCount != mDrawBeatCount) {
+                // 글자는 박동이 바뀔 때만 만듦
+                mDrawBeatCount = mBeatCount;
+                mHrText = mBeatSize == 0 ? "HR -" : "HR " + Math.round(mDrawBeats[mBeatSize - 1]);
+                mLfHfText = mHf > 0 ? String.format(Locale.US, "LF/HF %.2f", mLf / mHf) : "LF/HF -";
+            }
+        }
+    }
+
+    private void render() {
+        SurfaceHolder holder = getHolder();
+        Canvas canvas = holder.lockCanvas();
+        if (canvas == null) return;
+        try {
+            canvas.drawColor(mFillColor);
+            float width = canvas.getWidth();
+            float height = canvas.getHeight();
+            float gap = 6f * mDensity;
+            // 위 60% PPG, 아래 왼쪽 BPM 추이, 아래 오른쪽 스펙트럼
+            float split = height * 0.6f;
+            drawPpg(canvas, 0, 0, width, split - gap);
+            drawBpmTrend(canvas, 0, split, width * 0.6f - gap, height);
+            drawSpectrum(canvas, width * 0.6f, split, width, height);
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    private void drawPpg(Canvas canvas, float left, float top, float right, float bottom) {
+        drawGrid(canvas, left, top, right, bottom, 4);
+        int size = mDrawPpgSize;
+        if (size < 2) return;
+        float dx = (right - left) / (size - 1);
+        float scale = (bottom - top) / (mDrawPpgMax - mDrawPpgMin);
+        int n = 0;
+        float prevX = left;
+        float prevY = clamp(bottom - (mDrawPpg[0] - mDrawPpgMin) * scale, top, bottom);
+        for (int i = 1; i < size; i++) {
+            float x = left + dx * i;
+            float y = clamp(bottom - (mDrawPpg[i] - mDrawPpgMin) * scale, top, bottom);
+            mLines[n++] = prevX;
+            mLines[n++] = prevY;
+            mLines[n++] = x;
+            mLines[n++] = y;
+            prevX = x;
+            prevY = y;
+        }
+        canvas.drawLines(mLines, 0, n, mPpgPaint);
+    }
+
+    private void drawBpmTrend(Canvas canvas, float left, float top, float right, float bottom) {
+        drawGrid(canvas, left, top, right, bottom, 2);
+        canvas.drawText(mHrText, left + 4f * mDensity, top + mTextPaint.getTextSize(), mTextPaint);
+        int size = mDrawBeatSize;
+        if (size == 0) return;
+        float min = mDrawBeats[0];
+        float max = mDrawBeats[0];
+        for (int i = 1; i < size; i++) {
+            if (mDrawBeats[i] < min) min = mDrawBeats[i];
+            if (mDrawBeats[i] > max) max = mDrawBeats[i];
+        }
+        if (max - min < MIN_BPM_SPAN) {
+            float center = (max + min) / 2;
+            min = center - MIN_BPM_SPAN / 2;
+            max = center + MIN_BPM_SPAN / 2;
+        }
+        // 추정값이 바뀌는 모양이 보이게 계단 모양으로
+        float dx = (right - left) / TREND_BPMS;
+        float scale = (bottom - top) / (max - min);
+        int n = 0;
+        float x0 = right - dx * size;
+        for (int i = 0; i < size; i++) {
+            float y = bottom - (mDrawBeats[i] - min) * scale;
+            float x = x0 + dx * i;
+            mBeatLines[n++] = x;
+            mBeatLines[n++] = y;
+            mBeatLines[n++] = x + dx;
+            mBeatLines[n++] = y;
+            if (i + 1 < size) {
+                mBeatLines[n++] = x + dx;
+                mBeatLines[n++] = y;
+                mBeatLines[n++] = x + dx;
+                mBeatLines[n++] = bottom - (mDrawBeats[i + 1] - min) * scale;
+            }
+        }
+        canvas.drawLines(mBeatLines, 0, n, mBeatPaint);
+    }
+
+    private void drawSpectrum(Canvas canvas, float left, float top, float right, float bottom) {
+        drawGrid(canvas, left, top, right, bottom, 1);
+        canvas.drawText(mLfHfText, left + 4f * mDensity, top + mTextPaint.getTextSize(), mTextPaint);
+        float max = 0;
+        for (int i = 1; i <= SPECTRUM_BINS; i++) {
+            if (mDrawSpectrum[i] > max) max = mDrawSpectrum[i];
+        }
+        if (max <= 0) return;
+        float barTop = top + mTextPaint.getTextSize() * 1.5f;
+        float dx = (right - left) / SPECTRUM_BINS;
+        float scale = (bottom - barTop) / max;
+        for (int i = 1; i <= SPECTRUM_BINS; i++) {
+            Paint paint = i >= LF_FIRST && i <= LF_LAST ? mLfPaint
+                    : i >= HF_FIRST && i <= HF_LAST ? mHfPaint : mBinPaint;
+            float x = left + dx * (i - 1);
+            canvas.drawRect(x + 1f, bottom - mDrawSpectrum[i] * scale, x + dx - 1f, bottom, paint);
+        }
+    }
+
+    private void drawGrid(Canvas canvas, float left, float top, float right, float bottom, int lines) {
+        for (int i = 0; i <= lines; i++) {
+            float y = top + (bottom - top) * i / lines;
+            canvas.drawLine(left, y, right, y, mGridPaint);
+        }
+    }
+
+    private static float clamp(float y, float top, float bottom) {
+        if (y < top) return top;
+        if (y > bottom) return bottom;
+        return y;
+    }
+}
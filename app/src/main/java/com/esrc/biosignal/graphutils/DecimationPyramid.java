@@ -0,0 +1,180 @@
+package com.esrc.biosignal.graphutils;
+
+import java.util.Arrays;
+
+/**
+ * 긴 PPG 기록을 화면 픽셀 수에 맞게 줄여서 보여주기 위한 다단계 min/max 피라미드
+ * - 0 단계는 원본 샘플, k 단계는 4^k 샘플 묶음의 최소/최대값
+ * - 샘플을 추가할 때마다 각 단계의 진행 중인 묶음만 갱신 (샘플당 평균 O(1))
+ * - 임의 구간의 최소/최대는 큰 묶음부터 써서 O(단계 수) 로 정확히 계산
+ * - 최대 MAX_SAMPLES 개까지만 담음 (그 뒤 샘플은 버림), 그래서 long 위치를 int 배열 인덱스로 써도 안전
+ * - 그리는 쪽(메인 스레드)에서만 사용
+ */
+public class DecimationPyramid {
+    private static final int SHIFT = 2;             // 단계마다 4배씩 묶음
+    private static final int BRANCH = 1 << SHIFT;
+    private static final int MAX_LEVELS = 16;
+
+    /** 담을 수 있는 최대 샘플 수 (100Hz 로 약 11시간, 원본만 16MB) */
+    public static final int MAX_SAMPLES = 1 << 22;
+
+    // 0 단계 원본 샘플
+    private float[] mSamples = new float[1024];
+    private int mCount = 0;
+
+    // 1 단계부터 완성된 묶음의 최소/최대값
+    private final float[][] mMin = new float[MAX_LEVELS][];
+    private final float[][] mMax = new float[MAX_LEVELS][];
+    private final int[] mLevelCount = new int[MAX_LEVELS];
+
+    // 단계별로 채우는 중인 묶음
+    private final float[] mPendingMin = new float[MAX_LEVELS];
+    private final float[] mPendingMax = new float[MAX_LEVELS];
+    private final int[] mPendingCount = new int[MAX_LEVELS];
+
+    // decimate 에서 재사용
+    private final float[] mPair = new float[2];
+
+    /**
+     * 샘플 추가
+     *
+     * @return 가득 차서(MAX_SAMPLES) 버렸으면 false
+     */
+    public boolean add(float value) {
+        if (mCount >= MAX_SAMPLES) return false;
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, Math.min(mSamples.length * 2, MAX_SAMPLES));
+        }
+        mSamples[mCount++] = value;
+        carry(1, value, value);
+        return true;
+    }
+
+    // 아래 단계에서 완성된 묶음 하나를 level 단계의 진행 중인 묶음에 합침
+    private void carry(int level, float min, float max) {
+        while (level < MAX_LEVELS) {
+            if (mPendingCount[level] == 0) {
+                mPendingMin[level] = min;
+                mPendingMax[level] = max;
+            } else {
+                if (min < mPendingMin[level]) mPendingMin[level] = min;
+                if (max > mPendingMax[level]) mPendingMax[level] = max;
+            }
+            if (++mPendingCount[level] < BRANCH) return;
+
+            // 묶음 완성, 저장하고 위 단계로 올림
+            min = mPendingMin[level];
+            max = mPendingMax[level];
+            mPendingCount[level] = 0;
+            int n = mLevelCount[level];
+            if (mMin[level] == null) {
+                mMin[level] = new float[64];
+                mMax[level] = new float[64];
+            } else if (n == mMin[level].length) {
+                mMin[level] = Arrays.copyOf(mMin[level], n * 2);
+                mMax[level] = Arrays.copyOf(mMax[level], n * 2);
+            }
+            mMin[level][n] = min;
+            mMax[level][n] = max;
+            mLevelCount[level] = n + 1;
+            level++;
+        }
+    }
+
+    /** 지금까지 추가한 샘플 수 */
+    public long size() {
+        return mCount;
+    }
+
+    public boolean isFull() {
+        return mCount >= MAX_SAMPLES;
+    }
+
+    /** @param index 0 ~ size() - 1 */
+    public float get(long index) {
+        return mSamples[(int) index];
+    }
+
+    /** 모든 샘플 삭제 (할당한 배열은 재사용) */
+    public void clear() {
+        mCount = 0;
+        Arrays.fill(mLevelCount, 0);
+        Arrays.fill(mPendingCount, 0);
+    }
+
+    /**
+     * [from, to) 구간의 최소/최대값
+     *
+     * @param out out[0] 에 최소, out[1] 에 최대 (구간이 비면 NaN)
+     */
+    public void minMax(long from, long to, float[] out) {
+        from = Math.max(0, from);
+        to = Math.min(mCount, to);
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        long lo = from;
+        long hi = to;
+        int level = 0;
+        while (lo < hi) {
+            boolean top = level + 1 >= MAX_LEVELS || mLevelCount[level + 1] == 0;
+            if (top || hi - lo < 2 * BRANCH) {
+                // 남은 구간은 이 단계에서 그냥 훑음
+                for (long u = lo; u < hi; u++) {
+                    float vMin = level == 0 ? mSamples[(int) u] : mMin[level][(int) u];
+                    float vMax = level == 0 ? vMin : mMax[level][(int) u];
+                    if (vMin < min) min = vMin;
+                    if (vMax > max) max = vMax;
+                }
+                break;
+            }
+            // 양 끝의 정렬 안 된 부분만 이 단계에서 처리하고 나머지는 위 단계로
+            while ((lo & (BRANCH - 1)) != 0) {
+                float vMin = level == 0 ? mSamples[(int) lo] : mMin[level][(int) lo];
+                float vMax = level == 0 ? vMin : mMax[level][(int) lo];
+                if (vMin < min) min = vMin;
+                if (vMax > max) max = vMax;
+                lo++;
+            }
+            while ((hi & (BRANCH - 1)) != 0) {
+                hi--;
+                float vMin = level == 0 ? mSamples[(int) hi] : mMin[level][(int) hi];
+                float vMax = level == 0 ? vMin : mMax[level][(int) hi];
+                if (vMin < min) min = vMin;
+                if (vMax > max) max = vMax;
+            }
+            lo >>= SHIFT;
+            hi >>= SHIFT;
+            level++;
+        }
+        if (min > max) {
+            out[0] = Float.NaN;
+            out[1] = Float.NaN;
+        } else {
+            out[0] = min;
+            out[1] = max;
+        }
+    }
+
+    /**
+     * [from, to) 구간을 buckets 개의 같은 폭 묶음으로 나눠 묶음별 최소/최대를 구함
+     * (픽셀당 2점, 세로선으로 그리면 원본의 모든 봉우리가 보임)
+     *
+     * @return 채운 묶음 수
+     */
+    public int decimate(long from, long to, int buckets, float[] minOut, float[] maxOut) {
+        from = Math.max(0, from);
+        to = Math.min(mCount, to);
+        long span = to - from;
+        if (span <= 0 || buckets <= 0) return 0;
+        buckets = (int) Math.min(buckets, span);
+        float[] pair = mPair;
+        for (int b = 0; b < buckets; b++) {
+            long start = from + span * b / buckets;
+            long end = from + span * (b + 1) / buckets;
+            minMax(start, end, pair);
+            minOut[b] = pair[0];
+            maxOut[b] = pair[1];
+        }
+        return buckets;
+    }
+}
@@ -0,0 +1,173 @@
+package com.esrc.biosignal.graphutils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RelativeLayout;
+
+/**
+ * 긴 PPG 기록 전체(94초 측정, 재생한 기록 등)를 보여주는 차트
+ * - 샘플은 DecimationPyramid 에 쌓고, 그릴 때 보이는 구간을 픽셀당 최소/최대 한 쌍으로 줄임
+ *   (DecimationPyramid.MAX_SAMPLES 까지만 쌓고 그 뒤 값은 버림)
+ * - 샘플 수가 픽셀의 2배 이하이면 원본을 그대로 선으로 그림
+ * - Y 축은 보이는 구간의 최소/최대에 맞춤
+ * - 메인 스레드에서만 사용
+ */
+public class HistoryChartView extends View {
+    private static final int GRID_LINES = 10;
+    private static final float LINE_WIDTH_DP = 1.5f;
+
+    private final DecimationPyramid mPyramid = new DecimationPyramid();
+
+    // 보이는 구간 [mFrom, mTo), mTo < 0 이면 처음부터 끝까지
+    private long mFrom = 0;
+    private long mTo = -1;
+
+    // 픽셀 폭에 맞춘 버퍼 (onSizeChanged 에서만 할당)
+    private float[] mBucketMin = new float[0];
+    private float[] mBucketMax = new float[0];
+    private float[] mLines = new float[0];
+    private final float[] mRange = new float[2];
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mGridPaint = new Paint();
+
+    public HistoryChartView(Context context) {
+        this(context, (AttributeSet) null);
+    }
+
+    public HistoryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mLinePaint.setColor(Color.argb(0xFF, 0xFF, 0xBB, 0x00));
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(LINE_WIDTH_DP * context.getResources().getDisplayMetrics().density);
+        // 최소와 최대가 같은 픽셀도 점으로 보이게
+        mLinePaint.setStrokeCap(Paint.Cap.ROUND);
+        mGridPaint.setColor(Color.argb(0x66, 0xFF, 0xFF, 0xFF));
+        mGridPaint.setStrokeWidth(1f);
+    }
+
+    /** StripChartView 처럼 RelativeLayout 에 꽉 차게 붙여서 생성 */
+    public HistoryChartView(Context context, RelativeLayout layout) {
+        this(context);
+        setLayoutParams(new RelativeLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.addView(this);
+    }
+
+    /** 새 값 추가, 그리기는 다음 프레임에 (가득 찼으면 무시) */
+    public void addValue(float y) {
+        if (mPyramid.add(y)) postInvalidateOnAnimation();
+    }
+
+    /** 데이터를 모두 지우고 전체 보기로 돌아감 */
+    public void clear() {
+        mPyramid.clear();
+        mFrom = 0;
+        mTo = -1;
+        postInvalidateOnAnimation();
+    }
+
+    /** 지금까지 쌓인 샘플 수 */
+    public long getSampleCount() {
+        return mPyramid.size();
+    }
+
+    /** [from, to) 샘플 구간만 보여줌 */
+    public void setVisibleRange(long from, long to) {
+        if (to <= from) return;
+        mFrom = Math.max(0, from);
+        mTo = to;
+        postInvalidateOnAnimation();
+    }
+
+    /** 전체 기록을 보여줌 (새 값이 오면 계속 늘어남) */
+    public void showAll() {
+        mFrom = 0;
+        mTo = -1;
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        int pixels = Math.max(1, w - getPaddingLeft() - getPaddingRight());
+        mBucketMin = new float[pixels];
+        mBucketMax = new float[pixels];
+        // 원본을 그릴 때 선분 (2 * pixels - 1) 개, 줄여서 그릴 때 세로선 pixels 개
+        mLines = new float[4 * 2 * pixels];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (width <= 0 || height <= 0) return;
+
+        for (int i = 0; i <= GRID_LINES; i++) {
+            float y = top + height * i / GRID_LINES;
+            canvas.drawLine(left, y, left + width, y, mGridPaint);
+        }
+
+        long from = Math.min(mFrom, mPyramid.size());
+        long to = mTo < 0 ? mPyramid.size() : Math.min(mTo, mPyramid.size());
+        long span = to - from;
+        if (span < 2 || mBucketMin.length == 0) return;
+
+        // 보이는 구간의 최소/최대로 Y 축을 맞춤
+        mPyramid.minMax(from, to, mRange);
+        float yMin = mRange[0];
+        float yMax = mRange[1];
+        if (yMax - yMin < 1f) {
+            yMin -= 0.5f;
+            yMax += 0.5f;
+        }
+        float scale = height / (yMax - yMin);
+        float bottom = top + height;
+
+        int pixels = mBucketMin.length;
+        int n = 0;
+        if (span <= 2L * pixels) {
+            // 점이 적으면 원본 그대로
+            float dx = width / (span - 1);
+            float prevX = left;
+            float prevY = bottom - (mPyramid.get(from) - yMin) * scale;
+            for (long i = 1; i < span; i++) {
+                float x = left + dx * i;
+                float y = bottom - (mPyramid.get(from + i) - yMin) * scale;
+                mLines[n++] = prevX;
+                mLines[n++] = prevY;
+                mLines[n++] = x;
+                mLines[n++] = y;
+                prevX = x;
+                prevY = y;
+            }
+        } else {
+            // 픽셀마다 최소~최대 세로선, 옆 픽셀과 끊기지 않게 이어줌
+            int buckets = mPyramid.decimate(from, to, pixels, mBucketMin, mBucketMax);
+            float dx = width / buckets;
+            float prevMin = mBucketMin[0];
+            float prevMax = mBucketMax[0];
+            for (int b = 0; b < buckets; b++) {
+                float lo = Math.min(mBucketMin[b], prevMax);
+                float hi = Math.max(mBucketMax[b], prevMin);
+                float x = left + dx * (b + 0.5f);
+                mLines[n++] = x;
+                mLines[n++] = bottom - (lo - yMin) * scale;
+                mLines[n++] = x;
+                mLines[n++] = bottom - (hi - yMin) * scale;
+                prevMin = mBucketMin[b];
+                prevMax = mBucketMax[b];
+            }
+        }
+        canvas.drawLines(mLines, 0, n, mLinePaint);
+    }
+}
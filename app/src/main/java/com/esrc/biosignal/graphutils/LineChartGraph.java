@@ -3,6 +3,7 @@ package com.esrc.biosignal.graphutils;
 import android.content.Context;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.view.Choreographer;
 import android.view.ViewGroup;
 import android.widget.RelativeLayout;
 
@@ -17,15 +18,21 @@ import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.data.LineDataSet.Mode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * MPAndroidChart 기반으로 교체된 LineChartGraph
  * - 기존 AChartEngine 의존성을 모두 제거
  * - RelativeLayout 에 LineChart 뷰를 추가하는 유틸
+ * - addValue 는 값을 모아두기만 하고, 화면 갱신은 Choreographer 로 프레임(vsync)당 한 번만 함
+ *   (UI 스레드 부담이 샘플 속도가 아니라 화면 주사율에 비례)
+ * - Y 축은 기본으로 최근 윈도우 값에 자동으로 맞춤 (AutoYRange, 샘플당 O(1))
+ * - 메인 스레드에서만 사용
  */
 public class LineChartGraph {
     private static final int GRAPH_MODE_REAL = 0;
+    private static final float MIN_Y_SPAN = 64f;   // 자동 범위의 최소 폭 (센서 값 단위)
 
     private final Context mContext;
     private final RelativeLayout mLayout;
@@ -40,6 +47,22 @@ public class LineChartGraph {
     private LineDataSet mDataSet;
     private LineData mData;
 
+    // Y 축 자동 범위, null 이면 고정 범위
+    private AutoYRange mAutoRange = new AutoYRange(mWindowSize, MIN_Y_SPAN);
+
+    // 다음 프레임에 반영할 값들
+    private float[] mPending = new float[64];
+    private int mPendingCount = 0;
+    private boolean mFrameScheduled = false;
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameScheduled = false;
+            applyPending();
+        }
+    };
+
     public LineChartGraph(Context context, RelativeLayout layout) {
         this.mContext = context;
         this.mLayout = layout;
@@ -84,8 +107,8 @@ public class LineChartGraph {
         left.setTextColor(Color.argb(0xFF, 0x99, 0x99, 0x99));
         left.setAxisLineColor(Color.WHITE);
         left.setGridColor(Color.WHITE);
-        left.setAxisMinimum(0f);      // mRenderer.setYAxisMin(0);
-        left.setAxisMaximum(1024f);   // mRenderer.setYAxisMax(1024);
+        left.setAxisMinimum(0f);      // 첫 값이 오기 전 범위, 이후엔 자동 범위
+        left.setAxisMaximum(1024f);
         left.setLabelCount(10, true); // mRenderer.setYLabels(10)
         left.setDrawTopYLabelEntry(true);
 
@@ -120,42 +143,89 @@ public class LineChartGraph {
         mChart.invalidate();
     }
 
-    /** 새 값 추가 (실시간 그래프 용) */
+    /** 새 값 추가 (실시간 그래프 용), 실제 그리기는 다음 프레임에 한꺼번에 */
     public void addValue(float y) {
-        float x = mCount * 1.0f * mIntervalSize;
-        mData.addEntry(new Entry(x, y), 0);
-        mData.notifyDataChanged();
-        mChart.notifyDataSetChanged();
+        if (mPendingCount == mPending.length) {
+            mPending = Arrays.copyOf(mPending, mPendingCount * 2);
+        }
+        mPending[mPendingCount++] = y;
+        if (!mFrameScheduled) {
+            mFrameScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+        }
+    }
 
-        // 윈도우 크기 유지 (가로 스크롤 대신 과거 제거)
-        if (mDataSet.getEntryCount() > mWindowSize) {
-            // 가장 오래된 엔트리 제거
-            Entry e = mDataSet.getEntryForIndex(0);
-            if (e != null) {
-                mDataSet.removeFirst();
-            }
+    // 모인 값을 한 번에 추가하고 축 계산/다시 그리기는 프레임당 한 번
+    private void applyPending() {
+        if (mPendingCount == 0) return;
+
+        // 어차피 윈도우 밖으로 밀려날 값은 추가하지 않음
+        int skip = Math.max(0, mPendingCount - mWindowSize);
+        mCount += skip;
+        boolean rangeChanged = false;
+        for (int i = skip; i < mPendingCount; i++) {
+            float x = mCount * 1.0f * mIntervalSize;
+            mDataSet.addEntry(new Entry(x, mPending[i]));
+            mCount++;
+            if (mAutoRange != null && mAutoRange.add(mPending[i])) rangeChanged = true;
         }
+        mPendingCount = 0;
 
+        if (rangeChanged) {
+            // 범위가 바뀔 때만 축을 다시 설정 (MPAndroidChart 자동 범위처럼 전체를 다시 훑지 않음)
+            YAxis left = mChart.getAxisLeft();
+            left.setAxisMinimum(mAutoRange.getMin());
+            left.setAxisMaximum(mAutoRange.getMax());
+        }
+
+        // 윈도우 크기 유지 (가로 스크롤 대신 과거를 한 번에 제거)
+        int excess = mDataSet.getEntryCount() - mWindowSize;
+        if (excess > 0) {
+            mDataSet.getValues().subList(0, excess).clear();
+        }
+
+        mDataSet.notifyDataSetChanged();
+        mData.notifyDataChanged();
+        mChart.notifyDataSetChanged();
         mChart.invalidate();
-        mCount++;
     }
 
     /** 데이터를 모두 지움 */
     public void clear() {
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mFrameScheduled = false;
+        mPendingCount = 0;
         mDataSet.clear();
         mData.notifyDataChanged();
         mChart.notifyDataSetChanged();
         mChart.invalidate();
         mCount = 0;
+        if (mAutoRange != null) mAutoRange.clear();
     }
 
     /** X축 가시 엔트리(윈도우) 개수 설정 */
     public void setWindowSize(int windowSize) {
         if (windowSize > 0) {
             this.mWindowSize = windowSize;
+            if (mAutoRange != null) mAutoRange.setWindowSize(windowSize);
         }
     }
 
+    /** Y 축 범위 고정 (자동 범위는 꺼짐) */
+    public void setYRange(float min, float max) {
+        if (max <= min) return;
+        mAutoRange = null;
+        YAxis left = mChart.getAxisLeft();
+        left.setAxisMinimum(min);
+        left.setAxisMaximum(max);
+        mChart.invalidate();
+    }
+
+    /** Y 축을 최근 윈도우 값에 자동으로 맞춤 (기본값) */
+    public void setAutoYRange() {
+        if (mAutoRange == null) mAutoRange = new AutoYRange(mWindowSize, MIN_Y_SPAN);
+    }
+
     /** X 간격 설정(정수 스텝) */
     public void setIntervalSize(int intervalSize) {
         this.mIntervalSize = Math.max(1, intervalSize);
@@ -0,0 +1,117 @@
+package com.esrc.biosignal.graphutils;
+
+/**
+ * 최근 N 개 샘플의 최소/최대값을 샘플당 O(1) 로 추적
+ * - 최소/최대 각각 단조 덱(monotonic deque) 을 씀, 덱에는 아직 윈도우 안에 있으면서
+ *   뒤에 더 작은(큰) 값이 오지 않은 샘플만 남음
+ * - 덱은 윈도우 크기의 고정 배열 링 버퍼라서 add 에서 할당 없음
+ */
+public class SlidingMinMax {
+    private int mWindowSize;
+    private long mSeq = 0;   // 지금까지 넣은 샘플 수
+
+    private final Deque mMin;
+    private final Deque mMax;
+
+    public SlidingMinMax(int windowSize) {
+        mWindowSize = Math.max(1, windowSize);
+        mMin = new Deque(mWindowSize);
+        mMax = new Deque(mWindowSize);
+    }
+
+    /** 샘플 추가, 윈도우 밖으로 나간 샘플은 자동으로 빠짐 */
+    public void add(float value) {
+        // 나간 샘플을 먼저 빼야 덱에 새 값 자리가 남음 (단조 입력이면 덱이 윈도우 크기만큼 참)
+        long expired = mSeq - mWindowSize;
+        while (mMin.size > 0 && mMin.frontSeq() <= expired) mMin.popFront();
+        while (mMax.size > 0 && mMax.frontSeq() <= expired) mMax.popFront();
+        // 최소 덱: 새 값보다 크거나 같은 뒤쪽 값은 다시 최소가 될 일이 없음
+        while (mMin.size > 0 && mMin.backValue() >= value) mMin.popBack();
+        mMin.pushBack(mSeq, value);
+        // 최대 덱: 반대로
+        while (mMax.size > 0 && mMax.backValue() <= value) mMax.popBack();
+        mMax.pushBack(mSeq, value);
+        mSeq++;
+    }
+
+    /** 윈도우 안 최소값 (비어 있으면 NaN) */
+    public float min() {
+        return mMin.size == 0 ? Float.NaN : mMin.frontValue();
+    }
+
+    /** 윈도우 안 최대값 (비어 있으면 NaN) */
+    public float max() {
+        return mMax.size == 0 ? Float.NaN : mMax.frontValue();
+    }
+
+    public boolean isEmpty() {
+        return mSeq == 0;
+    }
+
+    public void clear() {
+        mSeq = 0;
+        mMin.clear();
+        mMax.clear();
+    }
+
+    /** 윈도우 크기 변경 (지금까지의 값은 지움) */
+    public void setWindowSize(int windowSize) {
+        windowSize = Math.max(1, windowSize);
+        if (windowSize == mWindowSize) return;
+        mWindowSize = windowSize;
+        mMin.resize(windowSize);
+        mMax.resize(windowSize);
+        mSeq = 0;
+    }
+
+    // (순번, 값) 쌍의 고정 크기 링 버퍼 덱
+    private static class Deque {
+        long[] seq;
+        float[] value;
+        int head = 0;
+        int size = 0;
+
+        Deque(int capacity) {
+            resize(capacity);
+        }
+
+        void resize(int capacity) {
+            seq = new long[capacity];
+            value = new float[capacity];
+            clear();
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        void pushBack(long s, float v) {
+            int tail = (head + size) % seq.length;
+            seq[tail] = s;
+            value[tail] = v;
+            size++;
+        }
+
+        void popBack() {
+            size--;
+        }
+
+        void popFront() {
+            head = (head + 1) % seq.length;
+            size--;
+        }
+
+        long frontSeq() {
+            return seq[head];
+        }
+
+        float frontValue() {
+            return value[head];
+        }
+
+        float backValue() {
+            return value[(head + size - 1) % seq.length];
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.esrc.biosignal.graphutils;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.RelativeLayout;
+
+/**
+ * 실시간 PPG 파형용 가벼운 스트립 차트 (MainActivity 의 PPG 그래프, LineChartGraph 대신 사용)
+ * - 샘플은 float[] 링 버퍼에 저장 (샘플마다 Entry 객체를 만들지 않음)
+ * - 그릴 때는 미리 만들어 둔 float[] 선분 배열로 drawLines 한 번 (onDraw 에서 할당 없음)
+ * - 다시 그리기는 postInvalidateOnAnimation 으로 프레임당 한 번만 일어남
+ * - LineChartGraph 와 같은 addValue / setWindowSize / clear / setYRange 제공
+ *   (X 간격은 따로 없음, 지금 있는 값이 항상 폭 전체에 맞춰짐)
+ * - Y 축은 기본으로 최근 윈도우 값에 자동으로 맞춤 (AutoYRange, 샘플당 O(1))
+ * - 메인 스레드에서만 사용
+ */
+public class StripChartView extends View {
+    private static final int GRID_LINES = 10;     // LineChartGraph 의 Y 라벨 10개와 맞춤
+    private static final float LINE_WIDTH_DP = 5f;
+    private static final float MIN_Y_SPAN = 64f;  // 자동 범위의 최소 폭 (센서 값 단위)
+
+    private int mWindowSize = 100;   // 최대 보이는 샘플 개수
+
+    // 링 버퍼 (가장 오래된 값이 mHead)
+    private float[] mRing = new float[mWindowSize];
+    private int mHead = 0;
+    private int mSize = 0;
+
+    // drawLines 용 선분 좌표 (x0, y0, x1, y1) * (윈도우 - 1)
+    private float[] mLines = new float[4 * (mWindowSize - 1)];
+
+    private float mYMin = 0f;
+    private float mYMax = 1024f;
+    // Y 축 자동 범위, null 이면 mYMin ~ mYMax 고정
+    private AutoYRange mAutoRange = new AutoYRange(mWindowSize, MIN_Y_SPAN);
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mGridPaint = new Paint();
+
+    public StripChartView(Context context) {
+        this(context, (AttributeSet) null);
+    }
+
+    public StripChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mLinePaint.setColor(Color.argb(0xFF, 0xFF, 0xBB, 0x00));
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(LINE_WIDTH_DP * context.getResources().getDisplayMetrics().density);
+        mLinePaint.setStrokeCap(Paint.Cap.ROUND);
+        mGridPaint.setColor(Color.argb(0x66, 0xFF, 0xFF, 0xFF));
+        mGridPaint.setStrokeWidth(1f);
+    }
+
+    /** LineChartGraph 처럼 RelativeLayout 에 꽉 차게 붙여서 생성 */
+    public StripChartView(Context context, RelativeLayout layout) {
+        this(context);
+        setLayoutParams(new RelativeLayout.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        layout.addView(this);
+    }
+
+    /** 새 값 추가 (실시간 그래프 용), 그리기는 다음 프레임에 */
+    public void addValue(float y) {
+        int tail = (mHead + mSize) % mRing.length;
+        mRing[tail] = y;
+        if (mSize < mRing.length) {
+            mSize++;
+        } else {
+            mHead = (mHead + 1) % mRing.length;
+        }
+        if (mAutoRange != null && mAutoRange.add(y)) {
+            mYMin = mAutoRange.getMin();
+            mYMax = mAutoRange.getMax();
+        }
+        postInvalidateOnAnimation();
+    }
+
+    /** 데이터를 모두 지움 */
+    public void clear() {
+        mHead = 0;
+        mSize = 0;
+        if (mAutoRange != null) mAutoRange.clear();
+        postInvalidateOnAnimation();
+    }
+
+    /** X축 가시 샘플(윈도우) 개수 설정, 최근 값은 유지 */
+    public void setWindowSize(int windowSize) {
+        if (windowSize <= 1 || windowSize == mWindowSize) return;
+        float[] ring = new float[windowSize];
+        int keep = Math.min(mSize, windowSize);
+        for (int i = 0; i < keep; i++) {
+            ring[i] = mRing[(mHead + mSize - keep + i) % mRing.length];
+        }
+        mRing = ring;
+        mHead = 0;
+        mSize = keep;
+        mWindowSize = windowSize;
+        mLines = new float[4 * (windowSize - 1)];
+        if (mAutoRange != null) {
+            // 남긴 값으로 범위를 다시 잡음
+            mAutoRange.setWindowSize(windowSize);
+            for (int i = 0; i < keep; i++) mAutoRange.add(mRing[i]);
+            if (mAutoRange.isValid()) {
+                mYMin = mAutoRange.getMin();
+                mYMax = mAutoRange.getMax();
+            }
+        }
+        postInvalidateOnAnimation();
+    }
+
+    /** Y 축 범위 고정 (자동 범위는 꺼짐) */
+    public void setYRange(float min, float max) {
+        if (max <= min) return;
+        mAutoRange = null;
+        mYMin = min;
+        mYMax = max;
+        postInvalidateOnAnimation();
+    }
+
+    /** Y 축을 최근 윈도우 값에 자동으로 맞춤 (기본값) */
+    public void setAutoYRange() {
+        if (mAutoRange != null) return;
+        mAutoRange = new AutoYRange(mWindowSize, MIN_Y_SPAN);
+        for (int i = 0; i < mSize; i++) mAutoRange.add(mRing[(mHead + i) % mRing.length]);
+        if (mAutoRange.isValid()) {
+            mYMin = mAutoRange.getMin();
+            mYMax = mAutoRange.getMax();
+        }
+        postInvalidateOnAnimation();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = getWidth() - getPaddingLeft() - getPaddingRight();
+        float height = getHeight() - getPaddingTop() - getPaddingBottom();
+        if (width <= 0 || height <= 0) return;
+
+        // 가로 눈금선
+        for (int i = 0; i <= GRID_LINES; i++) {
+            float y = top + height * i / GRID_LINES;
+            canvas.drawLine(left, y, left + width, y, mGridPaint);
+        }
+
+        if (mSize < 2) return;
+        // LineChartGraph 처럼 지금 있는 값들을 폭 전체에 맞춰 그림
+        float dx = width / (mSize - 1);
+        float scale = height / (mYMax - mYMin);
+        float bottom = top + height;
+        int n = 0;
+        float prevX = left;
+        float prevY = toY(mRing[mHead], bottom, scale, top);
+        for (int i = 1; i < mSize; i++) {
+            float x = left + dx * i;
+            float y = toY(mRing[(mHead + i) % mRing.length], bottom, scale, top);
+            mLines[n++] = prevX;
+            mLines[n++] = prevY;
+            mLines[n++] = x;
+            mLines[n++] = y;
+            prevX = x;
+            prevY = y;
+        }
+        canvas.drawLines(mLines, 0, n, mLinePaint);
+    }
+
+    // 값 -> 화면 y 좌표 (범위 밖은 가장자리에 붙임)
+    private float toY(float value, float bottom, float scale, float top) {
+        float y = bottom - (value - mYMin) * scale;
+        if (y < top) return top;
+        if (y > bottom) return bottom;
+        return y;
+    }
+}
@@ -0,0 +1,13 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * What a {@link SampleQueue} does when its consumer falls behind and the queue is full.
+ */
+public enum BackpressurePolicy {
+    /** The producer waits until the consumer frees a slot. Nothing is lost, but the DSP stage is delayed. */
+    BLOCK,
+    /** The oldest queued sample is discarded to make room for the new one. */
+    DROP_OLDEST,
+    /** The queue keeps every other sample and halves the incoming rate until the consumer catches up. */
+    DECIMATE
+}
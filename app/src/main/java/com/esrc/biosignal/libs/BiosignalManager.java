@@ -10,13 +10,18 @@ import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.os.RemoteException;
 import android.util.Log;
 
 import com.esrc.biosignal.service.BiosignalService;
+import com.esrc.biosignal.service.ConnectionStateStore;
+import com.esrc.biosignal.service.LinkParametersData;
 import com.esrc.biosignal.service.SignalData;
 import com.esrc.biosignal.service.StartRMData;
 import com.esrc.biosignal.service.StateData;
@@ -26,8 +31,7 @@ import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
-
-import static android.content.Context.MODE_PRIVATE;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by lhw48 on 2016-06-22.
@@ -37,6 +41,8 @@ public class BiosignalManager {
 
     public static final int STATE_DISCONNECTED = 0;
     public static final int STATE_CONNECTED = 1;
+    // Services discovered and TX notifications enabled, the sensor can stream right away
+    public static final int STATE_READY = 2;
 
     private static Context context;
     private static BiosignalManager client = null;
@@ -45,7 +51,28 @@ public class BiosignalManager {
     protected SignalNotifier signalNotifier = null;
     protected StateNotifier stateNotifier = null;
 
-    private static SignalManager signalManager = new SignalManager();
+    // Default bound between the DSP stage and each signal notifier
+    public static final int DEFAULT_QUEUE_CAPACITY = 512;
+    public static final BackpressurePolicy DEFAULT_BACKPRESSURE_POLICY = BackpressurePolicy.DROP_OLDEST;
+
+    // Samples from the service are processed here, never on the main thread
+    private final HandlerThread dspThread = startDspThread();
+
+    // Per-device channels, written on the main thread and read on the DSP thread
+    private volatile SignalChannel defaultChannel = null;
+    private final Map<Integer, SignalChannel> signalChannels = new ConcurrentHashMap<Integer, SignalChannel>();
+    // Per-device publishers, created on first use
+    private final Map<Integer, SignalStreams> signalStreams = new ConcurrentHashMap<Integer, SignalStreams>();
+    // Per-device state notifiers, only touched on the main thread
+    private final Map<Integer, StateNotifier> stateNotifiers = new HashMap<Integer, StateNotifier>();
+    // Per-device BPM estimators, only touched on the DSP thread
+    private final Map<Integer, SignalManager> signalManagers = new HashMap<Integer, SignalManager>();
+
+    private static HandlerThread startDspThread() {
+        HandlerThread thread = new HandlerThread("BiosignalDsp", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        return thread;
+    }
 
     public static BiosignalManager getInstanceForApplication(Context context) {
         if (!isInstantiated()) {
@@ -86,13 +113,123 @@ public class BiosignalManager {
     }
 
     public void setSignalNotifier(SignalNotifier notifier) {
+        setSignalNotifier(notifier, DEFAULT_QUEUE_CAPACITY, DEFAULT_BACKPRESSURE_POLICY);
+    }
+
+    /**
+     * Sets the notifier used for every device without its own notifier.
+     *
+     * @param capacity number of samples buffered for this notifier before the policy applies
+     * @param policy what to do when the notifier falls behind
+     */
+    public void setSignalNotifier(SignalNotifier notifier, int capacity, BackpressurePolicy policy) {
+        SignalChannel old = defaultChannel;
         signalNotifier = notifier;
+        defaultChannel = notifier == null ? null : new SignalChannel(notifier, capacity, policy);
+        if (old != null) old.close();
     }
 
     public void setStateNotifier(StateNotifier notifier) {
         stateNotifier = notifier;
     }
 
+    /**
+     * Sets the notifier for one device only. Devices without their own notifier use the one
+     * given to {@link #setSignalNotifier(SignalNotifier)}.
+     */
+    public void setSignalNotifier(Integer uniqueId, SignalNotifier notifier) {
+        setSignalNotifier(uniqueId, notifier, DEFAULT_QUEUE_CAPACITY, DEFAULT_BACKPRESSURE_POLICY);
+    }
+
+    public void setSignalNotifier(Integer uniqueId, SignalNotifier notifier, int capacity, BackpressurePolicy policy) {
+        SignalChannel old = notifier == null
+                ? signalChannels.remove(uniqueId)
+                : signalChannels.put(uniqueId, new SignalChannel(notifier, capacity, policy));
+        if (old != null) old.close();
+    }
+
+    /**
+     * @return samples the default notifier never received because it fell behind
+     */
+    public long getDroppedSampleCount() {
+        SignalChannel channel = defaultChannel;
+        return channel == null ? 0 : channel.getDroppedSampleCount();
+    }
+
+    /**
+     * @return samples the notifier of this device never received because it fell behind
+     */
+    public long getDroppedSampleCount(Integer uniqueId) {
+        SignalChannel channel = signalChannelFor(uniqueId);
+        return channel == null ? 0 : channel.getDroppedSampleCount();
+    }
+
+    public long getDroppedBpmCount(Integer uniqueId) {
+        SignalChannel channel = signalChannelFor(uniqueId);
+        return channel == null ? 0 : channel.getDroppedBpmCount();
+    }
+
+    public void setStateNotifier(Integer uniqueId, StateNotifier notifier) {
+        if (notifier == null) stateNotifiers.remove(uniqueId);
+        else stateNotifiers.put(uniqueId, notifier);
+    }
+
+    /**
+     * Raw PPG of one device in blocks of consecutive samples. Any number of subscribers can
+     * attach; each one receives blocks at the rate it requests.
+     */
+    public SignalPublisher<SampleBlock> getPpgPublisher(Integer uniqueId) {
+        return signalStreamsFor(uniqueId).ppg;
+    }
+
+    /**
+     * Beats per minute of one device, as estimated by the DSP stage: one estimate over a sliding
+     * window about every second, not one item per heartbeat and not beat-to-beat intervals.
+     */
+    public SignalPublisher<Double> getBeatPublisher(Integer uniqueId) {
+        return signalStreamsFor(uniqueId).beats;
+    }
+
+    /**
+     * Connection state changes of one device, published on the main thread.
+     */
+    public SignalPublisher<Integer> getStatePublisher(Integer uniqueId) {
+        return signalStreamsFor(uniqueId).states;
+    }
+
+    private SignalStreams signalStreamsFor(int uniqueId) {
+        SignalStreams streams = signalStreams.get(uniqueId);
+        if (streams == null) {
+            synchronized (signalStreams) {
+                streams = signalStreams.get(uniqueId);
+                if (streams == null) {
+                    streams = new SignalStreams(uniqueId, dspThread.getLooper());
+                    signalStreams.put(uniqueId, streams);
+                }
+            }
+        }
+        return streams;
+    }
+
+    private SignalChannel signalChannelFor(int uniqueId) {
+        SignalChannel channel = signalChannels.get(uniqueId);
+        return channel != null ? channel : defaultChannel;
+    }
+
+    private StateNotifier stateNotifierFor(int uniqueId) {
+        StateNotifier notifier = stateNotifiers.get(uniqueId);
+        return notifier != null ? notifier : stateNotifier;
+    }
+
+    private SignalManager signalManagerFor(int uniqueId) {
+        SignalManager signalManager = signalManagers.get(uniqueId);
+        if (signalManager == null) {
+            signalManager = new SignalManager();
+            signalManagers.put(uniqueId, signalManager);
+        }
+        return signalManager;
+    }
+
     // connect
     public void connect(Integer uniqueId, String address) throws RemoteException {
         Message msg = Message.obtain(null, BiosignalService.MSG_CONNECT_DEVICE, 0, 0);
@@ -123,6 +260,13 @@ public class BiosignalManager {
         serviceMessenger.send(msg);
     }
 
+    // link profile, applied now if connected and again after every reconnect
+    public void setLinkProfile(Integer uniqueId, LinkProfile profile) throws RemoteException {
+        Message msg = Message.obtain(null, BiosignalService.MSG_SET_LINK_PROFILE, 0, 0);
+        msg.obj = new StartRMData(uniqueId, profile);
+        serviceMessenger.send(msg);
+    }
+
     // UART service connected/disconnected
     private ServiceConnection mServiceConnection = new ServiceConnection() {
         @Override
@@ -146,11 +290,12 @@ public class BiosignalManager {
         }
     };
 
-    // signal callback
+    // signal callback, runs on the DSP thread
     static class IncommingSignalHandler extends Handler {
         private final WeakReference<BiosignalManager> biosignalManager;
 
-        IncommingSignalHandler(BiosignalManager manager) {
+        IncommingSignalHandler(BiosignalManager manager, Looper looper) {
+            super(looper);
             this.biosignalManager = new WeakReference<BiosignalManager>(manager);
         }
 
@@ -162,19 +307,21 @@ public class BiosignalManager {
                 Log.d(TAG, "null signal received");
                 return;
             }
-            if (manager.signalNotifier != null) {
-                //Log.d(TAG, "Calling ppg signaling notifier on :" + manager.signalNotifier);
+            if (manager == null) return;
+            // arg1 carries the uniqueId of the device the sample came from
+            SignalChannel channel = manager.signalChannelFor(msg.arg1);
+            SignalStreams streams = manager.signalStreams.get(msg.arg1);
+            if (channel != null || streams != null) {
                 int ppg = (int) data.getValue();
-                double bpm = signalManager.add(ppg);
-                manager.signalNotifier.onReceivedPPG((int) data.getValue());
-                if(bpm != 0) {
-                    manager.signalNotifier.onReceivedBPM(bpm);
-                }
+                double bpm = manager.signalManagerFor(msg.arg1).add(ppg);
+                // Hands off to the main thread through a bounded queue
+                if (channel != null) channel.offer(ppg, bpm);
+                if (streams != null) streams.onSample(ppg, bpm);
             }
         }
     }
 
-    final Messenger signalingCallback = new Messenger(new IncommingSignalHandler(this));
+    final Messenger signalingCallback = new Messenger(new IncommingSignalHandler(this, dspThread.getLooper()));
 
     public SignalNotifier getSignalNotifier() {
         return signalNotifier;
@@ -193,14 +340,27 @@ public class BiosignalManager {
             switch (msg.what) {
                 default:
                     super.handleMessage(msg);
+                    if (msg.obj instanceof LinkParametersData) {
+                        BiosignalManager manager = biosignalManager.get();
+                        if (manager == null) return;
+                        StateNotifier notifier = manager.stateNotifierFor(msg.arg1);
+                        if (notifier != null) {
+                            notifier.onLinkParametersChanged((LinkParametersData) msg.obj);
+                        }
+                        return;
+                    }
                     StateData data = (StateData) msg.obj;
                     if (data == null) {
                         Log.d(TAG, "null state received");
                     } else {
                         BiosignalManager manager = biosignalManager.get();
-                        if (manager.stateNotifier != null) {
-                            Log.d(TAG, "Calling signaling notifier on :" + manager.stateNotifier);
-                            manager.stateNotifier.didChangedState(data.getState());
+                        if (manager == null) return;
+                        SignalStreams streams = manager.signalStreams.get(msg.arg1);
+                        if (streams != null) streams.onState(data.getState());
+                        StateNotifier notifier = manager.stateNotifierFor(msg.arg1);
+                        if (notifier != null) {
+                            Log.d(TAG, "Calling signaling notifier on :" + notifier);
+                            notifier.didChangedState(data.getState());
                         }
                     }
             }
@@ -245,10 +405,18 @@ public class BiosignalManager {
     }
 
     public String getLastConnectedAddress() {
-        return context.getSharedPreferences("android-biosignal-service", MODE_PRIVATE).getString("address", "00:00:00:00");
+        return ConnectionStateStore.getInstance(context).getLastAddress();
+    }
+
+    public String getLastConnectedAddress(Integer uniqueId) {
+        return ConnectionStateStore.getInstance(context).getAddress(uniqueId);
     }
 
     public int getConnectionState() {
-        return context.getSharedPreferences("android-biosignal-service", MODE_PRIVATE).getInt("connection_state", STATE_DISCONNECTED);
+        return getConnectionState(0);
+    }
+
+    public int getConnectionState(Integer uniqueId) {
+        return ConnectionStateStore.getInstance(context).getConnectionState(uniqueId);
     }
 }
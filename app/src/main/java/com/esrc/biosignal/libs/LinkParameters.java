@@ -0,0 +1,60 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * Link parameters of a sensor connection as negotiated with the device.
+ */
+public class LinkParameters {
+    public static final int DEFAULT_MTU = 23;
+    // BluetoothDevice.PHY_LE_1M
+    public static final int DEFAULT_PHY = 1;
+
+    protected LinkProfile profile;
+    protected int mtu;
+    protected int txPhy;
+    protected int rxPhy;
+    protected double estimatedIntervalMs;
+
+    public LinkProfile getProfile() {
+        return profile;
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public int getTxPhy() {
+        return txPhy;
+    }
+
+    public int getRxPhy() {
+        return rxPhy;
+    }
+
+    /**
+     * @return the connection interval estimated from the requested priority
+     */
+    public double getEstimatedIntervalMs() {
+        return estimatedIntervalMs;
+    }
+
+    public LinkParameters(LinkProfile profile, int mtu, int txPhy, int rxPhy) {
+        this.profile = profile;
+        this.mtu = mtu;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.estimatedIntervalMs = profile.getEstimatedIntervalMs();
+    }
+
+    protected LinkParameters(LinkParameters other) {
+        this(other.profile, other.mtu, other.txPhy, other.rxPhy);
+    }
+
+    protected LinkParameters() {
+    }
+
+    @Override
+    public String toString() {
+        return profile + " mtu=" + mtu + " phy=" + txPhy + "/" + rxPhy
+                + " interval~" + estimatedIntervalMs + "ms";
+    }
+}
@@ -0,0 +1,54 @@
+package com.esrc.biosignal.libs;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * BLE link settings applied to a sensor after it connected.
+ *
+ * Android does not report the negotiated connection interval (onConnectionUpdated is hidden),
+ * so {@link #getEstimatedIntervalMs()} is the middle of the range the platform documents for
+ * each connection priority.
+ */
+public enum LinkProfile {
+    // 100 ~ 125 ms interval, least radio time
+    LOW_POWER(BluetoothGatt.CONNECTION_PRIORITY_LOW_POWER, 23, BluetoothDevice.PHY_LE_1M_MASK, 112.5),
+    // 30 ~ 50 ms interval, the platform default
+    BALANCED(BluetoothGatt.CONNECTION_PRIORITY_BALANCED, 23, BluetoothDevice.PHY_LE_1M_MASK, 40),
+    // 7.5 ~ 15 ms interval, larger packets and the 2M PHY where supported
+    HIGH_THROUGHPUT(BluetoothGatt.CONNECTION_PRIORITY_HIGH, 247, BluetoothDevice.PHY_LE_2M_MASK, 11.25);
+
+    private final int connectionPriority;
+    private final int mtu;
+    private final int phyMask;
+    private final double estimatedIntervalMs;
+
+    LinkProfile(int connectionPriority, int mtu, int phyMask, double estimatedIntervalMs) {
+        this.connectionPriority = connectionPriority;
+        this.mtu = mtu;
+        this.phyMask = phyMask;
+        this.estimatedIntervalMs = estimatedIntervalMs;
+    }
+
+    public int getConnectionPriority() {
+        return connectionPriority;
+    }
+
+    /**
+     * @return the MTU to request, 23 being the default that needs no exchange
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    /**
+     * @return the preferred PHY mask, only applied from API 26
+     */
+    public int getPhyMask() {
+        return phyMask;
+    }
+
+    public double getEstimatedIntervalMs() {
+        return estimatedIntervalMs;
+    }
+}
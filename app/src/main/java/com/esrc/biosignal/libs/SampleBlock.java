@@ -0,0 +1,72 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * Read-only run of consecutive PPG samples from one device.
+ *
+ * A block is published once and the same instance is handed to every subscriber, so the
+ * samples are never copied per subscriber. Subscribers must not keep a reference to
+ * {@link #array()} and write to it.
+ */
+public final class SampleBlock {
+    private final int uniqueId;
+    private final long firstSampleIndex;
+    private final long timestamp;
+    private final int[] samples;
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param firstSampleIndex running index of the first sample in the device stream
+     * @param timestamp        System.currentTimeMillis() when the first sample was received
+     */
+    public SampleBlock(int uniqueId, long firstSampleIndex, long timestamp, int[] samples, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " array=" + samples.length);
+        }
+        this.uniqueId = uniqueId;
+        this.firstSampleIndex = firstSampleIndex;
+        this.timestamp = timestamp;
+        this.samples = samples;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getUniqueId() {
+        return uniqueId;
+    }
+
+    public long getFirstSampleIndex() {
+        return firstSampleIndex;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int size() {
+        return length;
+    }
+
+    public int get(int i) {
+        if (i < 0 || i >= length) throw new IndexOutOfBoundsException("index=" + i + " size=" + length);
+        return samples[offset + i];
+    }
+
+    /**
+     * Backing array, for bulk reads. Valid range is [{@link #offset()}, offset() + size()).
+     */
+    public int[] array() {
+        return samples;
+    }
+
+    public int offset() {
+        return offset;
+    }
+
+    /**
+     * Copies the samples into {@code dest} starting at {@code destPos}.
+     */
+    public void copyTo(int[] dest, int destPos) {
+        System.arraycopy(samples, offset, dest, destPos, length);
+    }
+}
@@ -0,0 +1,165 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * Bounded single-producer / single-consumer queue of samples.
+ *
+ * The queue is a fixed ring of primitives, so it never grows and never allocates after
+ * construction. What happens when it is full is decided by its {@link BackpressurePolicy};
+ * every sample that does not reach the consumer is counted in {@link #getDroppedCount()}.
+ */
+public class SampleQueue {
+    private final double[] ring;
+    private final BackpressurePolicy policy;
+
+    private int head = 0;   // index of the oldest sample
+    private int size = 0;
+    private boolean closed = false;
+
+    // DECIMATE: keep one sample out of every `stride` offered
+    private int stride = 1;
+    private int strideCount = 0;
+
+    private long droppedCount = 0;
+
+    // Samples ever queued, and how many of them had left the queue after the last drain
+    private long acceptedCount = 0;
+    private long drainedPosition = 0;
+
+    public SampleQueue(int capacity, BackpressurePolicy policy) {
+        if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.ring = new double[capacity];
+        this.policy = policy;
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Adds a sample, applying the backpressure policy if the queue is full.
+     *
+     * @return false if the sample was not queued (dropped by decimation or queue closed)
+     */
+    public synchronized boolean offer(double value) {
+        if (closed) return false;
+
+        if (policy == BackpressurePolicy.DECIMATE && stride > 1) {
+            if (++strideCount < stride) {
+                droppedCount++;
+                return false;
+            }
+            strideCount = 0;
+        }
+
+        if (size == ring.length) {
+            switch (policy) {
+                case BLOCK:
+                    while (size == ring.length && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            droppedCount++;
+                            return false;
+                        }
+                    }
+                    if (closed) return false;
+                    break;
+                case DROP_OLDEST:
+                    head = (head + 1) % ring.length;
+                    size--;
+                    droppedCount++;
+                    break;
+                case DECIMATE:
+                    compactHalf();
+                    stride *= 2;
+                    strideCount = 0;
+                    break;
+            }
+        }
+
+        ring[(head + size) % ring.length] = value;
+        size++;
+        acceptedCount++;
+        return true;
+    }
+
+    /**
+     * Moves queued samples into {@code out}, oldest first.
+     *
+     * @return number of samples copied
+     */
+    public synchronized int drainTo(double[] out) {
+        int n = Math.min(size, out.length);
+        for (int i = 0; i < n; i++) {
+            out[i] = ring[(head + i) % ring.length];
+        }
+        head = (head + n) % ring.length;
+        size -= n;
+        drainedPosition = acceptedCount - size;
+
+        if (size == 0 && stride > 1) {
+            // Consumer caught up, go back to full rate
+            stride = 1;
+            strideCount = 0;
+        }
+        if (n > 0 && policy == BackpressurePolicy.BLOCK) notifyAll();
+        return n;
+    }
+
+    /**
+     * @return number of queued samples (delivered or discarded) that had left the queue when the
+     *         last {@link #drainTo(double[])} returned; the last sample it copied is the one queued
+     *         at this position, counting from 1
+     */
+    public synchronized long getDrainedPosition() {
+        return drainedPosition;
+    }
+
+    /**
+     * @return number of samples queued so far, the position of the newest one
+     */
+    public synchronized long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public synchronized void clear() {
+        head = 0;
+        size = 0;
+        drainedPosition = acceptedCount;
+        stride = 1;
+        strideCount = 0;
+        notifyAll();
+    }
+
+    /**
+     * Releases a producer blocked in {@link #offer(double)}; later offers are ignored.
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    // Keeps every other queued sample in place; the write index never overtakes the read index
+    private void compactHalf() {
+        int kept = 0;
+        for (int i = 0; i < size; i += 2) {
+            ring[(head + kept) % ring.length] = ring[(head + i) % ring.length];
+            kept++;
+        }
+        droppedCount += size - kept;
+        size = kept;
+    }
+}
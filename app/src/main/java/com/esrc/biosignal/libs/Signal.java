@@ -2,6 +2,8 @@ package com.esrc.biosignal.libs;
 
 import android.bluetooth.BluetoothGattCharacteristic;
 
+import com.esrc.biosignal.signalutils.PpgDecoder;
+
 /**
  * Created by lhw48 on 2016-06-22.
  */
@@ -17,18 +19,8 @@ public class Signal {
     }
 
     public static Signal fromReceivedData(BluetoothGattCharacteristic characteristic) {
-        byte[] value = characteristic.getValue();
-        double result = 0;
-        if(value.length == 2) {
-            result = calByteData(value[0], value[1]);  // ppg
-            //result =(double)calByteData(value[0], value[1]) / 10000.f;  // ppi
-        }
-        return new Signal(result);
-    }
-
-    // Sum data
-    private static int calByteData(Byte highBuffer, Byte lowBuffer) {
-        return (int)(highBuffer & 0xff) * 256 + (int)(lowBuffer & 0xff);
+        // ppg, decoded in biosignal-core
+        return new Signal(PpgDecoder.decode(characteristic.getValue()));
     }
 
     protected Signal(double value) {
@@ -0,0 +1,139 @@
+package com.esrc.biosignal.libs;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Delivery path from the DSP stage of {@link BiosignalManager} to one {@link SignalNotifier}.
+ *
+ * Samples are queued in a bounded {@link SampleQueue} and the main thread is woken with at most
+ * one pending message, however fast samples arrive. A stalled UI therefore cannot grow the
+ * Looper queue, and only delays the DSP stage when the consumer asked for
+ * {@link BackpressurePolicy#BLOCK}.
+ *
+ * A BPM is tagged with the position of the PPG sample it was estimated with and delivered right
+ * after that sample, so the notifier sees both streams in the order they arrived. One pass
+ * delivers at most one queue capacity and posts another pass if more is waiting, so a producer
+ * that keeps refilling the queue cannot hold the main thread.
+ */
+class SignalChannel {
+    // BPM arrives about once a second, so this only fills if the UI stalls for a minute
+    private static final int BPM_QUEUE_CAPACITY = 64;
+
+    private final SignalNotifier notifier;
+    private final SampleQueue ppgQueue;
+    private final Handler mainHandler;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    // Reused by every drain, only touched on the main thread
+    private final double[] drainBuffer;
+
+    // BPMs with the PPG position they follow, a ring that drops the oldest when full
+    private final Object bpmLock = new Object();
+    private final double[] bpmValues = new double[BPM_QUEUE_CAPACITY];
+    private final long[] bpmPositions = new long[BPM_QUEUE_CAPACITY];
+    private int bpmHead = 0;
+    private int bpmSize = 0;
+    private long droppedBpmCount = 0;
+
+    SignalChannel(SignalNotifier notifier, int capacity, BackpressurePolicy policy) {
+        this.notifier = notifier;
+        this.ppgQueue = new SampleQueue(capacity, policy);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.drainBuffer = new double[capacity];
+    }
+
+    SignalNotifier getNotifier() {
+        return notifier;
+    }
+
+    long getDroppedSampleCount() {
+        return ppgQueue.getDroppedCount();
+    }
+
+    long getDroppedBpmCount() {
+        synchronized (bpmLock) {
+            return droppedBpmCount;
+        }
+    }
+
+    /**
+     * Called on the DSP thread for every sample.
+     *
+     * @param bpm estimated BPM, or 0 if this sample did not complete a window
+     */
+    void offer(int ppg, double bpm) {
+        ppgQueue.offer(ppg);
+        // Follows this sample, or the last queued one if this one was dropped
+        if (bpm != 0) offerBpm(bpm, ppgQueue.getAcceptedCount());
+        scheduleDrain();
+    }
+
+    /**
+     * Stops delivery and releases a producer blocked on this channel.
+     */
+    void close() {
+        ppgQueue.close();
+        synchronized (bpmLock) {
+            bpmSize = 0;
+        }
+        mainHandler.removeCallbacks(drainRunnable);
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            mainHandler.post(drainRunnable);
+        }
+    }
+
+    private void offerBpm(double bpm, long position) {
+        synchronized (bpmLock) {
+            if (bpmSize == BPM_QUEUE_CAPACITY) {
+                bpmHead = (bpmHead + 1) % BPM_QUEUE_CAPACITY;
+                bpmSize--;
+                droppedBpmCount++;
+            }
+            int tail = (bpmHead + bpmSize) % BPM_QUEUE_CAPACITY;
+            bpmValues[tail] = bpm;
+            bpmPositions[tail] = position;
+            bpmSize++;
+        }
+    }
+
+    // Delivers the BPMs that follow PPG positions up to `position`
+    private void deliverBpmsUpTo(long position) {
+        while (true) {
+            double bpm;
+            synchronized (bpmLock) {
+                if (bpmSize == 0 || bpmPositions[bpmHead] > position) return;
+                bpm = bpmValues[bpmHead];
+                bpmHead = (bpmHead + 1) % BPM_QUEUE_CAPACITY;
+                bpmSize--;
+            }
+            notifier.onReceivedBPM(bpm);
+        }
+    }
+
+    private final Runnable drainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Cleared before draining, so samples arriving meanwhile schedule one more pass
+            drainScheduled.set(false);
+
+            int n = ppgQueue.drainTo(drainBuffer);
+            // The drained samples are the ones queued at positions first .. first + n - 1
+            // (approximate once DECIMATE has compacted the queue)
+            long first = ppgQueue.getDrainedPosition() - n + 1;
+            // BPMs of samples that were discarded before this pass
+            deliverBpmsUpTo(first - 1);
+            for (int i = 0; i < n; i++) {
+                notifier.onReceivedPPG((int) drainBuffer[i]);
+                deliverBpmsUpTo(first + i);
+            }
+
+            if (ppgQueue.size() > 0) scheduleDrain();
+        }
+    };
+}
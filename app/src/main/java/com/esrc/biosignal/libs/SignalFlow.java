@@ -0,0 +1,39 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * Reactive-streams interfaces for the signal streams of {@link BiosignalManager}.
+ *
+ * These mirror {@code java.util.concurrent.Flow}, which only exists from API 30 while this app
+ * still runs on API 24. The contract is the same: a {@link Subscriber} receives at most as many
+ * items as it has requested through its {@link Subscription}.
+ */
+public final class SignalFlow {
+    private SignalFlow() {
+    }
+
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    public interface Subscription {
+        /**
+         * Adds {@code n} items to the demand of this subscription. Long.MAX_VALUE means unbounded.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+
+    public interface Processor<T, R> extends Subscriber<T>, Publisher<R> {
+    }
+}
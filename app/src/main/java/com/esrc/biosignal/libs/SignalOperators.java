@@ -0,0 +1,214 @@
+package com.esrc.biosignal.libs;
+
+import com.esrc.biosignal.signalutils.SignalManager;
+
+/**
+ * Operators over {@link SignalPublisher} streams.
+ *
+ * Every operator subscribes to its upstream with unbounded demand on the upstream's source
+ * Looper, so the work runs on the producer thread (the DSP thread for device streams). The
+ * operator output is itself a {@link SignalPublisher}, so downstream subscribers still get
+ * demand-based delivery with their own bounded buffer.
+ *
+ * An operator is only attached upstream while it has subscribers of its own: it subscribes when
+ * the first one arrives and cancels when the last one leaves, so an unused chain costs the
+ * producer nothing and {@link SignalPublisher#hasSubscribers()} stays accurate upstream.
+ */
+public final class SignalOperators {
+    // The PPG sensor streams at 100 Hz
+    public static final double DEFAULT_SAMPLE_PERIOD_MS = 10;
+
+    private SignalOperators() {
+    }
+
+    /**
+     * Element-wise mapping.
+     */
+    public interface Mapper<T, R> {
+        R apply(T item);
+    }
+
+    /**
+     * Keeps one sample out of every {@code factor}. Samples are picked by their position in the
+     * device stream, so the phase stays steady across blocks.
+     */
+    public static SignalPublisher<SampleBlock> decimate(SignalPublisher<SampleBlock> upstream, final int factor) {
+        if (factor <= 0) throw new IllegalArgumentException("factor must be positive: " + factor);
+        return new Operator<SampleBlock, SampleBlock>(upstream) {
+            @Override
+            public void onNext(SampleBlock block) {
+                if (factor == 1) {
+                    submit(block);
+                    return;
+                }
+                long first = block.getFirstSampleIndex();
+                int skip = (int) ((factor - first % factor) % factor);
+                if (skip >= block.size()) return;
+                int count = (block.size() - skip + factor - 1) / factor;
+                int[] out = new int[count];
+                int[] in = block.array();
+                int base = block.offset() + skip;
+                for (int i = 0; i < count; i++) {
+                    out[i] = in[base + i * factor];
+                }
+                submit(new SampleBlock(block.getUniqueId(), (first + skip) / factor,
+                        block.getTimestamp(), out, 0, count));
+            }
+        };
+    }
+
+    /**
+     * Sliding windows of {@code size} samples, one every {@code step} samples.
+     */
+    public static SignalPublisher<SampleBlock> window(SignalPublisher<SampleBlock> upstream, final int size, final int step) {
+        if (size <= 0 || step <= 0) throw new IllegalArgumentException("size=" + size + " step=" + step);
+        return new Operator<SampleBlock, SampleBlock>(upstream) {
+            private final int[] ring = new int[size];
+            private long received = 0;      // samples seen so far
+            private long nextEmit = size;   // sample count at which the next window is complete
+            private long lastTimestamp = 0;
+
+            @Override
+            public void onNext(SampleBlock block) {
+                int[] in = block.array();
+                int end = block.offset() + block.size();
+                lastTimestamp = block.getTimestamp();
+                for (int i = block.offset(); i < end; i++) {
+                    ring[(int) (received % size)] = in[i];
+                    received++;
+                    if (received == nextEmit) {
+                        int[] out = new int[size];
+                        int start = (int) (received % size);
+                        System.arraycopy(ring, start, out, 0, size - start);
+                        System.arraycopy(ring, 0, out, size - start, start);
+                        submit(new SampleBlock(block.getUniqueId(), block.getFirstSampleIndex() + (i - block.offset()) + 1 - size,
+                                lastTimestamp, out, 0, size));
+                        nextEmit += step;
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Maps PPG to beats per minute with the same estimator as {@link BiosignalManager}: one
+     * windowed BPM estimate per interval of {@link SignalManager}, not one item per heartbeat.
+     * Samples are timed at {@link #DEFAULT_SAMPLE_PERIOD_MS}.
+     */
+    public static SignalPublisher<Double> beats(SignalPublisher<SampleBlock> upstream) {
+        return beats(upstream, DEFAULT_SAMPLE_PERIOD_MS);
+    }
+
+    /**
+     * Like {@link #beats(SignalPublisher)}. The estimator runs on sample time: each sample is
+     * timed from its block's timestamp plus its index in the block times {@code samplePeriodMs},
+     * not from the clock when the block is delivered, so estimates do not snap to block
+     * boundaries or pick up delivery jitter.
+     */
+    public static SignalPublisher<Double> beats(SignalPublisher<SampleBlock> upstream, final double samplePeriodMs) {
+        if (samplePeriodMs <= 0) throw new IllegalArgumentException("samplePeriodMs must be positive: " + samplePeriodMs);
+        return new Operator<SampleBlock, Double>(upstream) {
+            // Started on the clock of the first sample
+            private SignalManager signalManager = null;
+
+            @Override
+            public void onNext(SampleBlock block) {
+                if (signalManager == null) signalManager = new SignalManager(block.getTimestamp());
+                int[] in = block.array();
+                int offset = block.offset();
+                int end = offset + block.size();
+                for (int i = offset; i < end; i++) {
+                    long time = block.getTimestamp() + Math.round((i - offset) * samplePeriodMs);
+                    double bpm = signalManager.add(in[i], time);
+                    if (bpm != 0) submit(bpm);
+                }
+            }
+        };
+    }
+
+    public static <T, R> SignalPublisher<R> map(SignalPublisher<T> upstream, final Mapper<? super T, ? extends R> mapper) {
+        return new Operator<T, R>(upstream) {
+            @Override
+            public void onNext(T item) {
+                submit(mapper.apply(item));
+            }
+        };
+    }
+
+    /**
+     * Base for operators: requests everything from upstream while it has subscribers and
+     * republishes.
+     */
+    private abstract static class Operator<T, R> extends SignalPublisher<R> {
+        private final SignalPublisher<T> upstream;
+        // Link of the current activation, only touched from onActive / onInactive
+        private UpstreamLink link = null;
+
+        Operator(SignalPublisher<T> upstream) {
+            super(upstream.getSourceLooper());
+            this.upstream = upstream;
+        }
+
+        /**
+         * Called on the upstream's source Looper for every upstream item.
+         */
+        protected abstract void onNext(T item);
+
+        @Override
+        protected void onActive() {
+            link = new UpstreamLink();
+            upstream.subscribe(link, upstream.getSourceLooper());
+        }
+
+        @Override
+        protected void onInactive() {
+            if (link == null) return;
+            link.cancel();
+            link = null;
+        }
+
+        /**
+         * Upstream subscription of one activation. onSubscribe arrives later on the source
+         * Looper, so a link cancelled before that cancels the subscription as soon as it comes.
+         */
+        private class UpstreamLink implements SignalFlow.Subscriber<T> {
+            private SignalFlow.Subscription subscription = null;
+            private boolean cancelled = false;
+
+            @Override
+            public void onSubscribe(SignalFlow.Subscription subscription) {
+                boolean keep;
+                synchronized (this) {
+                    keep = !cancelled;
+                    if (keep) this.subscription = subscription;
+                }
+                if (keep) subscription.request(Long.MAX_VALUE);
+                else subscription.cancel();
+            }
+
+            @Override
+            public void onNext(T item) {
+                Operator.this.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                error(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                complete();
+            }
+
+            void cancel() {
+                SignalFlow.Subscription current;
+                synchronized (this) {
+                    cancelled = true;
+                    current = subscription;
+                }
+                if (current != null) current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.esrc.biosignal.libs;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-subscriber {@link SignalFlow.Publisher} with demand-based delivery.
+ *
+ * Items are submitted on the source thread and fanned out to every subscription. Each
+ * subscription delivers on its own Looper and only as many items as its subscriber requested;
+ * the rest wait in a bounded per-subscription buffer that drops the oldest item when full.
+ * The same item instance goes to every subscriber, nothing is copied.
+ */
+public class SignalPublisher<T> implements SignalFlow.Publisher<T> {
+    public static final int DEFAULT_BUFFER_SIZE = 256;
+
+    private final Looper sourceLooper;
+    private final int bufferSize;
+    private final CopyOnWriteArrayList<SignalSubscription> subscriptions = new CopyOnWriteArrayList<SignalSubscription>();
+    // Serializes the first-in / last-out transitions and their hooks
+    private final Object subscriptionsLock = new Object();
+    private volatile boolean completed = false;
+    private volatile Throwable error = null;
+
+    public SignalPublisher(Looper sourceLooper) {
+        this(sourceLooper, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param sourceLooper Looper of the thread that calls {@link #submit(Object)}
+     * @param bufferSize   items kept per subscriber while it has no demand
+     */
+    public SignalPublisher(Looper sourceLooper, int bufferSize) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be positive: " + bufferSize);
+        this.sourceLooper = sourceLooper;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Looper items are produced on. Operators subscribe on it so they run in the producer thread.
+     */
+    public Looper getSourceLooper() {
+        return sourceLooper;
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * Subscribes with delivery on the calling thread's Looper, or the main Looper if it has none.
+     */
+    @Override
+    public void subscribe(SignalFlow.Subscriber<? super T> subscriber) {
+        Looper looper = Looper.myLooper();
+        subscribe(subscriber, looper != null ? looper : Looper.getMainLooper());
+    }
+
+    public void subscribe(final SignalFlow.Subscriber<? super T> subscriber, Looper deliveryLooper) {
+        if (subscriber == null) throw new NullPointerException("subscriber");
+        final SignalSubscription subscription = new SignalSubscription(subscriber, new Handler(deliveryLooper));
+        addSubscription(subscription);
+        subscription.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                subscriber.onSubscribe(subscription);
+                // A subscriber that arrives after the end still gets the terminal signal
+                if (completed || error != null) subscription.schedule();
+            }
+        });
+    }
+
+    /**
+     * Called when the first subscriber arrives, while no other subscription can come or go.
+     */
+    protected void onActive() {
+    }
+
+    /**
+     * Called when the last subscriber cancelled or terminated, while no other subscription can
+     * come or go.
+     */
+    protected void onInactive() {
+    }
+
+    private void addSubscription(SignalSubscription subscription) {
+        synchronized (subscriptionsLock) {
+            boolean first = subscriptions.isEmpty();
+            subscriptions.add(subscription);
+            if (first) onActive();
+        }
+    }
+
+    private void removeSubscription(SignalSubscription subscription) {
+        synchronized (subscriptionsLock) {
+            if (subscriptions.remove(subscription) && subscriptions.isEmpty()) onInactive();
+        }
+    }
+
+    /**
+     * Hands {@code item} to every current subscriber.
+     */
+    public void submit(T item) {
+        if (completed || error != null) return;
+        for (SignalSubscription subscription : subscriptions) {
+            subscription.offer(item);
+        }
+    }
+
+    public void complete() {
+        completed = true;
+        for (SignalSubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    public void error(Throwable throwable) {
+        error = throwable;
+        for (SignalSubscription subscription : subscriptions) {
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * @return items discarded because a subscriber had no demand and its buffer was full
+     */
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (SignalSubscription subscription : subscriptions) {
+            dropped += subscription.getDropped();
+        }
+        return dropped;
+    }
+
+    private class SignalSubscription implements SignalFlow.Subscription, Runnable {
+        private final SignalFlow.Subscriber<? super T> subscriber;
+        private final Handler handler;
+        private final ArrayDeque<T> buffer = new ArrayDeque<T>();
+        private final AtomicLong demand = new AtomicLong(0);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        private boolean terminated = false;
+        private long dropped = 0;
+
+        SignalSubscription(SignalFlow.Subscriber<? super T> subscriber, Handler handler) {
+            this.subscriber = subscriber;
+            this.handler = handler;
+        }
+
+        synchronized long getDropped() {
+            return dropped;
+        }
+
+        void offer(T item) {
+            synchronized (this) {
+                if (buffer.size() == bufferSize) {
+                    buffer.pollFirst();
+                    dropped++;
+                }
+                buffer.addLast(item);
+            }
+            if (demand.get() > 0) schedule();
+        }
+
+        void schedule() {
+            if (!cancelled && scheduled.compareAndSet(false, true)) {
+                handler.post(this);
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (cancelled) return;
+            if (n <= 0) {
+                cancel();
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        subscriber.onError(new IllegalArgumentException("request must be positive: " + n));
+                    }
+                });
+                return;
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + n;
+                if (next < 0) next = Long.MAX_VALUE;
+            } while (!demand.compareAndSet(current, next));
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            removeSubscription(this);
+            synchronized (this) {
+                buffer.clear();
+            }
+        }
+
+        // Delivery pass, runs on the subscriber's Looper
+        @Override
+        public void run() {
+            scheduled.set(false);
+            while (!cancelled && demand.get() > 0) {
+                T item;
+                synchronized (this) {
+                    item = buffer.pollFirst();
+                }
+                if (item == null) break;
+                if (demand.get() != Long.MAX_VALUE) demand.decrementAndGet();
+                subscriber.onNext(item);
+            }
+
+            if (cancelled || terminated) return;
+            boolean empty;
+            synchronized (this) {
+                empty = buffer.isEmpty();
+            }
+            if (error != null) {
+                terminated = true;
+                removeSubscription(this);
+                subscriber.onError(error);
+            } else if (completed && empty) {
+                terminated = true;
+                removeSubscription(this);
+                subscriber.onComplete();
+            }
+        }
+    }
+}
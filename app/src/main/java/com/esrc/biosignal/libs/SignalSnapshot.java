@@ -0,0 +1,78 @@
+package com.esrc.biosignal.libs;
+
+/**
+ * Immutable view of the live measurement for the UI, published by {@link SnapshotBridge}.
+ *
+ * A snapshot is never changed after it is published, so the main thread can read it without
+ * locking while the DSP stage builds the next one.
+ */
+public final class SignalSnapshot {
+    static final SignalSnapshot EMPTY = new SignalSnapshot(0, new int[0], -1, 0, 0, 0);
+
+    private final long version;
+    private final int[] samples;
+    private final long lastSampleIndex;
+    private final double bpm;
+    private final int beatCount;
+    private final long deadline;
+
+    SignalSnapshot(long version, int[] samples, long lastSampleIndex, double bpm, int beatCount, long deadline) {
+        this.version = version;
+        this.samples = samples;
+        this.lastSampleIndex = lastSampleIndex;
+        this.bpm = bpm;
+        this.beatCount = beatCount;
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return increases with every published snapshot
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of recent samples held, at most the bridge's window
+     */
+    public int getSampleCount() {
+        return samples.length;
+    }
+
+    /**
+     * @param i 0 for the oldest held sample
+     */
+    public int getSample(int i) {
+        return samples[i];
+    }
+
+    /**
+     * @return running index of the newest sample, or -1 before the first one
+     */
+    public long getLastSampleIndex() {
+        return lastSampleIndex;
+    }
+
+    /**
+     * @return the latest BPM, or 0 before the first beat
+     */
+    public double getBpm() {
+        return bpm;
+    }
+
+    /**
+     * @return beats received since the bridge was started or cleared
+     */
+    public int getBeatCount() {
+        return beatCount;
+    }
+
+    /**
+     * @param now SystemClock.uptimeMillis()
+     * @return milliseconds until the deadline set on the bridge, 0 when passed, -1 if none
+     */
+    public long getRemainingMillis(long now) {
+        if (deadline <= 0) return -1;
+        return Math.max(0, deadline - now);
+    }
+}
@@ -0,0 +1,89 @@
+package com.esrc.biosignal.libs;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * PPG, beat and state publishers of one device.
+ *
+ * PPG samples are gathered into {@link SampleBlock}s on the DSP thread. A block is published
+ * when it is full or when its first sample is {@link #FLUSH_DELAY_MS} old, so subscribers get
+ * batches without waiting more than a frame or two for a slow sensor.
+ *
+ * Despite its name the beat stream carries no beat-to-beat data: each item is the BPM that
+ * {@link com.esrc.biosignal.signalutils.SignalManager} estimates over its sliding window, about
+ * once per second. Consumers that need PPIs derive them from these estimates (60 / bpm seconds), as
+ * {@link com.esrc.biosignal.signalutils.EmotionCalculator} does, and must not read the item
+ * rate as the heart rate.
+ */
+class SignalStreams {
+    static final int BLOCK_SIZE = 32;
+    static final long FLUSH_DELAY_MS = 40;
+
+    private final int uniqueId;
+    private final Handler dspHandler;
+
+    final SignalPublisher<SampleBlock> ppg;
+    // Windowed BPM estimates, not individual beats
+    final SignalPublisher<Double> beats;
+    final SignalPublisher<Integer> states;
+
+    // Block being filled, only touched on the DSP thread
+    private int[] pending = new int[BLOCK_SIZE];
+    private int pendingCount = 0;
+    private long pendingTimestamp = 0;
+    private long nextSampleIndex = 0;
+
+    SignalStreams(int uniqueId, Looper dspLooper) {
+        this.uniqueId = uniqueId;
+        this.dspHandler = new Handler(dspLooper);
+        this.ppg = new SignalPublisher<SampleBlock>(dspLooper);
+        this.beats = new SignalPublisher<Double>(dspLooper);
+        this.states = new SignalPublisher<Integer>(Looper.getMainLooper());
+    }
+
+    /**
+     * Called on the DSP thread for every sample.
+     *
+     * @param bpm estimated BPM, or 0 if this sample did not complete a window
+     */
+    void onSample(int value, double bpm) {
+        if (ppg.hasSubscribers()) {
+            if (pendingCount == 0) {
+                pendingTimestamp = System.currentTimeMillis();
+                dspHandler.postDelayed(flushRunnable, FLUSH_DELAY_MS);
+            }
+            pending[pendingCount++] = value;
+            if (pendingCount == BLOCK_SIZE) flush();
+        } else {
+            nextSampleIndex++;
+        }
+        if (bpm != 0 && beats.hasSubscribers()) {
+            beats.submit(bpm);
+        }
+    }
+
+    /**
+     * Called on the main thread for every state change.
+     */
+    void onState(int state) {
+        if (states.hasSubscribers()) states.submit(state);
+    }
+
+    private void flush() {
+        dspHandler.removeCallbacks(flushRunnable);
+        if (pendingCount == 0) return;
+        // The block owns its array from here on, subscribers share it
+        ppg.submit(new SampleBlock(uniqueId, nextSampleIndex, pendingTimestamp, pending, 0, pendingCount));
+        nextSampleIndex += pendingCount;
+        pending = new int[BLOCK_SIZE];
+        pendingCount = 0;
+    }
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+}
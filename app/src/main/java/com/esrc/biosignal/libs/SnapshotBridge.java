@@ -0,0 +1,266 @@
+package com.esrc.biosignal.libs;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Rate-limited path from the DSP stage to the views of a screen.
+ *
+ * The bridge subscribes to the PPG and beat streams on the DSP thread and keeps the latest state
+ * there: the last samples, the current BPM and the number of beats. It publishes that state as
+ * an immutable {@link SignalSnapshot} through an AtomicReference, at most once per
+ * {@link #MIN_PUBLISH_INTERVAL_MS} for samples and on every beat.
+ *
+ * The main thread pulls the newest snapshot from a Choreographer frame callback and hands it to
+ * the {@link Listener}, so views change at most once per frame. Like {@link SignalChannel}, at
+ * most one message is pending on the main Looper however fast samples arrive, and snapshots that
+ * are replaced before a frame are never seen. Samples left over at the end of a burst are
+ * published by the next frame.
+ */
+public class SnapshotBridge {
+    private static final String TAG = "SnapshotBridge";
+
+    // About one display frame
+    static final long MIN_PUBLISH_INTERVAL_MS = 16;
+
+    /**
+     * Receives snapshots on the main thread, at most once per frame.
+     */
+    public interface Listener {
+        void onSnapshot(SignalSnapshot snapshot);
+    }
+
+    private final AtomicReference<SignalSnapshot> latest = new AtomicReference<SignalSnapshot>(SignalSnapshot.EMPTY);
+    private final AtomicBoolean frameScheduled = new AtomicBoolean(false);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // DSP thread state, guarded by lock (clear() and setDeadline() may come from the main thread)
+    private final Object lock = new Object();
+    private final int[] ring;
+    private int head = 0;
+    private int size = 0;
+    private long lastSampleIndex = -1;
+    private double bpm = 0;
+    private int beatCount = 0;
+    private long deadline = 0;
+    private long version = 0;
+    private long lastPublish = 0;
+    private boolean unpublished = false;
+    private boolean subscribed = false;
+    private SignalFlow.Subscription ppgSubscription = null;
+    private SignalFlow.Subscription beatSubscription = null;
+
+    // Main thread only
+    private Listener listener = null;
+    private long deliveredVersion = 0;
+
+    /**
+     * @param windowSize number of recent samples carried by each snapshot
+     */
+    public SnapshotBridge(int windowSize) {
+        ring = new int[Math.max(1, windowSize)];
+    }
+
+    /**
+     * Sets the listener, on the main thread. The current snapshot is delivered on the next frame.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        deliveredVersion = -1;
+        scheduleFrame();
+    }
+
+    /**
+     * @return the newest published snapshot, from any thread
+     */
+    public SignalSnapshot getSnapshot() {
+        return latest.get();
+    }
+
+    /**
+     * Starts following the streams of a device until {@link #unsubscribe()}.
+     */
+    public void subscribeTo(BiosignalManager manager, int uniqueId) {
+        synchronized (lock) {
+            if (subscribed) return;
+            subscribed = true;
+        }
+        SignalPublisher<SampleBlock> ppg = manager.getPpgPublisher(uniqueId);
+        ppg.subscribe(new SignalFlow.Subscriber<SampleBlock>() {
+            @Override
+            public void onSubscribe(SignalFlow.Subscription subscription) {
+                if (!attach(subscription, true)) return;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(SampleBlock block) {
+                onSamples(block);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Log.w(TAG, "PPG stream failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, ppg.getSourceLooper());
+
+        SignalPublisher<Double> beats = manager.getBeatPublisher(uniqueId);
+        beats.subscribe(new SignalFlow.Subscriber<Double>() {
+            @Override
+            public void onSubscribe(SignalFlow.Subscription subscription) {
+                if (!attach(subscription, false)) return;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Double value) {
+                onBeat(value);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Log.w(TAG, "beat stream failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, beats.getSourceLooper());
+    }
+
+    /**
+     * Stops following the streams and delivering snapshots. Safe to call more than once.
+     */
+    public void unsubscribe() {
+        SignalFlow.Subscription ppg;
+        SignalFlow.Subscription beat;
+        synchronized (lock) {
+            subscribed = false;
+            ppg = ppgSubscription;
+            beat = beatSubscription;
+            ppgSubscription = null;
+            beatSubscription = null;
+        }
+        if (ppg != null) ppg.cancel();
+        if (beat != null) beat.cancel();
+        listener = null;
+        Choreographer.getInstance().removeFrameCallback(frameCallback);
+        frameScheduled.set(false);
+    }
+
+    // Keeps the subscription for unsubscribe(), or cancels it if already unsubscribed
+    private boolean attach(SignalFlow.Subscription subscription, boolean ppg) {
+        synchronized (lock) {
+            if (subscribed) {
+                if (ppg) ppgSubscription = subscription;
+                else beatSubscription = subscription;
+                return true;
+            }
+        }
+        subscription.cancel();
+        return false;
+    }
+
+    /**
+     * Sets when the current measurement ends, in SystemClock.uptimeMillis(); 0 for none.
+     */
+    public void setDeadline(long uptimeMillis) {
+        synchronized (lock) {
+            deadline = uptimeMillis;
+            publish();
+        }
+    }
+
+    /**
+     * Forgets samples and beats, e.g. when a new measurement starts.
+     */
+    public void clear() {
+        synchronized (lock) {
+            head = 0;
+            size = 0;
+            lastSampleIndex = -1;
+            bpm = 0;
+            beatCount = 0;
+            publish();
+        }
+    }
+
+    void onSamples(SampleBlock block) {
+        synchronized (lock) {
+            int n = block.size();
+            for (int i = 0; i < n; i++) {
+                int tail = (head + size) % ring.length;
+                ring[tail] = block.get(i);
+                if (size < ring.length) size++;
+                else head = (head + 1) % ring.length;
+            }
+            if (n > 0) lastSampleIndex = block.getFirstSampleIndex() + n - 1;
+            if (SystemClock.uptimeMillis() - lastPublish >= MIN_PUBLISH_INTERVAL_MS) {
+                publish();
+            } else {
+                // The next frame publishes them if no later sample does
+                unpublished = true;
+                scheduleFrame();
+            }
+        }
+    }
+
+    void onBeat(double value) {
+        synchronized (lock) {
+            bpm = value;
+            beatCount++;
+            // Beats are rare and always shown
+            publish();
+        }
+    }
+
+    // Builds and publishes a snapshot of the current state, under lock
+    private void publish() {
+        int[] samples = new int[size];
+        int first = Math.min(size, ring.length - head);
+        System.arraycopy(ring, head, samples, 0, first);
+        System.arraycopy(ring, 0, samples, first, size - first);
+        latest.set(new SignalSnapshot(++version, samples, lastSampleIndex, bpm, beatCount, deadline));
+        lastPublish = SystemClock.uptimeMillis();
+        unpublished = false;
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (frameScheduled.compareAndSet(false, true)) {
+            mainHandler.post(postFrameCallback);
+        }
+    }
+
+    private final Runnable postFrameCallback = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    };
+
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            frameScheduled.set(false);
+            synchronized (lock) {
+                // Samples that came in after the last snapshot, e.g. at the end of a burst
+                if (unpublished) publish();
+            }
+            SignalSnapshot snapshot = latest.get();
+            if (listener == null || snapshot.getVersion() == deliveredVersion) return;
+            deliveredVersion = snapshot.getVersion();
+            listener.onSnapshot(snapshot);
+        }
+    };
+}
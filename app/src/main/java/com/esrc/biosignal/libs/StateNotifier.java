@@ -5,4 +5,11 @@ package com.esrc.biosignal.libs;
  */
 public interface StateNotifier {
     public void didChangedState(int state);
-}
\ No newline at end of file
+
+    /**
+     * Called after a {@link LinkProfile} was applied and whenever the device renegotiated
+     * the MTU or PHY.
+     */
+    default void onLinkParametersChanged(LinkParameters parameters) {
+    }
+}
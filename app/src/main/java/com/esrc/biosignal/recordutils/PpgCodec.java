@@ -0,0 +1,142 @@
+package com.esrc.biosignal.recordutils;
+
+import java.util.Arrays;
+
+/**
+ * Compact encoding of 16-bit PPG samples: the difference to the previous sample, zig-zag
+ * mapped and written as a little-endian base-128 varint.
+ *
+ * PPG changes slowly between samples, so most deltas take a single byte instead of two. Every
+ * encoded block starts from zero, so blocks can be decoded on their own; {@link BlockIndex}
+ * maps sample indices to the blocks that hold them.
+ *
+ * A delta of two uint16 samples needs 17 bits, so a sample never takes more than
+ * {@link #MAX_BYTES_PER_SAMPLE} bytes.
+ */
+public final class PpgCodec {
+    public static final int MAX_BYTES_PER_SAMPLE = 3;
+
+    private PpgCodec() {
+    }
+
+    /**
+     * @return the largest number of bytes {@code count} samples can encode to
+     */
+    public static int maxEncodedSize(int count) {
+        return MAX_BYTES_PER_SAMPLE * count;
+    }
+
+    /**
+     * Encodes samples into {@code out}, which must have room for {@link #maxEncodedSize(int)}.
+     *
+     * @return the number of bytes written
+     */
+    public static int encode(int[] samples, int offset, int count, byte[] out, int outOffset) {
+        int p = outOffset;
+        int previous = 0;
+        for (int i = offset, end = offset + count; i < end; i++) {
+            int sample = samples[i] & 0xffff;
+            int delta = sample - previous;
+            previous = sample;
+            int v = (delta << 1) ^ (delta >> 31);
+            if (v < 0x80) {
+                out[p++] = (byte) v;
+            } else if (v < 0x4000) {
+                out[p++] = (byte) (v | 0x80);
+                out[p++] = (byte) (v >>> 7);
+            } else {
+                out[p++] = (byte) (v | 0x80);
+                out[p++] = (byte) ((v >>> 7) | 0x80);
+                out[p++] = (byte) (v >>> 14);
+            }
+        }
+        return p - outOffset;
+    }
+
+    /**
+     * Decodes {@code count} samples.
+     *
+     * @return the number of bytes read
+     * @throws IllegalArgumentException if the input ends early or is not valid
+     */
+    public static int decode(byte[] in, int inOffset, int length, int[] samples, int offset, int count) {
+        int p = inOffset;
+        int end = inOffset + length;
+        int previous = 0;
+        for (int i = offset, last = offset + count; i < last; i++) {
+            if (p >= end) throw new IllegalArgumentException("truncated block");
+            int v = in[p++];
+            if (v < 0) {
+                v &= 0x7f;
+                if (p >= end) throw new IllegalArgumentException("truncated block");
+                int b = in[p++];
+                if (b < 0) {
+                    v |= (b & 0x7f) << 7;
+                    if (p >= end) throw new IllegalArgumentException("truncated block");
+                    b = in[p++];
+                    if (b < 0 || b > 0x07) throw new IllegalArgumentException("bad varint");
+                    v |= b << 14;
+                } else {
+                    v |= b << 7;
+                }
+            }
+            previous += (v >>> 1) ^ -(v & 1);
+            if ((previous & ~0xffff) != 0) throw new IllegalArgumentException("sample out of range");
+            samples[i] = previous;
+        }
+        return p - inOffset;
+    }
+
+    /**
+     * Sorted map from the first sample index of each block to where the block is stored.
+     */
+    public static final class BlockIndex {
+        private long[] firstSampleIndices = new long[64];
+        private int[] offsets = new int[64];
+        private int size = 0;
+
+        /**
+         * Blocks must be added in sample order.
+         */
+        public void add(long firstSampleIndex, int offset) {
+            if (size > 0 && firstSampleIndex < firstSampleIndices[size - 1]) {
+                throw new IllegalArgumentException("blocks out of order");
+            }
+            if (size == offsets.length) {
+                firstSampleIndices = Arrays.copyOf(firstSampleIndices, size * 2);
+                offsets = Arrays.copyOf(offsets, size * 2);
+            }
+            firstSampleIndices[size] = firstSampleIndex;
+            offsets[size] = offset;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getFirstSampleIndex(int block) {
+            return firstSampleIndices[block];
+        }
+
+        public int getOffset(int block) {
+            return offsets[block];
+        }
+
+        /**
+         * @return the last block starting at or before {@code sampleIndex}, 0 if it is before
+         * every block, or -1 if the index is empty
+         */
+        public int find(long sampleIndex) {
+            int lo = 0;
+            int hi = size - 1;
+            if (hi < 0) return -1;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (firstSampleIndices[mid] <= sampleIndex) lo = mid;
+                else hi = mid - 1;
+            }
+            return lo;
+        }
+    }
+}
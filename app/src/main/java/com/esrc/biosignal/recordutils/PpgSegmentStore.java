@@ -0,0 +1,552 @@
+package com.esrc.biosignal.recordutils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.libs.SampleBlock;
+import com.esrc.biosignal.libs.SignalFlow;
+import com.esrc.biosignal.libs.SignalPublisher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only store of every raw PPG sample, kept in fixed-size memory-mapped segment files.
+ *
+ * Segment layout, big-endian:
+ * <pre>
+ * header : int magic 'PPGS', short version, short reserved, long sequence, long created (ms),
+ *          int write offset, int reserved
+ * block  : int payload length, int sample count, long first sample index, long timestamp (ms),
+ *          payload ({@link PpgCodec} encoded samples), int CRC32 of everything in the block before it
+ * </pre>
+ *
+ * Appending a block is a copy into the mapping followed by an update of the header's write
+ * offset, so a sample is in the page cache, and survives the death of the process, as soon as
+ * {@link #append(SampleBlock)} returns. A background thread forces the mapping to disk every
+ * {@link #FORCE_INTERVAL_MS} so that at most that much is lost on a power cut.
+ *
+ * The same thread creates and maps the next segment ahead of time, so that moving on to it
+ * from the producer is only a swap. It also forces and closes the segment that was left, and
+ * deletes the oldest segments beyond {@link #MAX_SEGMENTS} or older than {@link #MAX_AGE_MS}.
+ *
+ * On open the newest segment is scanned block by block. The first block that runs past the
+ * segment or fails its CRC marks a torn tail, which is trimmed by moving the write offset back.
+ */
+public class PpgSegmentStore {
+    private final static String TAG = "PpgSegmentStore";
+
+    public static final int MAGIC = 0x50504753;  // "PPGS"
+    public static final short VERSION = 1;
+    public static final String SEGMENT_DIR = "ppg_segments";
+    public static final String SEGMENT_EXTENSION = ".seg";
+
+    static final int SEGMENT_SIZE = 1024 * 1024;
+    static final int HEADER_SIZE = 32;
+    static final int WRITE_OFFSET_POSITION = 24;
+    static final int BLOCK_HEADER_SIZE = 24;
+    static final int BLOCK_TRAILER_SIZE = 4;
+    static final long FORCE_INTERVAL_MS = 1000;
+    static final int MAX_BLOCK_COUNT = 4096;
+    static final int CRC_CHUNK_SIZE = 4096;
+    static final int MAX_SEGMENTS = 256;
+    static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+
+    private final File dir;
+    private final HandlerThread syncThread;
+    private final Handler sync;
+
+    // Appends come from a single producer thread, the sync thread does all file work
+    private volatile Segment current = null;
+    // Mapped ahead by the sync thread, taken by the producer when the current one is full
+    private volatile Segment spare = null;
+    private volatile boolean closed = false;
+    private final CRC32 crc = new CRC32();
+    private final byte[] encoded = new byte[PpgCodec.maxEncodedSize(MAX_BLOCK_COUNT)];
+    // Mapped buffers have no array, the CRC reads them through this
+    private final byte[] crcChunk = new byte[CRC_CHUNK_SIZE];
+    private long droppedBlocks = 0;
+
+    private volatile SignalFlow.Subscription subscription = null;
+
+    /**
+     * Callback of {@link #forEachBlock(File, BlockVisitor)}.
+     */
+    public interface BlockVisitor {
+        /**
+         * @param samples decoded samples, only valid during the call
+         */
+        void onBlock(long firstSampleIndex, long timestamp, int[] samples, int count);
+    }
+
+    private static class Segment {
+        final long sequence;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writeOffset;
+
+        Segment(long sequence, File file, FileChannel channel, MappedByteBuffer buffer, int writeOffset) {
+            this.sequence = sequence;
+            this.file = file;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.writeOffset = writeOffset;
+        }
+    }
+
+    /**
+     * Opens the store in the app's files dir. Recovery runs on the store's own thread.
+     */
+    public PpgSegmentStore(Context context) {
+        this(new File(context.getFilesDir(), SEGMENT_DIR));
+    }
+
+    public PpgSegmentStore(File dir) {
+        this.dir = dir;
+        syncThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        syncThread.start();
+        sync = new Handler(syncThread.getLooper());
+        sync.post(openRunnable);
+    }
+
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * @return blocks lost because the store was not open or the next segment was not ready
+     */
+    public long getDroppedBlockCount() {
+        return droppedBlocks;
+    }
+
+    /**
+     * Stores the raw PPG stream of a device. Blocks are appended on the DSP thread that
+     * produces them, once recovery has finished.
+     */
+    public void subscribeTo(final BiosignalManager manager, final int uniqueId) {
+        sync.post(new Runnable() {
+            @Override
+            public void run() {
+                SignalPublisher<SampleBlock> ppg = manager.getPpgPublisher(uniqueId);
+                ppg.subscribe(new SignalFlow.Subscriber<SampleBlock>() {
+                    @Override
+                    public void onSubscribe(SignalFlow.Subscription s) {
+                        if (closed) {
+                            s.cancel();
+                            return;
+                        }
+                        subscription = s;
+                        s.request(Long.MAX_VALUE);
+                    }
+
+                    @Override
+                    public void onNext(SampleBlock block) {
+                        append(block);
+                    }
+
+                    @Override
+                    public void onError(Throwable throwable) {
+                        Log.w(TAG, "PPG stream failed", throwable);
+                    }
+
+                    @Override
+                    public void onComplete() {
+                    }
+                }, ppg.getSourceLooper());
+            }
+        });
+    }
+
+    /**
+     * Appends one block. Must always be called from the same thread.
+     */
+    public void append(SampleBlock block) {
+        append(block.getFirstSampleIndex(), block.getTimestamp(), block.array(), block.offset(), block.size());
+    }
+
+    public void append(long firstSampleIndex, long timestamp, int[] samples, int offset, int length) {
+        while (length > 0) {
+            int count = Math.min(length, MAX_BLOCK_COUNT);
+            appendBlock(firstSampleIndex, timestamp, samples, offset, count);
+            firstSampleIndex += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void appendBlock(long firstSampleIndex, long timestamp, int[] samples, int offset, int count) {
+        Segment segment = current;
+        if (segment == null || closed) {
+            droppedBlocks++;
+            return;
+        }
+        int payloadLength = PpgCodec.encode(samples, offset, count, encoded, 0);
+        int blockSize = BLOCK_HEADER_SIZE + payloadLength + BLOCK_TRAILER_SIZE;
+        if (segment.writeOffset + blockSize > SEGMENT_SIZE) {
+            segment = roll(segment);
+            if (segment == null) {
+                droppedBlocks++;
+                return;
+            }
+        }
+
+        ByteBuffer buffer = segment.buffer;
+        int start = segment.writeOffset;
+        buffer.position(start);
+        buffer.putInt(payloadLength);
+        buffer.putInt(count);
+        buffer.putLong(firstSampleIndex);
+        buffer.putLong(timestamp);
+        buffer.put(encoded, 0, payloadLength);
+        buffer.putInt((int) checksum(buffer, start, buffer.position() - start));
+
+        // The block is complete before the header points past it
+        segment.writeOffset = buffer.position();
+        buffer.putInt(WRITE_OFFSET_POSITION, segment.writeOffset);
+    }
+
+    /**
+     * Stops storing, forces what was written and unmaps the current segment.
+     */
+    public void close() {
+        closed = true;
+        SignalFlow.Subscription s = subscription;
+        if (s != null) s.cancel();
+        sync.removeCallbacks(forceRunnable);
+        sync.post(new Runnable() {
+            @Override
+            public void run() {
+                Segment segment = current;
+                current = null;
+                if (segment != null) closeSegment(segment);
+                Segment next = spare;
+                spare = null;
+                if (next != null) closeSegment(next);
+            }
+        });
+        syncThread.quitSafely();
+    }
+
+    /**
+     * @return segment files in the order they were written
+     */
+    public File[] listSegments() {
+        File[] files = dir.listFiles();
+        if (files == null) return new File[0];
+        int n = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(SEGMENT_EXTENSION)) files[n++] = file;
+        }
+        File[] segments = Arrays.copyOf(files, n);
+        // Zero-padded sequence numbers sort by name
+        Arrays.sort(segments);
+        return segments;
+    }
+
+    /**
+     * Reads every intact block of a segment file, stopping at a torn tail.
+     *
+     * @return the offset after the last intact block
+     */
+    public static int forEachBlock(File segmentFile, BlockVisitor visitor) throws IOException {
+        return forEachBlock(segmentFile, null, Long.MIN_VALUE, visitor);
+    }
+
+    /**
+     * Reads the blocks of a segment from the one holding {@code fromSampleIndex} on, seeking
+     * with an index built by {@link #indexSegment(File)}.
+     *
+     * @return the offset after the last intact block
+     */
+    public static int forEachBlock(File segmentFile, PpgCodec.BlockIndex index, long fromSampleIndex,
+                                   BlockVisitor visitor) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "r");
+        try {
+            ByteBuffer buffer = map(raf, segmentFile);
+            int start = HEADER_SIZE;
+            if (index != null) {
+                int block = index.find(fromSampleIndex);
+                if (block >= 0) start = index.getOffset(block);
+            }
+            return scan(buffer, new CRC32(), start, visitor, null);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return where each intact block of a segment starts, by first sample index
+     */
+    public static PpgCodec.BlockIndex indexSegment(File segmentFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "r");
+        try {
+            PpgCodec.BlockIndex index = new PpgCodec.BlockIndex();
+            scan(map(raf, segmentFile), new CRC32(), HEADER_SIZE, null, index);
+            return index;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ByteBuffer map(RandomAccessFile raf, File segmentFile) throws IOException {
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a PPG segment: " + segmentFile);
+        }
+        return buffer;
+    }
+
+    // Walks the blocks from `offset`, returns the end of the last valid one
+    private static int scan(ByteBuffer buffer, CRC32 crc, int offset, BlockVisitor visitor,
+                            PpgCodec.BlockIndex index) {
+        int limit = buffer.limit();
+        int[] samples = visitor != null ? new int[MAX_BLOCK_COUNT] : null;
+        byte[] payload = visitor != null ? new byte[PpgCodec.maxEncodedSize(MAX_BLOCK_COUNT)] : null;
+        byte[] crcChunk = new byte[CRC_CHUNK_SIZE];
+        while (offset + BLOCK_HEADER_SIZE + BLOCK_TRAILER_SIZE <= limit) {
+            int payloadLength = buffer.getInt(offset);
+            int count = buffer.getInt(offset + 4);
+            if (count <= 0 || payloadLength < count) break;
+            if (payloadLength > PpgCodec.maxEncodedSize(count)) break;
+            int end = offset + BLOCK_HEADER_SIZE + payloadLength + BLOCK_TRAILER_SIZE;
+            if (end > limit || end < offset) break;
+            int stored = buffer.getInt(end - BLOCK_TRAILER_SIZE);
+            if (stored != (int) checksum(buffer, crc, crcChunk, offset, end - BLOCK_TRAILER_SIZE - offset)) break;
+
+            long firstSampleIndex = buffer.getLong(offset + 8);
+            if (index != null) index.add(firstSampleIndex, offset);
+            if (visitor != null) {
+                if (samples.length < count) samples = new int[count];
+                int p = offset + BLOCK_HEADER_SIZE;
+                if (payload.length < payloadLength) payload = new byte[payloadLength];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(p);
+                slice.get(payload, 0, payloadLength);
+                try {
+                    PpgCodec.decode(payload, 0, payloadLength, samples, 0, count);
+                } catch (IllegalArgumentException e) {
+                    // Passed the CRC but does not decode, treat as the end
+                    break;
+                }
+                visitor.onBlock(firstSampleIndex, buffer.getLong(offset + 16), samples, count);
+            }
+            offset = end;
+        }
+        return offset;
+    }
+
+    private long checksum(ByteBuffer buffer, int offset, int length) {
+        return checksum(buffer, crc, crcChunk, offset, length);
+    }
+
+    // Allocation free: the caller's buffer is read in place and its position restored
+    private static long checksum(ByteBuffer buffer, CRC32 crc, byte[] chunk, int offset, int length) {
+        crc.reset();
+        if (buffer.hasArray()) {
+            crc.update(buffer.array(), buffer.arrayOffset() + offset, length);
+            return crc.getValue();
+        }
+        int position = buffer.position();
+        buffer.position(offset);
+        int remaining = length;
+        while (remaining > 0) {
+            int n = Math.min(chunk.length, remaining);
+            buffer.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        buffer.position(position);
+        return crc.getValue();
+    }
+
+    private final Runnable openRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                if (!dir.exists() && !dir.mkdirs()) throw new IOException("cannot create " + dir);
+                File[] segments = listSegments();
+                Segment segment = null;
+                if (segments.length > 0) {
+                    segment = recover(segments[segments.length - 1]);
+                }
+                if (segment == null) {
+                    long sequence = segments.length > 0 ? sequenceOf(segments[segments.length - 1]) + 1 : 0;
+                    segment = createSegment(sequence);
+                }
+                current = segment;
+                prepareRunnable.run();
+                enforceRetention();
+                sync.postDelayed(forceRunnable, FORCE_INTERVAL_MS);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot open store in " + dir, e);
+            }
+        }
+    };
+
+    private final Runnable forceRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Segment segment = current;
+            if (segment != null) segment.buffer.force();
+            if (!closed) sync.postDelayed(forceRunnable, FORCE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable prepareRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Segment segment = current;
+            if (closed || segment == null || spare != null) return;
+            try {
+                spare = createSegment(segment.sequence + 1);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot create segment " + (segment.sequence + 1), e);
+            }
+        }
+    };
+
+    /**
+     * Maps the newest segment again and trims a torn tail.
+     *
+     * @return the segment to continue in, or null if it is full or unreadable
+     */
+    private Segment recover(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() != SEGMENT_SIZE) {
+                channel.close();
+                Log.w(TAG, "ignoring segment of unexpected size: " + file);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+            if (buffer.getInt(0) != MAGIC) {
+                channel.close();
+                Log.w(TAG, "ignoring foreign file: " + file);
+                return null;
+            }
+            if (buffer.getShort(4) != VERSION) {
+                // Unknown format, continue in a new segment
+                channel.close();
+                return null;
+            }
+            int recorded = buffer.getInt(WRITE_OFFSET_POSITION);
+            int valid = scan(buffer, crc, HEADER_SIZE, null, null);
+            if (valid != recorded) {
+                Log.w(TAG, file.getName() + ": write offset " + recorded + ", intact up to " + valid + ", trimming");
+            }
+            buffer.putInt(WRITE_OFFSET_POSITION, valid);
+            // Wipe the torn block header so a later scan cannot pick it up again
+            if (valid + BLOCK_HEADER_SIZE <= SEGMENT_SIZE) buffer.putInt(valid, 0);
+            buffer.force();
+            return new Segment(sequenceOf(file), file, channel, buffer, valid);
+        } catch (IOException e) {
+            Log.e(TAG, "cannot recover " + file, e);
+            return null;
+        }
+    }
+
+    private Segment createSegment(long sequence) throws IOException {
+        File file = new File(dir, String.format(Locale.US, "seg_%012d", sequence) + SEGMENT_EXTENSION);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putShort(6, (short) 0);
+        buffer.putLong(8, sequence);
+        buffer.putLong(16, System.currentTimeMillis());
+        buffer.putInt(WRITE_OFFSET_POSITION, HEADER_SIZE);
+        buffer.putInt(28, 0);
+        buffer.force();
+        return new Segment(sequence, file, channel, buffer, HEADER_SIZE);
+    }
+
+    // Called on the producer thread when a block does not fit any more. Only swaps in the
+    // spare; closing the full segment and mapping the next spare happen on the sync thread.
+    private Segment roll(final Segment full) {
+        Segment next = spare;
+        if (next == null) {
+            // Not mapped yet or creating it failed, ask again
+            sync.post(prepareRunnable);
+            return null;
+        }
+        next.buffer.putLong(16, System.currentTimeMillis());
+        // Publish the new current first, so the sync thread never sees no spare and the old current
+        current = next;
+        spare = null;
+        sync.post(new Runnable() {
+            @Override
+            public void run() {
+                closeSegment(full);
+                prepareRunnable.run();
+                enforceRetention();
+            }
+        });
+        return next;
+    }
+
+    // Sync thread only. Segments are in order, so the oldest ones go first
+    private void enforceRetention() {
+        Segment segment = current;
+        if (segment == null) return;
+        File[] segments = listSegments();
+        int remaining = segments.length;
+        long now = System.currentTimeMillis();
+        for (File file : segments) {
+            if (sequenceOf(file) >= segment.sequence) break;
+            if (remaining <= MAX_SEGMENTS && now - createdOf(file) <= MAX_AGE_MS) break;
+            if (!file.delete()) {
+                Log.w(TAG, "cannot delete " + file);
+                break;
+            }
+            remaining--;
+        }
+    }
+
+    private static void closeSegment(Segment segment) {
+        segment.buffer.force();
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "close failed: " + segment.file, e);
+        }
+    }
+
+    private static long createdOf(File file) {
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.seek(16);
+                return raf.readLong();
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            return file.lastModified();
+        }
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(4, name.length() - SEGMENT_EXTENSION.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.esrc.biosignal.recordutils;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local SQLite store of measurement results, one row per guest.
+ *
+ * Saves are queued and written on the store's own thread, in one transaction per batch of up
+ * to {@link #MAX_BATCH} results or every {@link #BATCH_DELAY_MS}. Analytics queries run on a
+ * second thread and the database runs in WAL mode, so queries and writes do not wait for each
+ * other; query results are delivered on the main thread. Rows are keyed by start time and
+ * indexed by emotion and by menu item.
+ */
+public class ResultStore {
+    private final static String TAG = "ResultStore";
+
+    public static final String DATABASE_NAME = "results.db";
+    static final int DATABASE_VERSION = 1;
+
+    static final int MAX_BATCH = 64;
+    static final long BATCH_DELAY_MS = 500;
+
+    static final String TABLE_SESSIONS = "sessions";
+    static final String COLUMN_STARTED_AT = "started_at";
+    static final String COLUMN_SESSION_FILE = "session_file";
+    static final String COLUMN_BASELINE_BPM = "baseline_bpm";
+    static final String COLUMN_BASELINE_LF = "baseline_lf";
+    static final String COLUMN_BASELINE_HF = "baseline_hf";
+    static final String COLUMN_STIMULUS_BPM = "stimulus_bpm";
+    static final String COLUMN_STIMULUS_LF = "stimulus_lf";
+    static final String COLUMN_STIMULUS_HF = "stimulus_hf";
+    static final String COLUMN_EMOTION = "emotion";
+    static final String COLUMN_DECIDED_AT = "decided_at";
+    static final String COLUMN_MENU_ITEM = "menu_item";
+    static final String COLUMN_ORDERED_AT = "ordered_at";
+
+    private static final String[] COLUMNS = {
+            COLUMN_STARTED_AT, COLUMN_SESSION_FILE,
+            COLUMN_BASELINE_BPM, COLUMN_BASELINE_LF, COLUMN_BASELINE_HF,
+            COLUMN_STIMULUS_BPM, COLUMN_STIMULUS_LF, COLUMN_STIMULUS_HF,
+            COLUMN_EMOTION, COLUMN_DECIDED_AT, COLUMN_MENU_ITEM, COLUMN_ORDERED_AT
+    };
+
+    private final OpenHelper helper;
+    private final HandlerThread storeThread;
+    private final Handler store;
+    private final HandlerThread queryThread;
+    private final Handler query;
+    private final Handler main = new Handler(Looper.getMainLooper());
+
+    private final Object lock = new Object();
+    private ArrayList<SessionResult> pending = new ArrayList<SessionResult>();
+    private boolean closed = false;
+
+    /**
+     * Result of an asynchronous query, delivered on the main thread.
+     */
+    public interface QueryCallback<T> {
+        void onResult(T result);
+    }
+
+    public ResultStore(Context context) {
+        helper = new OpenHelper(context.getApplicationContext());
+        storeThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        storeThread.start();
+        store = new Handler(storeThread.getLooper());
+        queryThread = new HandlerThread(TAG + "Query", Process.THREAD_PRIORITY_BACKGROUND);
+        queryThread.start();
+        query = new Handler(queryThread.getLooper());
+    }
+
+    /**
+     * Queues a result for writing, replacing the row with the same start time.
+     */
+    public void save(SessionResult result) {
+        synchronized (lock) {
+            if (closed) return;
+            pending.add(result.copy());
+            if (pending.size() >= MAX_BATCH) {
+                store.removeCallbacks(writeRunnable);
+                store.post(writeRunnable);
+            } else if (pending.size() == 1) {
+                store.postDelayed(writeRunnable, BATCH_DELAY_MS);
+            }
+        }
+    }
+
+    /**
+     * Results started in [from, to), newest first.
+     */
+    public void querySessions(final long from, final long to, final int limit,
+                              final QueryCallback<List<SessionResult>> callback) {
+        query.post(new Runnable() {
+            @Override
+            public void run() {
+                final List<SessionResult> results = new ArrayList<SessionResult>();
+                try {
+                    Cursor cursor = helper.getReadableDatabase().query(TABLE_SESSIONS, COLUMNS,
+                            COLUMN_STARTED_AT + " >= ? AND " + COLUMN_STARTED_AT + " < ?",
+                            new String[]{Long.toString(from), Long.toString(to)},
+                            null, null, COLUMN_STARTED_AT + " DESC", Integer.toString(limit));
+                    try {
+                        while (cursor.moveToNext()) {
+                            results.add(read(cursor));
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (SQLiteException e) {
+                    Log.e(TAG, "querySessions failed", e);
+                }
+                deliver(callback, results);
+            }
+        });
+    }
+
+    /**
+     * Number of decided results per emotion in [from, to), indexed by the EmotionCalculator
+     * state (index 0 is unused).
+     */
+    public void queryEmotionCounts(final long from, final long to, final QueryCallback<int[]> callback) {
+        query.post(new Runnable() {
+            @Override
+            public void run() {
+                final int[] counts = new int[4];
+                try {
+                    Cursor cursor = helper.getReadableDatabase().rawQuery(
+                            "SELECT " + COLUMN_EMOTION + ", COUNT(*) FROM " + TABLE_SESSIONS
+                                    + " WHERE " + COLUMN_STARTED_AT + " >= ? AND " + COLUMN_STARTED_AT + " < ?"
+                                    + " AND " + COLUMN_EMOTION + " > 0 GROUP BY " + COLUMN_EMOTION,
+                            new String[]{Long.toString(from), Long.toString(to)});
+                    try {
+                        while (cursor.moveToNext()) {
+                            int emotion = cursor.getInt(0);
+                            if (emotion > 0 && emotion < counts.length) counts[emotion] = cursor.getInt(1);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (SQLiteException e) {
+                    Log.e(TAG, "queryEmotionCounts failed", e);
+                }
+                deliver(callback, counts);
+            }
+        });
+    }
+
+    /**
+     * Writes what is queued and closes the database on the store thread.
+     */
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+        store.removeCallbacks(writeRunnable);
+        queryThread.quitSafely();
+        store.post(new Runnable() {
+            @Override
+            public void run() {
+                write();
+                try {
+                    // Lets a running query finish before the database goes away
+                    queryThread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                helper.close();
+            }
+        });
+        storeThread.quitSafely();
+    }
+
+    private <T> void deliver(final QueryCallback<T> callback, final T result) {
+        main.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    private final Runnable writeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            write();
+        }
+    };
+
+    // Writes the queued results in one transaction, on the store thread
+    private void write() {
+        ArrayList<SessionResult> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) return;
+            batch = pending;
+            pending = new ArrayList<SessionResult>();
+        }
+        try {
+            SQLiteDatabase db = helper.getWritableDatabase();
+            SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_SESSIONS
+                    + " (" + join(COLUMNS) + ") VALUES (?,?,?,?,?,?,?,?,?,?,?,?)");
+            db.beginTransaction();
+            try {
+                for (SessionResult result : batch) {
+                    bind(insert, result);
+                    insert.executeInsert();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                insert.close();
+            }
+        } catch (SQLiteException e) {
+            Log.e(TAG, "write of " + batch.size() + " results failed", e);
+        }
+    }
+
+    private static void bind(SQLiteStatement insert, SessionResult result) {
+        insert.clearBindings();
+        insert.bindLong(1, result.getStartedAt());
+        if (result.getSessionFile() != null) insert.bindString(2, result.getSessionFile());
+        insert.bindDouble(3, result.getBaselineBpm());
+        insert.bindDouble(4, result.getBaselineLf());
+        insert.bindDouble(5, result.getBaselineHf());
+        insert.bindDouble(6, result.getStimulusBpm());
+        insert.bindDouble(7, result.getStimulusLf());
+        insert.bindDouble(8, result.getStimulusHf());
+        insert.bindLong(9, result.getEmotion());
+        insert.bindLong(10, result.getDecidedAt());
+        if (result.getMenuItem() != null) insert.bindString(11, result.getMenuItem());
+        insert.bindLong(12, result.getOrderedAt());
+    }
+
+    private static SessionResult read(Cursor cursor) {
+        return new SessionResult(cursor.getLong(0), cursor.isNull(1) ? null : cursor.getString(1),
+                cursor.getDouble(2), cursor.getDouble(3), cursor.getDouble(4),
+                cursor.getDouble(5), cursor.getDouble(6), cursor.getDouble(7),
+                cursor.getInt(8), cursor.getLong(9),
+                cursor.isNull(10) ? null : cursor.getString(10), cursor.getLong(11));
+    }
+
+    private static String join(String[] columns) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(columns[i]);
+        }
+        return sb.toString();
+    }
+
+    private static class OpenHelper extends SQLiteOpenHelper {
+        OpenHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_SESSIONS + " ("
+                    + COLUMN_STARTED_AT + " INTEGER PRIMARY KEY, "
+                    + COLUMN_SESSION_FILE + " TEXT, "
+                    + COLUMN_BASELINE_BPM + " REAL, "
+                    + COLUMN_BASELINE_LF + " REAL, "
+                    + COLUMN_BASELINE_HF + " REAL, "
+                    + COLUMN_STIMULUS_BPM + " REAL, "
+                    + COLUMN_STIMULUS_LF + " REAL, "
+                    + COLUMN_STIMULUS_HF + " REAL, "
+                    + COLUMN_EMOTION + " INTEGER NOT NULL DEFAULT 0, "
+                    + COLUMN_DECIDED_AT + " INTEGER, "
+                    + COLUMN_MENU_ITEM + " TEXT, "
+                    + COLUMN_ORDERED_AT + " INTEGER)");
+            // started_at is the primary key, so range scans by time use it directly
+            db.execSQL("CREATE INDEX idx_sessions_emotion ON " + TABLE_SESSIONS
+                    + " (" + COLUMN_EMOTION + ", " + COLUMN_STARTED_AT + ")");
+            db.execSQL("CREATE INDEX idx_sessions_menu_item ON " + TABLE_SESSIONS
+                    + " (" + COLUMN_MENU_ITEM + ", " + COLUMN_STARTED_AT + ")");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+}
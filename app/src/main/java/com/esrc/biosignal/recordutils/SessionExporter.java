@@ -0,0 +1,387 @@
+package com.esrc.biosignal.recordutils;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Converts a recorded session to CSV or EDF+ for researchers.
+ *
+ * The session is pulled record by record through a {@link SessionReader}; text is built in one
+ * reusable StringBuilder and bytes go out through one fixed buffer, so memory stays the same
+ * for a minute or a day of data.
+ *
+ * CSV has one row per value: {@code type,timestamp_ms,index,value}, where the index is the
+ * sample index for PPG and the bin for spectra. EDF+ holds the PPG in one-second data records,
+ * with beats and PPIs as annotations; spectra are CSV only. The file is EDF+D: a gap in the
+ * recording is filled with the last value only up to the end of the current data record, and the
+ * next record carries its real onset.
+ */
+public class SessionExporter {
+    public static final int FORMAT_CSV = 0;
+    public static final int FORMAT_EDF = 1;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    // Rate used when a session is too short to measure one
+    static final int DEFAULT_SAMPLE_RATE = 100;
+
+    private final File sessionFile;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final StringBuilder text = new StringBuilder(256);
+    private WritableByteChannel channel;
+    private int sampleRate;
+
+    public SessionExporter(File sessionFile) {
+        this.sessionFile = sessionFile;
+    }
+
+    public static String fileExtension(int format) {
+        return format == FORMAT_EDF ? ".edf" : ".csv";
+    }
+
+    public void export(File destination, int format) throws IOException {
+        FileOutputStream stream = new FileOutputStream(destination);
+        try {
+            export(stream.getChannel(), format);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Exports to a document, e.g. one picked with ACTION_CREATE_DOCUMENT.
+     */
+    public void export(Context context, Uri destination, int format) throws IOException {
+        ParcelFileDescriptor pfd = null;
+        try {
+            // EDF+ patches its header at the end, which needs a seekable file
+            pfd = context.getContentResolver().openFileDescriptor(destination, format == FORMAT_EDF ? "rw" : "w");
+        } catch (FileNotFoundException | UnsupportedOperationException e) {
+            pfd = null;
+        }
+        if (pfd == null && format == FORMAT_EDF) {
+            throw new IOException("EDF+ needs a seekable destination: " + destination);
+        }
+        if (pfd != null) {
+            FileOutputStream stream = new FileOutputStream(pfd.getFileDescriptor());
+            try {
+                FileChannel fileChannel = stream.getChannel();
+                fileChannel.truncate(0);
+                export(fileChannel, format);
+            } finally {
+                stream.close();
+                pfd.close();
+            }
+            return;
+        }
+        OutputStream stream = context.getContentResolver().openOutputStream(destination);
+        if (stream == null) throw new FileNotFoundException("cannot open " + destination);
+        try {
+            export(Channels.newChannel(stream), format);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Exports to a channel. EDF+ writes the number of data records into its header at the end,
+     * so it needs a {@link FileChannel}; CSV takes any channel.
+     *
+     * @throws IllegalArgumentException for EDF+ to a channel that is not a FileChannel
+     */
+    public void export(WritableByteChannel destination, int format) throws IOException {
+        if (format == FORMAT_EDF && !(destination instanceof FileChannel)) {
+            throw new IllegalArgumentException("EDF+ export needs a FileChannel");
+        }
+        channel = destination;
+        out.clear();
+        sampleRate = measureSampleRate();
+        SessionReader reader = new SessionReader(sessionFile);
+        try {
+            if (format == FORMAT_EDF) writeEdf(reader);
+            else writeCsv(reader);
+        } finally {
+            reader.close();
+            channel = null;
+        }
+    }
+
+    private int measureSampleRate() throws IOException {
+        SessionIndex index = SessionIndex.open(sessionFile);
+        int last = index.size() - 1;
+        if (last < 1) return DEFAULT_SAMPLE_RATE;
+        long samples = index.getFirstSampleIndex(last) - index.getFirstSampleIndex(0);
+        long millis = index.getTimestamp(last) - index.getTimestamp(0);
+        if (samples <= 0 || millis <= 0) return DEFAULT_SAMPLE_RATE;
+        return (int) Math.max(1, Math.round(samples * 1000.0 / millis));
+    }
+
+    // ---------------------------------------------------------------- CSV
+
+    private void writeCsv(SessionReader reader) throws IOException {
+        text.setLength(0);
+        text.append("type,timestamp_ms,index,value\n");
+        putText();
+        double period = 1000.0 / sampleRate;
+        while (reader.next()) {
+            int count = reader.getCount();
+            long timestamp = reader.getTimestamp();
+            switch (reader.getType()) {
+                case SessionRecorder.TYPE_PPG:
+                    int[] samples = reader.getSamples();
+                    long first = reader.getFirstSampleIndex();
+                    for (int i = 0; i < count; i++) {
+                        text.setLength(0);
+                        text.append("ppg,").append(timestamp + Math.round(i * period)).append(',')
+                                .append(first + i).append(',').append(samples[i]).append('\n');
+                        putText();
+                    }
+                    break;
+                case SessionRecorder.TYPE_BEAT:
+                    csvValues("bpm", timestamp, reader.getValues(), count, false);
+                    break;
+                case SessionRecorder.TYPE_PPI:
+                    csvValues("ppi", timestamp, reader.getValues(), count, false);
+                    break;
+                case SessionRecorder.TYPE_SPECTRUM:
+                    csvValues("spectrum", timestamp, reader.getValues(), count, true);
+                    break;
+            }
+        }
+        drain();
+    }
+
+    private void csvValues(String type, long timestamp, double[] values, int count, boolean indexed) throws IOException {
+        for (int i = 0; i < count; i++) {
+            text.setLength(0);
+            text.append(type).append(',').append(timestamp).append(',');
+            if (indexed) text.append(i);
+            text.append(',').append(values[i]).append('\n');
+            putText();
+        }
+    }
+
+    // ---------------------------------------------------------------- EDF+
+
+    private static final int EDF_FIELDS_SIZE = 256;
+    private static final int ANNOTATION_SAMPLES = 64;
+    // Room kept in each record for its time-keeping annotation
+    private static final int TIME_KEEPING_SIZE = 24;
+    private static final int RECORD_COUNT_OFFSET = 236;
+
+    private int[] ppgRecord;
+    private int ppgFill;
+    private ByteBuffer annotations;
+    private long recordCount;
+    private long firstSample;
+    private long recordOnset;  // in samples from the first one
+
+    private void writeEdf(SessionReader reader) throws IOException {
+        long startTime = -1;
+        long nextSample = 0;
+        int lastValue = 0x8000;
+        ppgRecord = new int[sampleRate];
+        ppgFill = 0;
+        annotations = ByteBuffer.allocate(2 * ANNOTATION_SAMPLES - TIME_KEEPING_SIZE);
+        recordCount = 0;
+        recordOnset = -sampleRate;
+
+        while (reader.next()) {
+            int count = reader.getCount();
+            if (reader.getType() == SessionRecorder.TYPE_PPG) {
+                long first = reader.getFirstSampleIndex();
+                if (startTime < 0) {
+                    // The recording starts with its first sample
+                    startTime = reader.getTimestamp();
+                    firstSample = first;
+                    nextSample = first;
+                    writeEdfHeader(startTime);
+                }
+                long gap = first - nextSample;
+                if (gap > 0 && ppgFill > 0) {
+                    // Only to the end of this record, the next one starts at its real onset
+                    long fill = Math.min(gap, ppgRecord.length - ppgFill);
+                    for (long i = 0; i < fill; i++) addEdfSample(lastValue, 0);
+                }
+                int[] samples = reader.getSamples();
+                for (int i = 0; i < count; i++) {
+                    addEdfSample(samples[i], first + i);
+                }
+                lastValue = samples[count - 1];
+                nextSample = first + count;
+            } else if (startTime >= 0 && (reader.getType() == SessionRecorder.TYPE_BEAT
+                    || reader.getType() == SessionRecorder.TYPE_PPI)) {
+                String label = reader.getType() == SessionRecorder.TYPE_BEAT ? "BPM " : "PPI ";
+                double[] values = reader.getValues();
+                for (int i = 0; i < count; i++) {
+                    annotate(reader.getTimestamp() - startTime, label, values[i]);
+                }
+            }
+        }
+        if (startTime < 0) {
+            // No PPG at all, still a valid file
+            startTime = reader.getStartTime();
+            writeEdfHeader(startTime);
+        } else if (ppgFill > 0) {
+            while (ppgFill > 0) addEdfSample(lastValue, 0);
+        }
+        drain();
+
+        FileChannel file = (FileChannel) channel;
+        ByteBuffer field = ByteBuffer.wrap(ascii(Long.toString(recordCount), 8));
+        while (field.hasRemaining()) file.write(field, RECORD_COUNT_OFFSET + field.position());
+    }
+
+    private void writeEdfHeader(long startTime) throws IOException {
+        int signals = 2;
+        Date start = new Date(startTime);
+        String date = new SimpleDateFormat("dd-MMM-yyyy", Locale.US).format(start).toUpperCase(Locale.US);
+
+        text.setLength(0);
+        field("0", 8);
+        field("X X X X", 80);
+        field("Startdate " + date + " X X PPG_emotion", 80);
+        field(new SimpleDateFormat("dd.MM.yy", Locale.US).format(start), 8);
+        field(new SimpleDateFormat("HH.mm.ss", Locale.US).format(start), 8);
+        field(Integer.toString(EDF_FIELDS_SIZE * (1 + signals)), 8);
+        field("EDF+D", 44);
+        field("-1", 8);
+        field("1", 8);
+        field(Integer.toString(signals), 4);
+
+        // Per field, the PPG signal then the annotation signal
+        field("PPG", 16);
+        field("EDF Annotations", 16);
+        field("PPG sensor", 80);
+        field("", 80);
+        field("raw", 8);
+        field("", 8);
+        field("0", 8);
+        field("-1", 8);
+        field("65535", 8);
+        field("1", 8);
+        field("-32768", 8);
+        field("-32768", 8);
+        field("32767", 8);
+        field("32767", 8);
+        field("", 80);
+        field("", 80);
+        field(Integer.toString(sampleRate), 8);
+        field(Integer.toString(ANNOTATION_SAMPLES), 8);
+        field("", 32);
+        field("", 32);
+        putText();
+    }
+
+    // sampleIndex is only used by the first sample of a record, for the record's onset
+    private void addEdfSample(int value, long sampleIndex) throws IOException {
+        if (ppgFill == 0) {
+            // Records never overlap, even if the sample index went back
+            recordOnset = Math.max(sampleIndex - firstSample, recordOnset + ppgRecord.length);
+        }
+        ppgRecord[ppgFill++] = value;
+        if (ppgFill < ppgRecord.length) return;
+
+        ensureRoom(2 * ppgRecord.length + 2 * ANNOTATION_SAMPLES);
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < ppgRecord.length; i++) {
+            // uint16 to the signed 16-bit digital range
+            out.putShort((short) (ppgRecord[i] - 0x8000));
+        }
+        out.order(ByteOrder.BIG_ENDIAN);
+        // Every data record opens with its time-keeping annotation
+        int start = out.position();
+        text.setLength(0);
+        text.append('+');
+        appendThousandths(recordOnset * 1000 / sampleRate);
+        text.append('\u0014').append('\u0014').append('\0');
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        annotations.flip();
+        out.put(annotations);
+        while (out.position() - start < 2 * ANNOTATION_SAMPLES) out.put((byte) 0);
+        annotations.clear();
+        ppgFill = 0;
+        recordCount++;
+    }
+
+    private void annotate(long onsetMillis, String label, double value) {
+        text.setLength(0);
+        text.append('+');
+        appendThousandths(Math.max(0, onsetMillis));
+        text.append('\u0014').append(label);
+        appendThousandths(Math.round(value * 1000));
+        text.append('\u0014').append('\0');
+        // A full record drops the annotation rather than breaking the file
+        if (text.length() <= annotations.remaining()) putAnnotation();
+    }
+
+    // Appends value / 1000 with three decimals, without String.format
+    private void appendThousandths(long value) {
+        if (value < 0) {
+            text.append('-');
+            value = -value;
+        }
+        long fraction = value % 1000;
+        text.append(value / 1000).append('.');
+        if (fraction < 100) text.append('0');
+        if (fraction < 10) text.append('0');
+        text.append(fraction);
+    }
+
+    private void putAnnotation() {
+        for (int i = 0; i < text.length(); i++) {
+            annotations.put((byte) text.charAt(i));
+        }
+    }
+
+    private void field(String value, int width) {
+        int length = Math.min(value.length(), width);
+        text.append(value, 0, length);
+        for (int i = length; i < width; i++) text.append(' ');
+    }
+
+    private static byte[] ascii(String value, int width) {
+        byte[] bytes = new byte[width];
+        for (int i = 0; i < width; i++) {
+            bytes[i] = i < value.length() ? (byte) value.charAt(i) : (byte) ' ';
+        }
+        return bytes;
+    }
+
+    // ---------------------------------------------------------------- output
+
+    // Copies `text` to the output buffer, all ASCII
+    private void putText() throws IOException {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (!out.hasRemaining()) drain();
+            out.put((byte) text.charAt(i));
+        }
+    }
+
+    private void ensureRoom(int size) throws IOException {
+        if (out.remaining() < size) drain();
+    }
+
+    private void drain() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) channel.write(out);
+        out.clear();
+    }
+}
@@ -0,0 +1,208 @@
+package com.esrc.biosignal.recordutils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sparse time index of a session, stored next to it with the extension {@link #FILE_EXTENSION}.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * header : int magic 'PPGI', short version, short reserved, long start time (ms)
+ * entry  : long index of the first sample, long timestamp (ms), long byte position of the record
+ * </pre>
+ *
+ * There is one entry per PPG record, in recording order. The entries have a fixed size, so the
+ * mapped index is binary-searched in place and a reader seeks straight to the record.
+ */
+public class SessionIndex {
+    public static final int MAGIC = 0x50504749;  // "PPGI"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int ENTRY_SIZE = 24;
+    public static final String FILE_EXTENSION = ".idx";
+
+    private final File sessionFile;
+    private final ByteBuffer entries;
+    private final int size;
+    private final long startTime;
+
+    private SessionIndex(File sessionFile, ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION) {
+            throw new IOException("not a session index: " + indexFileFor(sessionFile));
+        }
+        this.sessionFile = sessionFile;
+        this.startTime = buffer.getLong(8);
+        // A torn last entry is ignored
+        this.size = (buffer.limit() - HEADER_SIZE) / ENTRY_SIZE;
+        this.entries = buffer;
+    }
+
+    /**
+     * @return the index file that belongs to a session file
+     */
+    public static File indexFileFor(File sessionFile) {
+        String name = sessionFile.getName();
+        if (name.endsWith(SessionRecorder.FILE_EXTENSION)) {
+            name = name.substring(0, name.length() - SessionRecorder.FILE_EXTENSION.length());
+        }
+        return new File(sessionFile.getParentFile(), name + FILE_EXTENSION);
+    }
+
+    /**
+     * Opens the index of a session, rebuilding it first if it is missing or unreadable.
+     */
+    public static SessionIndex open(File sessionFile) throws IOException {
+        File indexFile = indexFileFor(sessionFile);
+        if (indexFile.exists()) {
+            try {
+                return map(sessionFile, indexFile);
+            } catch (IOException e) {
+                // Rebuilt below
+            }
+        }
+        build(sessionFile);
+        return map(sessionFile, indexFile);
+    }
+
+    private static SessionIndex map(File sessionFile, File indexFile) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new SessionIndex(sessionFile, buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the index of a session by scanning it, for recordings made without one.
+     */
+    public static void build(File sessionFile) throws IOException {
+        File indexFile = indexFileFor(sessionFile);
+        SessionReader reader = new SessionReader(sessionFile);
+        FileChannel channel = new FileOutputStream(indexFile).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            putHeader(buffer, reader.getStartTime());
+            while (reader.next()) {
+                if (reader.getType() != SessionRecorder.TYPE_PPG) continue;
+                if (buffer.remaining() < ENTRY_SIZE) write(channel, buffer);
+                buffer.putLong(reader.getFirstSampleIndex());
+                buffer.putLong(reader.getTimestamp());
+                buffer.putLong(reader.getPosition());
+            }
+            write(channel, buffer);
+        } finally {
+            channel.close();
+            reader.close();
+        }
+    }
+
+    static void putHeader(ByteBuffer buffer, long startTime) {
+        buffer.putInt(MAGIC);
+        buffer.putShort(VERSION);
+        buffer.putShort((short) 0);
+        buffer.putLong(startTime);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    public File getSessionFile() {
+        return sessionFile;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getFirstSampleIndex(int entry) {
+        return entries.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    public long getTimestamp(int entry) {
+        return entries.getLong(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+    }
+
+    public long getPosition(int entry) {
+        return entries.getLong(HEADER_SIZE + entry * ENTRY_SIZE + 16);
+    }
+
+    /**
+     * @return the last entry recorded at or before {@code timestamp}, 0 if it is before the
+     * first one, or -1 if the index is empty
+     */
+    public int findByTime(long timestamp) {
+        int lo = 0;
+        int hi = size - 1;
+        if (hi < 0) return -1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getTimestamp(mid) <= timestamp) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * @return the last entry starting at or before {@code sampleIndex}, 0 if it is before the
+     * first one, or -1 if the index is empty
+     */
+    public int findBySample(long sampleIndex) {
+        int lo = 0;
+        int hi = size - 1;
+        if (hi < 0) return -1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (getFirstSampleIndex(mid) <= sampleIndex) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Opens the session at the PPG record holding {@code timestamp}; reading goes on from
+     * there to the end of the recording.
+     */
+    public SessionReader openAtTime(long timestamp) throws IOException {
+        return openAt(findByTime(timestamp));
+    }
+
+    /**
+     * Opens the session {@code offsetMillis} after its start, e.g. at minute 12.
+     */
+    public SessionReader openAtOffset(long offsetMillis) throws IOException {
+        return openAtTime(startTime + offsetMillis);
+    }
+
+    public SessionReader openAtSample(long sampleIndex) throws IOException {
+        return openAt(findBySample(sampleIndex));
+    }
+
+    private SessionReader openAt(int entry) throws IOException {
+        SessionReader reader = new SessionReader(sessionFile);
+        if (entry >= 0) {
+            try {
+                reader.seek(getPosition(entry));
+            } catch (IOException e) {
+                reader.close();
+                throw e;
+            }
+        }
+        return reader;
+    }
+}
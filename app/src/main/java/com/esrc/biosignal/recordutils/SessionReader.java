@@ -0,0 +1,174 @@
+package com.esrc.biosignal.recordutils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Sequential reader of a session written by {@link SessionRecorder}.
+ *
+ * A recording that was cut short ends at its last complete record. Arrays returned by the
+ * getters are reused by the next call to {@link #next()}. {@link SessionIndex} opens a reader
+ * at any point of a recording.
+ */
+public class SessionReader implements Closeable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final FileInputStream file;
+    private DataInputStream in;
+    private final short version;
+    private final long startTime;
+
+    // Byte position of the next record, and of the current one
+    private long nextPosition = SessionRecorder.HEADER_SIZE;
+    private long position = -1;
+
+    private byte type = 0;
+    private int count = 0;
+    private long timestamp = 0;
+    private long firstSampleIndex = 0;
+    private int[] samples = new int[SessionRecorder.MAX_PPG_COUNT];
+    private double[] values = new double[64];
+    private byte[] encoded = new byte[PpgCodec.maxEncodedSize(SessionRecorder.MAX_PPG_COUNT)];
+
+    public SessionReader(File file) throws IOException {
+        this.file = new FileInputStream(file);
+        in = new DataInputStream(new BufferedInputStream(this.file, READ_BUFFER_SIZE));
+        try {
+            if (in.readInt() != SessionRecorder.MAGIC) throw new IOException("not a session: " + file);
+            version = in.readShort();
+            if (version != SessionRecorder.VERSION) {
+                throw new IOException("unsupported session version " + version + ": " + file);
+            }
+            in.readShort();
+            startTime = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public short getVersion() {
+        return version;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Continues reading at a record boundary, as found in a {@link SessionIndex}.
+     */
+    public void seek(long recordPosition) throws IOException {
+        if (recordPosition < SessionRecorder.HEADER_SIZE) throw new IOException("bad position " + recordPosition);
+        file.getChannel().position(recordPosition);
+        // Drop what the old stream had buffered
+        in = new DataInputStream(new BufferedInputStream(file, READ_BUFFER_SIZE));
+        nextPosition = recordPosition;
+        position = -1;
+        type = 0;
+        count = 0;
+    }
+
+    /**
+     * @return byte position of the current record
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false at the end of the recording
+     */
+    public boolean next() throws IOException {
+        try {
+            type = in.readByte();
+            count = in.readUnsignedShort();
+            timestamp = in.readLong();
+            long size = SessionRecorder.RECORD_HEADER_SIZE;
+            switch (type) {
+                case SessionRecorder.TYPE_PPG:
+                    size += readPpg();
+                    break;
+                case SessionRecorder.TYPE_BEAT:
+                case SessionRecorder.TYPE_PPI:
+                case SessionRecorder.TYPE_SPECTRUM:
+                    if (values.length < count) values = new double[count];
+                    for (int i = 0; i < count; i++) {
+                        values[i] = in.readDouble();
+                    }
+                    size += 8 * count;
+                    break;
+                default:
+                    throw new IOException("unknown record type " + type);
+            }
+            position = nextPosition;
+            nextPosition += size;
+            return true;
+        } catch (EOFException e) {
+            // Torn last record
+            type = 0;
+            count = 0;
+            return false;
+        }
+    }
+
+    // Returns the payload size
+    private int readPpg() throws IOException {
+        firstSampleIndex = in.readLong();
+        if (samples.length < count) samples = new int[count];
+        int length = in.readUnsignedShort();
+        if (encoded.length < length) encoded = new byte[length];
+        in.readFully(encoded, 0, length);
+        try {
+            PpgCodec.decode(encoded, 0, length, samples, 0, count);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt PPG record at sample " + firstSampleIndex, e);
+        }
+        return 8 + 2 + length;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Index of the first sample of a PPG record.
+     */
+    public long getFirstSampleIndex() {
+        return firstSampleIndex;
+    }
+
+    /**
+     * Samples of a PPG record, {@link #getCount()} of them.
+     */
+    public int[] getSamples() {
+        return samples;
+    }
+
+    /**
+     * Values of a BEAT, PPI or SPECTRUM record, {@link #getCount()} of them.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
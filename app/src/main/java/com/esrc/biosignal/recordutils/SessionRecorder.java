@@ -0,0 +1,445 @@
+package com.esrc.biosignal.recordutils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.libs.SampleBlock;
+import com.esrc.biosignal.libs.SignalFlow;
+import com.esrc.biosignal.libs.SignalPublisher;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Binary log of one measurement session: raw PPG, beats, PPI and spectra.
+ *
+ * File layout, big-endian:
+ * <pre>
+ * header  : int magic 'PPGR', short version, short reserved, long start time (ms)
+ * record  : byte type, short count, long timestamp (ms), payload
+ *   PPG      : long index of the first sample, ushort length, {@link PpgCodec} encoded samples
+ *   BEAT     : count x double bpm
+ *   PPI      : count x double seconds
+ *   SPECTRUM : count x double power
+ * </pre>
+ *
+ * Producers only copy into a preallocated buffer under a short lock and never wait for the
+ * disk. A writer thread swaps that buffer with a second one every {@link #FLUSH_INTERVAL_MS}
+ * (or as soon as it fills up), writes it to a FileChannel and calls force() every
+ * {@link #FORCE_INTERVAL_MS}. A record that finds the buffer full is dropped and counted.
+ *
+ * Every PPG record also gets an entry in a {@link SessionIndex} written next to the session,
+ * so a reader can seek by time or sample without scanning.
+ */
+public class SessionRecorder {
+    private final static String TAG = "SessionRecorder";
+
+    public static final int MAGIC = 0x50504752;  // "PPGR"
+    public static final short VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 11;
+
+    public static final byte TYPE_PPG = 1;
+    public static final byte TYPE_BEAT = 2;
+    public static final byte TYPE_PPI = 3;
+    public static final byte TYPE_SPECTRUM = 4;
+
+    public static final String FILE_EXTENSION = ".ppgr";
+    public static final String SESSION_DIR = "sessions";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+    static final long FLUSH_INTERVAL_MS = 200;
+    static final long FORCE_INTERVAL_MS = 2000;
+    private static final int MAX_COUNT = 0xffff;
+    // Keeps an encoded PPG record well inside the buffer and its length in a ushort
+    static final int MAX_PPG_COUNT = 4096;
+    // As many PPG records as the smallest of them fit in a buffer
+    private static final int MAX_INDEX_ENTRIES = BUFFER_SIZE / (RECORD_HEADER_SIZE + 8 + 2 + 1) + 1;
+
+    private final File file;
+    private final long startTime;
+    private final HandlerThread writerThread;
+    private final Handler writer;
+
+    // Producers fill `active` under the lock, the writer thread owns `spare`
+    private final Object lock = new Object();
+    private ByteBuffer active = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private boolean flushRequested = false;
+    private boolean closed = false;
+    private long droppedRecords = 0;
+    private final byte[] encoded = new byte[PpgCodec.maxEncodedSize(MAX_PPG_COUNT)];
+    // Index entries of the records in `active`, with positions relative to the buffer
+    private ByteBuffer activeIndex = ByteBuffer.allocate(MAX_INDEX_ENTRIES * SessionIndex.ENTRY_SIZE);
+    private ByteBuffer spareIndex = ByteBuffer.allocate(MAX_INDEX_ENTRIES * SessionIndex.ENTRY_SIZE);
+
+    // Writer thread only
+    private FileChannel channel = null;
+    private FileChannel indexChannel = null;
+    private long filePosition = 0;
+    private long lastForce = 0;
+
+    private SignalFlow.Subscription ppgSubscription = null;
+    private SignalFlow.Subscription beatSubscription = null;
+
+    /**
+     * Creates {@code file} and starts recording. The file is opened on the writer thread.
+     */
+    public SessionRecorder(File file) {
+        this.file = file;
+        this.startTime = System.currentTimeMillis();
+        writerThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        writerThread.start();
+        writer = new Handler(writerThread.getLooper());
+        writer.post(openRunnable);
+        writer.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * @return a new, timestamped session file in the app's own storage
+     */
+    public static File createSessionFile(Context context) {
+        File dir = context.getExternalFilesDir(SESSION_DIR);
+        if (dir == null) dir = new File(context.getFilesDir(), SESSION_DIR);
+        String name = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        return new File(dir, "session_" + name + FILE_EXTENSION);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return records dropped because the writer fell behind
+     */
+    public long getDroppedRecordCount() {
+        synchronized (lock) {
+            return droppedRecords;
+        }
+    }
+
+    /**
+     * Records the raw PPG and beat streams of a device until {@link #close()}. The records are
+     * encoded on the DSP thread that produces them, the UI thread is not involved.
+     */
+    public void subscribeTo(BiosignalManager manager, int uniqueId) {
+        SignalPublisher<SampleBlock> ppg = manager.getPpgPublisher(uniqueId);
+        ppg.subscribe(new SignalFlow.Subscriber<SampleBlock>() {
+            @Override
+            public void onSubscribe(SignalFlow.Subscription subscription) {
+                if (!attach(subscription, true)) return;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(SampleBlock block) {
+                recordPpg(block);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Log.w(TAG, "PPG stream failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, ppg.getSourceLooper());
+
+        SignalPublisher<Double> beats = manager.getBeatPublisher(uniqueId);
+        beats.subscribe(new SignalFlow.Subscriber<Double>() {
+            @Override
+            public void onSubscribe(SignalFlow.Subscription subscription) {
+                if (!attach(subscription, false)) return;
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Double bpm) {
+                recordBeat(bpm);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                Log.w(TAG, "beat stream failed", throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, beats.getSourceLooper());
+    }
+
+    // Keeps the subscription for close(), or cancels it if already closed
+    private boolean attach(SignalFlow.Subscription subscription, boolean ppg) {
+        synchronized (lock) {
+            if (!closed) {
+                if (ppg) ppgSubscription = subscription;
+                else beatSubscription = subscription;
+                return true;
+            }
+        }
+        subscription.cancel();
+        return false;
+    }
+
+    public void recordPpg(SampleBlock block) {
+        recordPpg(block.getFirstSampleIndex(), block.getTimestamp(), block.array(), block.offset(), block.size());
+    }
+
+    /**
+     * Records raw 16-bit PPG samples, split into several records if more than
+     * {@link #MAX_PPG_COUNT}.
+     */
+    public void recordPpg(long firstSampleIndex, long timestamp, int[] samples, int offset, int length) {
+        while (length > 0) {
+            int count = Math.min(length, MAX_PPG_COUNT);
+            synchronized (lock) {
+                int size = PpgCodec.encode(samples, offset, count, encoded, 0);
+                ByteBuffer buffer = reserve(TYPE_PPG, count, timestamp, 8 + 2 + size);
+                if (buffer != null) {
+                    if (activeIndex.hasRemaining()) {
+                        activeIndex.putLong(firstSampleIndex);
+                        activeIndex.putLong(timestamp);
+                        activeIndex.putLong(buffer.position() - RECORD_HEADER_SIZE);
+                    }
+                    buffer.putLong(firstSampleIndex);
+                    buffer.putShort((short) size);
+                    buffer.put(encoded, 0, size);
+                }
+            }
+            firstSampleIndex += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    public void recordBeat(double bpm) {
+        recordDouble(TYPE_BEAT, bpm);
+    }
+
+    /**
+     * @param ppi peak-to-peak interval in seconds
+     */
+    public void recordPpi(double ppi) {
+        recordDouble(TYPE_PPI, ppi);
+    }
+
+    public void recordSpectrum(double[] spectrum) {
+        int count = Math.min(spectrum.length, MAX_COUNT);
+        long timestamp = System.currentTimeMillis();
+        synchronized (lock) {
+            ByteBuffer buffer = reserve(TYPE_SPECTRUM, count, timestamp, 8 * count);
+            if (buffer == null) return;
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(spectrum[i]);
+            }
+        }
+    }
+
+    private void recordDouble(byte type, double value) {
+        long timestamp = System.currentTimeMillis();
+        synchronized (lock) {
+            ByteBuffer buffer = reserve(type, 1, timestamp, 8);
+            if (buffer != null) buffer.putDouble(value);
+        }
+    }
+
+    /**
+     * Writes the record header and returns the buffer to put the payload in, or null if the
+     * record was dropped. Called with the lock held.
+     */
+    private ByteBuffer reserve(byte type, int count, long timestamp, int payloadSize) {
+        if (closed) return null;
+        int size = RECORD_HEADER_SIZE + payloadSize;
+        if (active.remaining() < size) {
+            droppedRecords++;
+            requestFlush();
+            return null;
+        }
+        active.put(type);
+        active.putShort((short) count);
+        active.putLong(timestamp);
+        // Hand over early, so the next burst finds room
+        if (active.position() > BUFFER_SIZE / 2) requestFlush();
+        return active;
+    }
+
+    private void requestFlush() {
+        if (flushRequested) return;
+        flushRequested = true;
+        writer.post(flushRunnable);
+    }
+
+    /**
+     * Stops recording, writes what is buffered and closes the file in the background.
+     */
+    public void close() {
+        SignalFlow.Subscription ppg;
+        SignalFlow.Subscription beat;
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            ppg = ppgSubscription;
+            beat = beatSubscription;
+            ppgSubscription = null;
+            beatSubscription = null;
+        }
+        if (ppg != null) ppg.cancel();
+        if (beat != null) beat.cancel();
+        writer.removeCallbacks(flushRunnable);
+        writer.post(closeRunnable);
+        writerThread.quitSafely();
+    }
+
+    private final Runnable openRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                File dir = file.getParentFile();
+                if (dir != null && !dir.exists()) dir.mkdirs();
+                channel = new FileOutputStream(file).getChannel();
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putShort(VERSION);
+                header.putShort((short) 0);
+                header.putLong(startTime);
+                header.flip();
+                while (header.hasRemaining()) channel.write(header);
+                filePosition = HEADER_SIZE;
+                lastForce = SystemClock.uptimeMillis();
+            } catch (IOException e) {
+                Log.e(TAG, "cannot open " + file, e);
+                channel = null;
+                return;
+            }
+            try {
+                indexChannel = new FileOutputStream(SessionIndex.indexFileFor(file)).getChannel();
+                ByteBuffer header = ByteBuffer.allocate(SessionIndex.HEADER_SIZE);
+                SessionIndex.putHeader(header, startTime);
+                header.flip();
+                while (header.hasRemaining()) indexChannel.write(header);
+            } catch (IOException e) {
+                // The index can be rebuilt from the session
+                Log.e(TAG, "cannot open index of " + file, e);
+                discardIndex();
+            }
+        }
+    };
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            writer.removeCallbacks(flushRunnable);
+            flush();
+            boolean force = SystemClock.uptimeMillis() - lastForce >= FORCE_INTERVAL_MS;
+            if (force) force();
+            writer.postDelayed(flushRunnable, FLUSH_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable closeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            force();
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close failed", e);
+                }
+                channel = null;
+            }
+            closeIndex();
+            long dropped = getDroppedRecordCount();
+            if (dropped > 0) Log.w(TAG, file.getName() + ": " + dropped + " records dropped");
+        }
+    };
+
+    // Swaps the buffers and writes the filled one, on the writer thread
+    private void flush() {
+        ByteBuffer filled;
+        ByteBuffer filledIndex;
+        synchronized (lock) {
+            flushRequested = false;
+            if (active.position() == 0) return;
+            filled = active;
+            active = spare;
+            spare = filled;
+            filledIndex = activeIndex;
+            activeIndex = spareIndex;
+            spareIndex = filledIndex;
+        }
+        filled.flip();
+        long base = filePosition;
+        try {
+            if (channel != null) {
+                while (filled.hasRemaining()) channel.write(filled);
+                filePosition += filled.limit();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "write failed", e);
+            // Positions past this point are unknown, the index is rebuilt from the session
+            discardIndex();
+        }
+        filled.clear();
+
+        filledIndex.flip();
+        try {
+            if (indexChannel != null) {
+                for (int p = 16; p < filledIndex.limit(); p += SessionIndex.ENTRY_SIZE) {
+                    filledIndex.putLong(p, base + filledIndex.getLong(p));
+                }
+                while (filledIndex.hasRemaining()) indexChannel.write(filledIndex);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "index write failed", e);
+            discardIndex();
+        }
+        filledIndex.clear();
+    }
+
+    private void closeIndex() {
+        if (indexChannel == null) return;
+        try {
+            indexChannel.close();
+        } catch (IOException e) {
+            Log.e(TAG, "index close failed", e);
+        }
+        indexChannel = null;
+    }
+
+    // An incomplete index would hide the records after it, so none is better
+    private void discardIndex() {
+        closeIndex();
+        File indexFile = SessionIndex.indexFileFor(file);
+        if (indexFile.exists() && !indexFile.delete()) Log.w(TAG, "cannot delete " + indexFile);
+    }
+
+    private void force() {
+        lastForce = SystemClock.uptimeMillis();
+        if (channel == null) return;
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            Log.e(TAG, "force failed", e);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.esrc.biosignal.recordutils;
+
+import com.esrc.biosignal.signalutils.EmotionCalculator;
+import com.esrc.biosignal.signalutils.EmotionPipeline;
+import com.esrc.biosignal.signalutils.SignalManager;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Feeds the raw PPG of a recorded session through the same processing as a live sensor:
+ * BPM estimation by {@link SignalManager}, PPI collection, the baseline and emotion
+ * measurements and the emotion state.
+ *
+ * Samples are timed by the timestamps they were recorded with, so {@link SignalManager}
+ * windows behave as they did live whatever the replay speed. The replay runs on the calling
+ * thread and paces itself by sleeping, except at {@link #SPEED_UNLIMITED}.
+ */
+public class SessionReplayer {
+    public static final double SPEED_REAL_TIME = 1;
+    // No pacing, as fast as the pipeline runs
+    public static final double SPEED_UNLIMITED = 0;
+
+    public static final int PHASE_BASELINE = EmotionPipeline.PHASE_BASELINE;
+    public static final int PHASE_EMOTION = EmotionPipeline.PHASE_EMOTION;
+
+    // Used when the sample period cannot be derived from the recording
+    static final long DEFAULT_SAMPLE_PERIOD_MS = 10;
+
+    private final File file;
+    private final double speed;
+    private Listener listener = null;
+    private volatile boolean cancelled = false;
+
+    /**
+     * Callbacks of a replay, on the replaying thread.
+     */
+    public interface Listener {
+        void onSample(long sampleIndex, long timestamp, int ppg);
+
+        /**
+         * @param ppi PPI taken into the current measurement, or 0 once both are complete
+         */
+        void onBeat(long timestamp, double bpm, double ppi);
+
+        void onMeasurement(int phase, EmotionCalculator.Result result);
+
+        void onState(int state);
+    }
+
+    /**
+     * Outcome of a replay. Measurements the recording was too short for are null.
+     */
+    public static class Summary {
+        public final long sampleCount;
+        public final long beatCount;
+        public final long recordedMillis;
+        public final long elapsedNanos;
+        public final EmotionCalculator.Result baseline;
+        public final EmotionCalculator.Result emotion;
+        // One of the EmotionCalculator states, or 0 without both measurements
+        public final int state;
+        public final boolean cancelled;
+
+        Summary(long sampleCount, long beatCount, long recordedMillis, long elapsedNanos,
+                EmotionCalculator.Result baseline, EmotionCalculator.Result emotion, int state, boolean cancelled) {
+            this.sampleCount = sampleCount;
+            this.beatCount = beatCount;
+            this.recordedMillis = recordedMillis;
+            this.elapsedNanos = elapsedNanos;
+            this.baseline = baseline;
+            this.emotion = emotion;
+            this.state = state;
+            this.cancelled = cancelled;
+        }
+    }
+
+    /**
+     * @param speed multiple of real time, {@link #SPEED_REAL_TIME} or {@link #SPEED_UNLIMITED}
+     */
+    public SessionReplayer(File file, double speed) {
+        if (speed < 0 || Double.isNaN(speed)) throw new IllegalArgumentException("bad speed: " + speed);
+        this.file = file;
+        this.speed = speed;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops a replay running on another thread after the current record.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Replays the whole session on the calling thread.
+     */
+    public Summary run() throws IOException, InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        long wallStart = System.nanoTime();
+        SessionReader reader = new SessionReader(file);
+        try {
+            // One record of lookahead, to spread each block over the time until the next
+            int[] pending = new int[SessionRecorder.MAX_PPG_COUNT];
+            int pendingCount = 0;
+            long pendingIndex = 0;
+            long pendingTimestamp = 0;
+            long firstTimestamp = -1;
+            double period = 0;
+
+            while (!cancelled && reader.next()) {
+                if (reader.getType() != SessionRecorder.TYPE_PPG || reader.getCount() == 0) continue;
+                long timestamp = reader.getTimestamp();
+                if (firstTimestamp < 0) {
+                    firstTimestamp = timestamp;
+                    pipeline.start(timestamp);
+                }
+                if (pendingCount > 0) {
+                    double measured = (double) (timestamp - pendingTimestamp) / pendingCount;
+                    // A gap in the stream would stretch the block, keep the last period then
+                    if (measured > 0 && (period == 0 || measured < 2 * period)) period = measured;
+                    pace(wallStart, pendingTimestamp - firstTimestamp);
+                    pipeline.feed(pending, pendingCount, pendingIndex, pendingTimestamp, period);
+                }
+
+                pendingCount = reader.getCount();
+                if (pending.length < pendingCount) pending = new int[pendingCount];
+                System.arraycopy(reader.getSamples(), 0, pending, 0, pendingCount);
+                pendingIndex = reader.getFirstSampleIndex();
+                pendingTimestamp = timestamp;
+            }
+            if (pendingCount > 0 && !cancelled) {
+                pace(wallStart, pendingTimestamp - firstTimestamp);
+                pipeline.feed(pending, pendingCount, pendingIndex, pendingTimestamp,
+                        period > 0 ? period : DEFAULT_SAMPLE_PERIOD_MS);
+            }
+            long recorded = firstTimestamp < 0 ? 0 : pendingTimestamp - firstTimestamp;
+            return pipeline.summarize(recorded, System.nanoTime() - wallStart, cancelled);
+        } finally {
+            reader.close();
+        }
+    }
+
+    // Waits until a record `offset` ms into the recording is due
+    private void pace(long wallStart, long offset) throws InterruptedException {
+        if (speed == SPEED_UNLIMITED) return;
+        long due = wallStart + (long) (offset * 1000000L / speed);
+        long wait = due - System.nanoTime();
+        if (wait > 0) Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+    }
+
+    // Times the samples and hands them to the biosignal-core pipeline
+    private class Pipeline implements EmotionPipeline.Listener {
+        private EmotionPipeline pipeline = null;
+
+        void start(long timestamp) {
+            pipeline = new EmotionPipeline(timestamp);
+            pipeline.setListener(this);
+        }
+
+        void feed(int[] samples, int count, long firstIndex, long timestamp, double period) {
+            for (int i = 0; i < count; i++) {
+                long time = timestamp + (long) (i * period);
+                int ppg = samples[i];
+                if (listener != null) listener.onSample(firstIndex + i, time, ppg);
+                pipeline.addSample(ppg, time);
+            }
+        }
+
+        @Override
+        public void onBeat(long timestamp, double bpm, double ppi) {
+            if (listener != null) listener.onBeat(timestamp, bpm, ppi);
+        }
+
+        @Override
+        public void onMeasurement(int phase, EmotionCalculator.Result result) {
+            if (listener != null) listener.onMeasurement(phase, result);
+        }
+
+        @Override
+        public void onState(int state) {
+            if (listener != null) listener.onState(state);
+        }
+
+        Summary summarize(long recordedMillis, long elapsedNanos, boolean cancelled) {
+            if (pipeline == null) {
+                return new Summary(0, 0, recordedMillis, elapsedNanos, null, null, 0, cancelled);
+            }
+            return new Summary(pipeline.getSampleCount(), pipeline.getBeatCount(), recordedMillis, elapsedNanos,
+                    pipeline.getBaseline(), pipeline.getEmotion(), pipeline.getState(), cancelled);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.esrc.biosignal.recordutils;
+
+import com.esrc.biosignal.signalutils.EmotionCalculator;
+
+/**
+ * Outcome of one guest's measurement, as kept by {@link ResultStore}. A result is saved again
+ * whenever it changes; the start time identifies it.
+ */
+public class SessionResult {
+    private final long startedAt;
+    private String sessionFile = null;
+
+    private double baselineBpm = 0;
+    private double baselineLf = 0;
+    private double baselineHf = 0;
+    private double stimulusBpm = 0;
+    private double stimulusLf = 0;
+    private double stimulusHf = 0;
+    // One of the EmotionCalculator states, 0 until decided
+    private int emotion = 0;
+    private long decidedAt = 0;
+
+    private String menuItem = null;
+    private long orderedAt = 0;
+
+    public SessionResult(long startedAt) {
+        this.startedAt = startedAt;
+    }
+
+    SessionResult(long startedAt, String sessionFile, double baselineBpm, double baselineLf, double baselineHf,
+                  double stimulusBpm, double stimulusLf, double stimulusHf, int emotion, long decidedAt,
+                  String menuItem, long orderedAt) {
+        this.startedAt = startedAt;
+        this.sessionFile = sessionFile;
+        this.baselineBpm = baselineBpm;
+        this.baselineLf = baselineLf;
+        this.baselineHf = baselineHf;
+        this.stimulusBpm = stimulusBpm;
+        this.stimulusLf = stimulusLf;
+        this.stimulusHf = stimulusHf;
+        this.emotion = emotion;
+        this.decidedAt = decidedAt;
+        this.menuItem = menuItem;
+        this.orderedAt = orderedAt;
+    }
+
+    /**
+     * @return a copy, so a queued save is not changed by later updates
+     */
+    SessionResult copy() {
+        return new SessionResult(startedAt, sessionFile, baselineBpm, baselineLf, baselineHf,
+                stimulusBpm, stimulusLf, stimulusHf, emotion, decidedAt, menuItem, orderedAt);
+    }
+
+    public void setSessionFile(String sessionFile) {
+        this.sessionFile = sessionFile;
+    }
+
+    public void setBaseline(double bpm, double lf, double hf) {
+        baselineBpm = bpm;
+        baselineLf = lf;
+        baselineHf = hf;
+    }
+
+    public void setBaseline(EmotionCalculator.Result result) {
+        setBaseline(result.bpmAverage, result.lf, result.hf);
+    }
+
+    public void setStimulus(double bpm, double lf, double hf) {
+        stimulusBpm = bpm;
+        stimulusLf = lf;
+        stimulusHf = hf;
+    }
+
+    public void setStimulus(EmotionCalculator.Result result) {
+        setStimulus(result.bpmAverage, result.lf, result.hf);
+    }
+
+    public void setEmotion(int emotion, long decidedAt) {
+        this.emotion = emotion;
+        this.decidedAt = decidedAt;
+    }
+
+    public void setOrder(String menuItem, long orderedAt) {
+        this.menuItem = menuItem;
+        this.orderedAt = orderedAt;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public String getSessionFile() {
+        return sessionFile;
+    }
+
+    public double getBaselineBpm() {
+        return baselineBpm;
+    }
+
+    public double getBaselineLf() {
+        return baselineLf;
+    }
+
+    public double getBaselineHf() {
+        return baselineHf;
+    }
+
+    public double getStimulusBpm() {
+        return stimulusBpm;
+    }
+
+    public double getStimulusLf() {
+        return stimulusLf;
+    }
+
+    public double getStimulusHf() {
+        return stimulusHf;
+    }
+
+    public int getEmotion() {
+        return emotion;
+    }
+
+    public long getDecidedAt() {
+        return decidedAt;
+    }
+
+    public boolean isDecided() {
+        return emotion != 0;
+    }
+
+    public String getMenuItem() {
+        return menuItem;
+    }
+
+    public long getOrderedAt() {
+        return orderedAt;
+    }
+
+    public boolean isOrdered() {
+        return menuItem != null;
+    }
+}
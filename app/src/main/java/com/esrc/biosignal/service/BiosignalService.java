@@ -2,34 +2,28 @@ package com.esrc.biosignal.service;
 
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
-import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
+import android.os.Process;
 import android.util.Log;
 
 import com.esrc.biosignal.libs.BiosignalManager;
-import com.esrc.biosignal.libs.Signal;
-import com.esrc.biosignal.libs.State;
+import com.esrc.biosignal.libs.LinkProfile;
 
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by lhw48 on 2016-06-22.
@@ -37,27 +31,25 @@ import java.util.UUID;
 public class BiosignalService extends Service {
     private final static String TAG = "BiosignalService";
 
-    private Map<Integer, Callback> signalCallback = new HashMap<Integer, Callback>();
-    private Map<Integer, Callback> stateCallback = new HashMap<Integer, Callback>();
+    // One independent connection per uniqueId
+    private final Map<Integer, DeviceConnection> connections = new ConcurrentHashMap<Integer, DeviceConnection>();
+    // Link profiles requested per uniqueId, also before the connection exists
+    private final Map<Integer, LinkProfile> linkProfiles = new ConcurrentHashMap<Integer, LinkProfile>();
 
     private BluetoothManager mBluetoothManager;
     private BluetoothAdapter mBluetoothAdapter;
-    private String mBluetoothDeviceAddress;
-    private BluetoothGatt mBluetoothGatt;
-    private int mConnectionState = BiosignalManager.STATE_DISCONNECTED;
     private int bindCount = 0;
 
-    private SharedPreferences pref;
+    private ConnectionStateStore stateStore;
+    // Reconnect attempts of all connections run here, off the GATT callback thread
+    private HandlerThread reconnectThread;
 
     // Incoming handler message
     public static final int MSG_CONNECT_DEVICE = 10;
     public static final int MSG_DISCONNECT_DEVICE = 11;
     public static final int MSG_SIGNALING_START = 12;
     public static final int MSG_SIGNALING_STOP = 13;
-
-    // Biosignal protocol
-    private static final byte[] INT_STX = new String("r").getBytes();
-    private static final byte[] INT_ETX = new String("q").getBytes();
+    public static final int MSG_SET_LINK_PROFILE = 14;
 
     public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
     public static final UUID RX_SERVICE_UUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
@@ -77,35 +69,40 @@ public class BiosignalService extends Service {
             StartRMData startRMData = (StartRMData) msg.obj;
 
             if(service != null) {
+                Integer uniqueId = startRMData.getUniqueId();
+                int connectionState = service.getConnectionState(uniqueId);
                 switch(msg.what) {
                     case MSG_CONNECT_DEVICE:
-                        Log.d(TAG, "MSG_CONNECT_DEVICE");
-                        if(mConnectionState == BiosignalManager.STATE_DISCONNECTED) {
-                            String address = startRMData.getAddress();
-                            service.connect(startRMData.getUniqueId(), address, new com.esrc.biosignal.service.Callback(msg.replyTo));
+                        Log.d(TAG, "MSG_CONNECT_DEVICE " + uniqueId);
+                        String address = startRMData.getAddress();
+                        // A different address replaces the device of a live connection
+                        if(connectionState == BiosignalManager.STATE_DISCONNECTED
+                                || (address != null && !address.equals(service.getAddress(uniqueId)))) {
+                            service.connect(uniqueId, address, new com.esrc.biosignal.service.Callback(msg.replyTo));
                         } else {
-                            Log.d(TAG, "mConnectionState is " + mConnectionState);
+                            Log.d(TAG, "mConnectionState of " + uniqueId + " is " + connectionState);
                         }
                         break;
                     case MSG_DISCONNECT_DEVICE:
-                        Log.d(TAG, "MSG_DISCONNECT_DEVICE");
-                        if(mConnectionState == BiosignalManager.STATE_CONNECTED) {
-                            service.disconnect(startRMData.getUniqueId());
+                        Log.d(TAG, "MSG_DISCONNECT_DEVICE " + uniqueId);
+                        if(connectionState != BiosignalManager.STATE_DISCONNECTED) {
+                            service.disconnect(uniqueId);
                         } else {
-                            Log.d(TAG, "mConnectionState is " + mConnectionState);
+                            Log.d(TAG, "mConnectionState of " + uniqueId + " is " + connectionState);
                         }
                         break;
                     case MSG_SIGNALING_START:
-                        Log.d(TAG, "MSG_SIGNALING_START");
-                        if(mConnectionState == BiosignalManager.STATE_CONNECTED) {
-                            service.startSignaling(startRMData.getUniqueId(), new com.esrc.biosignal.service.Callback(msg.replyTo));
-                        }
+                        Log.d(TAG, "MSG_SIGNALING_START " + uniqueId);
+                        // Accepted while still connecting, the connection starts streaming once READY
+                        service.startSignaling(uniqueId, new com.esrc.biosignal.service.Callback(msg.replyTo));
                         break;
                     case MSG_SIGNALING_STOP:
-                        Log.d(TAG, "MSG_SIGNALING_STOP");
-                        if(mConnectionState == BiosignalManager.STATE_CONNECTED) {
-                            service.stopSignaling(startRMData.getUniqueId());
-                        }
+                        Log.d(TAG, "MSG_SIGNALING_STOP " + uniqueId);
+                        service.stopSignaling(uniqueId);
+                        break;
+                    case MSG_SET_LINK_PROFILE:
+                        Log.d(TAG, "MSG_SET_LINK_PROFILE " + uniqueId + " " + startRMData.getLinkProfile());
+                        service.setLinkProfile(uniqueId, startRMData.getLinkProfile());
                         break;
                     default:
                         super.handleMessage(msg);
@@ -142,99 +139,19 @@ public class BiosignalService extends Service {
         super.onCreate();
         Log.i(TAG, "onCreate of BiosignalService called");
         initialize();
-        pref = getSharedPreferences("android-biosignal-service", MODE_PRIVATE);
+        stateStore = ConnectionStateStore.getInstance(this);
+        reconnectThread = new HandlerThread("BiosignalReconnect", Process.THREAD_PRIORITY_BACKGROUND);
+        reconnectThread.start();
     }
 
     @Override
     public void onDestroy() {
         Log.i(TAG, "onDestroy of BiosignalService called");
+        close();
+        reconnectThread.quitSafely();
         super.onDestroy();
     }
 
-    // Implements callback methods for GATT events that the app cares about.  For example,
-    // connection change and services discovered.
-    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-
-            if (newState == BluetoothProfile.STATE_CONNECTED) {
-                mConnectionState = BiosignalManager.STATE_CONNECTED;
-                pref.edit().putInt("connection_state", BiosignalManager.STATE_CONNECTED).commit();
-                Log.i(TAG, "Connected to GATT server.");
-
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" +
-                        mBluetoothGatt.discoverServices());
-
-                // state callback
-                State state = State.fromReceivedData(mConnectionState);
-                Iterator<Integer> stateCallbackIterator = stateCallback.keySet().iterator();
-                while(stateCallbackIterator.hasNext()) {
-                    stateCallback.get(stateCallbackIterator.next()).call(new StateData(state));
-                }
-            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
-                if(mConnectionState != BiosignalManager.STATE_DISCONNECTED) {
-                    mConnectionState = BiosignalManager.STATE_DISCONNECTED;
-                    pref.edit().putInt("connection_state", BiosignalManager.STATE_DISCONNECTED).commit();
-                    Log.i(TAG, "Disconnected from GATT server.");
-
-                    // state callback
-                    State state = State.fromReceivedData(mConnectionState);
-                    Iterator<Integer> stateCallbackIterator = stateCallback.keySet().iterator();
-                    while(stateCallbackIterator.hasNext()) {
-                        stateCallback.get(stateCallbackIterator.next()).call(new StateData(state));
-                    }
-
-                    if(pref.getBoolean("connecting", false)) {
-                        Log.d(TAG, "reconnecting");
-                        mBluetoothGatt.connect();
-                    }
-
-                }
-                /*if(pref.getBoolean("connecting", false)) {
-                    autoReconnect();
-                }*/
-            }
-        }
-
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                Log.w(TAG, "mBluetoothGatt = " + mBluetoothGatt);
-                enableTXNotification();
-            } else {
-                Log.w(TAG, "onServicesDiscovered received: " + status);
-            }
-        }
-
-        @Override
-        public void onCharacteristicRead(BluetoothGatt gatt,
-                                         BluetoothGattCharacteristic characteristic,
-                                         int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                if(characteristic.getValue().length == 2) {
-                    Signal signal = Signal.fromReceivedData(characteristic);
-                    Iterator<Integer> signalCallbackIterator = signalCallback.keySet().iterator();
-                    while(signalCallbackIterator.hasNext()) {
-                        signalCallback.get(signalCallbackIterator.next()).call(new SignalData(signal));
-                    }
-                }
-            }
-        }
-
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt,
-                                            BluetoothGattCharacteristic characteristic) {
-            if(characteristic.getValue().length == 2) {
-                Signal signal = Signal.fromReceivedData(characteristic);
-                Iterator<Integer> signalCallbackIterator = signalCallback.keySet().iterator();
-                while(signalCallbackIterator.hasNext()) {
-                    signalCallback.get(signalCallbackIterator.next()).call(new SignalData(signal));
-                }
-            }
-        }
-    };
-
     public class LocalBinder extends Binder {
         BiosignalService getService() {
             return BiosignalService.this;
@@ -267,9 +184,28 @@ public class BiosignalService extends Service {
         return true;
     }
 
+    /**
+     * @return the connection state of the given device, answered from memory
+     */
+    public int getConnectionState(Integer uniqueId) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) return BiosignalManager.STATE_DISCONNECTED;
+        return connection.getConnectionState();
+    }
+
+    /**
+     * @return the address of the device on the given slot, or null
+     */
+    public String getAddress(Integer uniqueId) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) return null;
+        return connection.getAddress();
+    }
+
     /**
      * Connects to the GATT server hosted on the Bluetooth LE device.
      *
+     * @param uniqueId The slot of the connection. Each slot has its own GATT client.
      * @param address The device address of the destination device.
      *
      * @return Return true if the connection is initiated successfully. The connection result
@@ -278,44 +214,20 @@ public class BiosignalService extends Service {
      *         callback.
      */
     public boolean connect(Integer uniqueId, String address, Callback callback) {
-        pref.edit().putBoolean("connecting", true).commit();
-
         if (mBluetoothAdapter == null || address == null) {
             Log.w(TAG, "BluetoothAdapter not initialized or unspecified address.");
             return false;
         }
 
-        if(stateCallback.containsKey(uniqueId)) {
-            Log.d(TAG, "Already stating -- will replace existing callback");
-            stateCallback.remove(uniqueId);
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) {
+            connection = new DeviceConnection(this, uniqueId, stateStore, reconnectThread.getLooper());
+            LinkProfile profile = linkProfiles.get(uniqueId);
+            if (profile != null) connection.setLinkProfile(profile);
+            connections.put(uniqueId, connection);
         }
-        stateCallback.put(uniqueId, callback);
-
-        // Previously connected device.  Try to reconnect.
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
-            Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if(mBluetoothGatt.connect()) {
-                return true;
-            }
-            else {
-                return false;
-            }
-        }
-
-        final BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(address);
-        if (device == null) {
-            Log.w(TAG, "Device not found.  Unable to connect.");
-            return false;
-        }
-
-        // We want to directly connect to the device, so we are setting the autoConnect
-        // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
-        Log.d(TAG, "Trying to create a new connection.");
-        pref.edit().putString("address", address).commit();
-        mBluetoothDeviceAddress = address;
-        return true;
+        connection.setStateCallback(callback);
+        return connection.connect(mBluetoothAdapter, address);
     }
 
     /**
@@ -325,12 +237,12 @@ public class BiosignalService extends Service {
      * callback.
      */
     public void disconnect(Integer uniqueId) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (mBluetoothAdapter == null || connection == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.disconnect();
-        pref.edit().putBoolean("connecting", false).commit();
+        connection.disconnect();
     }
 
     /**
@@ -338,13 +250,10 @@ public class BiosignalService extends Service {
      * released properly.
      */
     public void close() {
-        if (mBluetoothGatt == null) {
-            return;
+        for (DeviceConnection connection : connections.values()) {
+            connection.close();
         }
-        Log.w(TAG, "mBluetoothGatt closed");
-        mBluetoothDeviceAddress = null;
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+        connections.clear();
     }
 
     /**
@@ -354,95 +263,50 @@ public class BiosignalService extends Service {
      *
      * @param characteristic The characteristic to read from.
      */
-    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+    public void readCharacteristic(Integer uniqueId, BluetoothGattCharacteristic characteristic) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (mBluetoothAdapter == null || connection == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        connection.readCharacteristic(characteristic);
     }
 
     /**
-     * Enable Notification on TX characteristic
+     * Retrieves a list of supported GATT services on the connected device. This should be
+     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
      *
-     * @return
+     * @return A {@code List} of supported services.
      */
-    public void enableTXNotification()
-    {
-    	/*
-    	if (mBluetoothGatt == null) {
-    		showMessage("mBluetoothGatt null" + mBluetoothGatt);
-    		broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART);
-    		return;
-    	}
-    		*/
-        BluetoothGattService RxService = mBluetoothGatt.getService(RX_SERVICE_UUID);
-        if (RxService == null) {
-            showMessage("Rx service not found!");
-            return;
-        }
-        BluetoothGattCharacteristic TxChar = RxService.getCharacteristic(TX_CHAR_UUID);
-        if (TxChar == null) {
-            showMessage("Tx characteristic not found!");
-            return;
-        }
-        mBluetoothGatt.setCharacteristicNotification(TxChar,true);
-
-        BluetoothGattDescriptor descriptor = TxChar.getDescriptor(CCCD);
-        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        mBluetoothGatt.writeDescriptor(descriptor);
+    public List<BluetoothGattService> getSupportedGattServices(Integer uniqueId) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) return null;
 
+        return connection.getSupportedGattServices();
     }
 
-    public void writeRXCharacteristic(byte[] value)
-    {
-        BluetoothGattService RxService = mBluetoothGatt.getService(RX_SERVICE_UUID);
-        showMessage("mBluetoothGatt null" + mBluetoothGatt);
-        if (RxService == null) {
-            showMessage("Rx service not found!");
-            return;
-        }
-        BluetoothGattCharacteristic RxChar = RxService.getCharacteristic(RX_CHAR_UUID);
-        if (RxChar == null) {
-            showMessage("Rx characteristic not found!");
+    public void startSignaling(Integer uniqueId, Callback callback) {
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) {
+            Log.w(TAG, "No connection for " + uniqueId);
             return;
         }
-        RxChar.setValue(value);
-        boolean status = mBluetoothGatt.writeCharacteristic(RxChar);
-
-        Log.d(TAG, "write TXchar - status=" + status);
+        connection.startSignaling(callback);
     }
 
-    private void showMessage(String msg) {
-        Log.e(TAG, msg);
-    }
     /**
-     * Retrieves a list of supported GATT services on the connected device. This should be
-     * invoked only after {@code BluetoothGatt#discoverServices()} completes successfully.
-     *
-     * @return A {@code List} of supported services.
+     * Sets the link profile of a device. It is kept for later connects of the same uniqueId.
      */
-    public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
-
-        return mBluetoothGatt.getServices();
-    }
-
-    public void startSignaling(Integer uniqueId, Callback callback) {
-        if(signalCallback.containsKey(uniqueId)) {
-            Log.d(TAG, "Already signaling -- will replace existing callback");
-            signalCallback.remove(uniqueId);
-        }
-        signalCallback.put(uniqueId, callback);
-        if(mConnectionState == BiosignalManager.STATE_CONNECTED) {
-            writeRXCharacteristic(INT_STX);
-        }
+    public void setLinkProfile(Integer uniqueId, LinkProfile profile) {
+        if (profile == null) return;
+        linkProfiles.put(uniqueId, profile);
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection != null) connection.setLinkProfile(profile);
     }
 
     public void stopSignaling(Integer uniqueId) {
-        signalCallback.remove(uniqueId);
-        if(mConnectionState == BiosignalManager.STATE_CONNECTED) {
-            writeRXCharacteristic(INT_ETX);
-        }
+        DeviceConnection connection = connections.get(uniqueId);
+        if (connection == null) return;
+        connection.stopSignaling();
     }
-}
\ No newline at end of file
+}
@@ -50,10 +50,22 @@ public class Callback {
 	 * @return false if it callback cannot be made
 	 */
 	public boolean call(Parcelable data) {
+		return call(0, data);
+	}
+
+	/**
+	 * Same as {@link #call(Parcelable)}, tagging the message with the device it came from
+	 *
+	 * @param uniqueId device id, delivered in {@code Message.arg1}
+	 * @param data
+	 * @return false if it callback cannot be made
+	 */
+	public boolean call(int uniqueId, Parcelable data) {
 		if (messenger != null) {
 			try {
 //				Log.d(TAG, "attempting callback via messenger");
 			    Message msg = Message.obtain();
+			    msg.arg1 = uniqueId;
 			    msg.obj = data;
 			    messenger.send(msg);
 			    return true;
@@ -0,0 +1,169 @@
+package com.esrc.biosignal.service;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+import com.esrc.biosignal.libs.BiosignalManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-memory connection state shared by {@link BiosignalService} and {@link BiosignalManager}.
+ *
+ * The GATT callback threads only update the fields below. Persisting to SharedPreferences is
+ * done on a background thread, and bursts of updates are coalesced into a single commit.
+ * State is kept per uniqueId; uniqueId 0 uses the original preference keys. The most recently
+ * connected address, whatever its uniqueId, has a key of its own. Connection state and the
+ * connecting flag are written for other readers of the preferences but never read back: every
+ * process starts DISCONNECTED.
+ */
+public class ConnectionStateStore {
+    private static final String TAG = "ConnectionStateStore";
+
+    public static final String PREF_NAME = "android-biosignal-service";
+    public static final String KEY_CONNECTION_STATE = "connection_state";
+    public static final String KEY_ADDRESS = "address";
+    public static final String KEY_CONNECTING = "connecting";
+    public static final String KEY_LAST_ADDRESS = "last_address";
+    public static final String DEFAULT_ADDRESS = "00:00:00:00";
+
+    // Updates arriving within this window are written together
+    private static final long PERSIST_DELAY_MS = 200;
+
+    private static ConnectionStateStore instance = null;
+
+    private final SharedPreferences pref;
+    private final Handler persistHandler;
+    private final AtomicBoolean persistPending = new AtomicBoolean(false);
+
+    private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+    private volatile String lastAddress;
+
+    private static class Entry {
+        volatile int connectionState;
+        volatile String address;
+        volatile boolean connecting;
+    }
+
+    public static synchronized ConnectionStateStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new ConnectionStateStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private ConnectionStateStore(Context context) {
+        pref = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+
+        // One read at startup, every later read is answered from memory. Before it had its own
+        // key the last address was kept under uniqueId 0's address.
+        lastAddress = pref.getString(KEY_LAST_ADDRESS, pref.getString(KEY_ADDRESS, DEFAULT_ADDRESS));
+
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        persistHandler = new Handler(thread.getLooper());
+    }
+
+    private static String key(String base, int uniqueId) {
+        return uniqueId == 0 ? base : base + "_" + uniqueId;
+    }
+
+    private Entry entry(int uniqueId) {
+        Entry entry = entries.get(uniqueId);
+        if (entry == null) {
+            Entry loaded = new Entry();
+            // A new process has no link, whatever the previous one left behind, so only the
+            // address is read back. Devices are registered on the command thread, so this read
+            // is off the hot path.
+            loaded.connectionState = BiosignalManager.STATE_DISCONNECTED;
+            loaded.address = pref.getString(key(KEY_ADDRESS, uniqueId), DEFAULT_ADDRESS);
+            loaded.connecting = false;
+            entry = entries.putIfAbsent(uniqueId, loaded);
+            if (entry == null) entry = loaded;
+        }
+        return entry;
+    }
+
+    public int getConnectionState(int uniqueId) {
+        return entry(uniqueId).connectionState;
+    }
+
+    public String getAddress(int uniqueId) {
+        return entry(uniqueId).address;
+    }
+
+    /**
+     * @return the address of the most recently connected device, whatever its uniqueId
+     */
+    public String getLastAddress() {
+        return lastAddress;
+    }
+
+    public boolean isConnecting(int uniqueId) {
+        return entry(uniqueId).connecting;
+    }
+
+    public void setConnectionState(int uniqueId, int state) {
+        Entry entry = entry(uniqueId);
+        if (entry.connectionState == state) return;
+        entry.connectionState = state;
+        schedulePersist();
+    }
+
+    public void setAddress(int uniqueId, String address) {
+        if (address == null) return;
+        Entry entry = entry(uniqueId);
+        if (address.equals(entry.address) && address.equals(lastAddress)) return;
+        entry.address = address;
+        lastAddress = address;
+        schedulePersist();
+    }
+
+    public void setConnecting(int uniqueId, boolean connecting) {
+        Entry entry = entry(uniqueId);
+        if (entry.connecting == connecting) return;
+        entry.connecting = connecting;
+        schedulePersist();
+    }
+
+    /**
+     * Writes pending updates now instead of after the coalescing delay, e.g. when the service
+     * is torn down and the process may go away.
+     */
+    public void flush() {
+        // Blocks schedulePersist() until the write below has started
+        persistPending.set(true);
+        persistHandler.removeCallbacks(persistRunnable);
+        persistHandler.post(persistRunnable);
+    }
+
+    private void schedulePersist() {
+        if (persistPending.compareAndSet(false, true)) {
+            persistHandler.postDelayed(persistRunnable, PERSIST_DELAY_MS);
+        }
+    }
+
+    private final Runnable persistRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Clear the flag first so an update racing with this write schedules another one
+            persistPending.set(false);
+            SharedPreferences.Editor editor = pref.edit();
+            for (Map.Entry<Integer, Entry> e : entries.entrySet()) {
+                int uniqueId = e.getKey();
+                Entry entry = e.getValue();
+                editor.putInt(key(KEY_CONNECTION_STATE, uniqueId), entry.connectionState);
+                editor.putString(key(KEY_ADDRESS, uniqueId), entry.address);
+                editor.putBoolean(key(KEY_CONNECTING, uniqueId), entry.connecting);
+            }
+            // Kept apart from the per-device keys, KEY_ADDRESS belongs to uniqueId 0
+            editor.putString(KEY_LAST_ADDRESS, lastAddress);
+            editor.commit();
+        }
+    };
+}
@@ -0,0 +1,542 @@
+package com.esrc.biosignal.service;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.util.Log;
+
+import com.esrc.biosignal.libs.BiosignalManager;
+import com.esrc.biosignal.libs.LinkParameters;
+import com.esrc.biosignal.libs.LinkProfile;
+import com.esrc.biosignal.libs.Signal;
+import com.esrc.biosignal.libs.State;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import static com.esrc.biosignal.service.BiosignalService.RX_CHAR_UUID;
+import static com.esrc.biosignal.service.BiosignalService.RX_SERVICE_UUID;
+import static com.esrc.biosignal.service.BiosignalService.TX_CHAR_UUID;
+
+/**
+ * One sensor connection owned by {@link BiosignalService}, identified by its uniqueId.
+ *
+ * Every connection has its own BluetoothGatt client, GATT callback, connection state and
+ * signal callback. A notification from one sensor only touches the fields of its own
+ * connection, so several streams run side by side without sharing a lock.
+ *
+ * GATT operations go through the connection's {@link GattCommandQueue}, which starts each one
+ * only after the previous one called back. A dropped link is re-established by a
+ * {@link ReconnectScheduler}; while the device is unchanged the RX and TX characteristics
+ * resolved by the last discovery are reused, so a reconnect goes straight to enabling
+ * notifications.
+ */
+class DeviceConnection {
+    private final static String TAG = "DeviceConnection";
+
+    private final Context context;
+    private final int uniqueId;
+    private final ConnectionStateStore stateStore;
+    private final GattCommandQueue commandQueue;
+    private final ReconnectScheduler reconnectScheduler;
+
+    private String mBluetoothDeviceAddress;
+    private volatile BluetoothGatt mBluetoothGatt;
+    private volatile int mConnectionState = BiosignalManager.STATE_DISCONNECTED;
+
+    private volatile Callback stateCallback;
+    private volatile Callback signalCallback;
+    // Set by startSignaling, kept across reconnects so streaming resumes once READY again
+    private volatile boolean signalingRequested = false;
+    // Whether the start command went out on the current link, reset when the link drops
+    private final AtomicBoolean stxSent = new AtomicBoolean(false);
+
+    // Resolved by the last discovery, valid as long as the device does not change
+    private volatile BluetoothGattCharacteristic rxCharacteristic;
+    private volatile BluetoothGattCharacteristic txCharacteristic;
+
+    // Link profile applied after every connect, and what the device agreed to
+    private volatile LinkProfile linkProfile = LinkProfile.BALANCED;
+    private volatile int mtu = LinkParameters.DEFAULT_MTU;
+    private volatile int txPhy = LinkParameters.DEFAULT_PHY;
+    private volatile int rxPhy = LinkParameters.DEFAULT_PHY;
+
+    // Biosignal protocol
+    private static final byte[] INT_STX = new String("r").getBytes();
+    private static final byte[] INT_ETX = new String("q").getBytes();
+
+    DeviceConnection(Context context, int uniqueId, ConnectionStateStore stateStore, Looper reconnectLooper) {
+        this.context = context;
+        this.uniqueId = uniqueId;
+        this.stateStore = stateStore;
+        this.commandQueue = new GattCommandQueue(uniqueId);
+        this.reconnectScheduler = new ReconnectScheduler(reconnectLooper, reconnectRunnable);
+    }
+
+    int getUniqueId() {
+        return uniqueId;
+    }
+
+    int getConnectionState() {
+        return mConnectionState;
+    }
+
+    String getAddress() {
+        return mBluetoothDeviceAddress;
+    }
+
+    void setStateCallback(Callback callback) {
+        if(stateCallback != null) {
+            Log.d(TAG, "[" + uniqueId + "] Already stating -- will replace existing callback");
+        }
+        stateCallback = callback;
+    }
+
+    void setSignalCallback(Callback callback) {
+        if(signalCallback != null && callback != null) {
+            Log.d(TAG, "[" + uniqueId + "] Already signaling -- will replace existing callback");
+        }
+        signalCallback = callback;
+    }
+
+    /**
+     * Updates the in-memory connection state. Persisting is left to {@link ConnectionStateStore},
+     * which writes in the background so GATT callbacks never wait on disk I/O.
+     */
+    private void setConnectionState(int state) {
+        mConnectionState = state;
+        if (state == BiosignalManager.STATE_DISCONNECTED) stxSent.set(false);
+        stateStore.setConnectionState(uniqueId, state);
+    }
+
+    private void notifyState() {
+        Callback callback = stateCallback;
+        if(callback != null) {
+            callback.call(uniqueId, new StateData(State.fromReceivedData(mConnectionState)));
+        }
+    }
+
+    private void notifyLinkParameters() {
+        Callback callback = stateCallback;
+        if(callback != null) {
+            callback.call(uniqueId, new LinkParametersData(new LinkParameters(linkProfile, mtu, txPhy, rxPhy)));
+        }
+    }
+
+    private void notifySignal(BluetoothGattCharacteristic characteristic) {
+        Callback callback = signalCallback;
+        if(callback != null && characteristic.getValue().length == 2) {
+            callback.call(uniqueId, new SignalData(Signal.fromReceivedData(characteristic)));
+        }
+    }
+
+    // GATT events of this connection only
+    private final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+
+            if (newState == BluetoothProfile.STATE_CONNECTED) {
+                setConnectionState(BiosignalManager.STATE_CONNECTED);
+                Log.i(TAG, "[" + uniqueId + "] Connected to GATT server.");
+                reconnectScheduler.reset();
+                notifyState();
+
+                // Queued first, so discovery already runs on the faster interval
+                applyLinkProfile();
+                openStream();
+            } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                if(mConnectionState != BiosignalManager.STATE_DISCONNECTED) {
+                    setConnectionState(BiosignalManager.STATE_DISCONNECTED);
+                    Log.i(TAG, "[" + uniqueId + "] Disconnected from GATT server.");
+                    commandQueue.abort("disconnected");
+                    mtu = LinkParameters.DEFAULT_MTU;
+                    txPhy = LinkParameters.DEFAULT_PHY;
+                    rxPhy = LinkParameters.DEFAULT_PHY;
+
+                    notifyState();
+                }
+
+                // Also reached when a reconnect attempt itself failed
+                if(stateStore.isConnecting(uniqueId)) {
+                    reconnectScheduler.schedule();
+                }
+            }
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                DeviceConnection.this.mtu = mtu;
+            }
+            commandQueue.onCommandComplete(GattCommandQueue.TYPE_REQUEST_MTU, null, status);
+        }
+
+        @Override
+        public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) return;
+            DeviceConnection.this.txPhy = txPhy;
+            DeviceConnection.this.rxPhy = rxPhy;
+            notifyLinkParameters();
+        }
+
+        @Override
+        public void onServiceChanged(BluetoothGatt gatt) {
+            // The device announced new handles, the cached ones are stale
+            clearCachedCharacteristics();
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w(TAG, "[" + uniqueId + "] onServicesDiscovered received: " + status);
+            }
+            commandQueue.onCommandComplete(GattCommandQueue.TYPE_DISCOVER_SERVICES, null, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            commandQueue.onCommandComplete(GattCommandQueue.TYPE_WRITE_DESCRIPTOR,
+                    descriptor.getCharacteristic().getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            commandQueue.onCommandComplete(GattCommandQueue.TYPE_WRITE_CHARACTERISTIC,
+                    characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicRead(BluetoothGatt gatt,
+                                         BluetoothGattCharacteristic characteristic,
+                                         int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                notifySignal(characteristic);
+            }
+            commandQueue.onCommandComplete(GattCommandQueue.TYPE_READ_CHARACTERISTIC,
+                    characteristic.getUuid(), status);
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt,
+                                            BluetoothGattCharacteristic characteristic) {
+            notifySignal(characteristic);
+        }
+    };
+
+    /**
+     * Attempts a reconnect on the scheduler thread, unless the link came back or the app
+     * disconnected in the meantime.
+     */
+    private final Runnable reconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!stateStore.isConnecting(uniqueId)
+                    || mConnectionState != BiosignalManager.STATE_DISCONNECTED) {
+                return;
+            }
+            Log.d(TAG, "[" + uniqueId + "] reconnecting");
+            if (!reconnectDirect()) {
+                reconnectScheduler.schedule();
+            }
+        }
+    };
+
+    /**
+     * Replaces the client with a new direct connection to the same device. BluetoothGatt.connect()
+     * on the old client would reconnect in the background (autoConnect) mode, which the stack
+     * runs at a slow scan duty cycle and which can take many seconds; a direct connect either
+     * succeeds within a few hundred milliseconds or fails and lets the backoff try again.
+     *
+     * @return false if there was no client to replace or the new one could not be created
+     */
+    private synchronized boolean reconnectDirect() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        if (gatt == null) return false;
+        BluetoothDevice device = gatt.getDevice();
+        commandQueue.abort("reconnecting");
+        gatt.close();
+        mBluetoothGatt = device.connectGatt(context, false, mGattCallback);
+        commandQueue.setGatt(mBluetoothGatt);
+        return mBluetoothGatt != null;
+    }
+
+    /**
+     * Queues the connection priority, MTU and PHY of the current {@link LinkProfile}. The
+     * negotiated values are reported once the MTU exchange finished, a later PHY change is
+     * reported again from onPhyUpdate.
+     */
+    private void applyLinkProfile() {
+        LinkProfile profile = linkProfile;
+        commandQueue.requestConnectionPriority(profile.getConnectionPriority());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            commandQueue.setPreferredPhy(profile.getPhyMask());
+        }
+        if (profile.getMtu() != mtu) {
+            commandQueue.requestMtu(profile.getMtu()).whenComplete(new BiConsumer<Integer, Throwable>() {
+                @Override
+                public void accept(Integer status, Throwable error) {
+                    if (error != null) {
+                        Log.w(TAG, "[" + uniqueId + "] MTU request failed: " + error.getMessage());
+                    }
+                    notifyLinkParameters();
+                }
+            });
+        } else {
+            notifyLinkParameters();
+        }
+    }
+
+    /**
+     * Changes the link profile. A link that is up (CONNECTED or READY) is renegotiated right
+     * away; otherwise, including while a connect or reconnect is still pending, the profile is
+     * only stored and onConnectionStateChange applies it once the link comes up.
+     */
+    void setLinkProfile(LinkProfile profile) {
+        linkProfile = profile;
+        int state = mConnectionState;
+        if (state == BiosignalManager.STATE_CONNECTED || state == BiosignalManager.STATE_READY) {
+            applyLinkProfile();
+        }
+    }
+
+    LinkProfile getLinkProfile() {
+        return linkProfile;
+    }
+
+    /**
+     * Enables the TX notification after connecting. The same device as before reuses the
+     * characteristics cached by the last discovery and skips discovery altogether. Should the
+     * cached handles be rejected, discovery runs after all.
+     */
+    private void openStream() {
+        BluetoothGattCharacteristic cachedTx = txCharacteristic;
+        if (cachedTx == null) {
+            discoverAndEnableNotification();
+            return;
+        }
+
+        Log.d(TAG, "[" + uniqueId + "] reusing cached characteristics");
+        commandQueue.enableNotification(cachedTx).whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer status, Throwable error) {
+                if (error == null) {
+                    onStreamReady();
+                    return;
+                }
+                Log.w(TAG, "[" + uniqueId + "] cached characteristics rejected, rediscovering: " + error.getMessage());
+                clearCachedCharacteristics();
+                if (mConnectionState == BiosignalManager.STATE_CONNECTED) {
+                    discoverAndEnableNotification();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues service discovery and the TX notification in one go. The queue runs them back to
+     * back as each one calls back.
+     */
+    private void discoverAndEnableNotification() {
+        commandQueue.discoverServices().whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer status, Throwable error) {
+                if (error == null) cacheCharacteristics();
+            }
+        });
+        enableTXNotification().whenComplete(new BiConsumer<Integer, Throwable>() {
+            @Override
+            public void accept(Integer status, Throwable error) {
+                if (error != null) {
+                    Log.w(TAG, "[" + uniqueId + "] enabling TX notification failed: " + error.getMessage());
+                    return;
+                }
+                onStreamReady();
+            }
+        });
+    }
+
+    // Runs on the queue thread, so the start command is queued right behind the CCCD write
+    private void onStreamReady() {
+        // Notifications are really on now, not just requested
+        setConnectionState(BiosignalManager.STATE_READY);
+        Log.i(TAG, "[" + uniqueId + "] TX notification enabled, ready");
+        notifyState();
+
+        sendStartIfReady();
+    }
+
+    /**
+     * Sends the start command once per link when streaming was requested and the link is READY.
+     * Both startSignaling and onStreamReady call this after setting their half, so whichever
+     * comes second sends it, and never both.
+     */
+    private void sendStartIfReady() {
+        if (signalingRequested && mConnectionState == BiosignalManager.STATE_READY
+                && stxSent.compareAndSet(false, true)) {
+            writeRXCharacteristic(INT_STX);
+        }
+    }
+
+    private void cacheCharacteristics() {
+        BluetoothGatt gatt = mBluetoothGatt;
+        if (gatt == null) return;
+        try {
+            rxCharacteristic = GattCommandQueue.findCharacteristic(gatt, RX_SERVICE_UUID, RX_CHAR_UUID);
+            txCharacteristic = GattCommandQueue.findCharacteristic(gatt, RX_SERVICE_UUID, TX_CHAR_UUID);
+        } catch (GattCommandException e) {
+            Log.w(TAG, "[" + uniqueId + "] " + e.getMessage());
+            clearCachedCharacteristics();
+        }
+    }
+
+    private void clearCachedCharacteristics() {
+        rxCharacteristic = null;
+        txCharacteristic = null;
+    }
+
+    /**
+     * Connects to the GATT server hosted on the Bluetooth LE device.
+     *
+     * @param adapter The local Bluetooth adapter.
+     * @param address The device address of the destination device.
+     *
+     * @return Return true if the connection is initiated successfully.
+     */
+    synchronized boolean connect(BluetoothAdapter adapter, String address) {
+        // getRemoteDevice() throws on a malformed address
+        if (!BluetoothAdapter.checkBluetoothAddress(address)) {
+            Log.w(TAG, "[" + uniqueId + "] Invalid address " + address + ".  Unable to connect.");
+            return false;
+        }
+        stateStore.setConnecting(uniqueId, true);
+        reconnectScheduler.reset();
+
+        // Previously connected device.  Try to reconnect.
+        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
+                && mBluetoothGatt != null) {
+            Log.d(TAG, "[" + uniqueId + "] Trying to reconnect to the previous device.");
+            return reconnectDirect();
+        }
+
+        // A different device on the same slot replaces the previous client
+        if (mBluetoothGatt != null) {
+            commandQueue.abort("device replaced");
+            clearCachedCharacteristics();
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+            // close() reports nothing, so the old link is declared down here
+            if (mConnectionState != BiosignalManager.STATE_DISCONNECTED) {
+                setConnectionState(BiosignalManager.STATE_DISCONNECTED);
+                notifyState();
+            }
+        }
+
+        final BluetoothDevice device = adapter.getRemoteDevice(address);
+        if (device == null) {
+            Log.w(TAG, "[" + uniqueId + "] Device not found.  Unable to connect.");
+            return false;
+        }
+
+        // We want to directly connect to the device, so we are setting the autoConnect
+        // parameter to false.
+        mBluetoothGatt = device.connectGatt(context, false, mGattCallback);
+        commandQueue.setGatt(mBluetoothGatt);
+        Log.d(TAG, "[" + uniqueId + "] Trying to create a new connection.");
+        stateStore.setAddress(uniqueId, address);
+        mBluetoothDeviceAddress = address;
+        return true;
+    }
+
+    /**
+     * Disconnects an existing connection or cancel a pending connection.
+     */
+    void disconnect() {
+        stateStore.setConnecting(uniqueId, false);
+        reconnectScheduler.reset();
+        if (mBluetoothGatt == null) {
+            Log.w(TAG, "[" + uniqueId + "] BluetoothGatt not initialized");
+            return;
+        }
+        mBluetoothGatt.disconnect();
+    }
+
+    /**
+     * Releases the BluetoothGatt client of this connection. The connection is DISCONNECTED
+     * afterwards, also in the persisted state.
+     */
+    synchronized void close() {
+        signalCallback = null;
+        reconnectScheduler.reset();
+        clearCachedCharacteristics();
+        commandQueue.quit();
+        commandQueue.setGatt(null);
+        stateStore.setConnecting(uniqueId, false);
+        if (mBluetoothGatt != null) {
+            Log.w(TAG, "[" + uniqueId + "] mBluetoothGatt closed");
+            mBluetoothDeviceAddress = null;
+            mBluetoothGatt.close();
+            mBluetoothGatt = null;
+        }
+        // close() reports nothing, so the link is declared down here and written out right away
+        if (mConnectionState != BiosignalManager.STATE_DISCONNECTED) {
+            setConnectionState(BiosignalManager.STATE_DISCONNECTED);
+            notifyState();
+        }
+        stateStore.flush();
+    }
+
+    CompletableFuture<Integer> readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return commandQueue.read(characteristic);
+    }
+
+    /**
+     * Enable Notification on TX characteristic
+     */
+    CompletableFuture<Integer> enableTXNotification() {
+        return commandQueue.enableNotification(RX_SERVICE_UUID, TX_CHAR_UUID);
+    }
+
+    CompletableFuture<Integer> writeRXCharacteristic(byte[] value) {
+        BluetoothGattCharacteristic cachedRx = rxCharacteristic;
+        if (cachedRx != null) return commandQueue.write(cachedRx, value);
+        return commandQueue.write(RX_SERVICE_UUID, RX_CHAR_UUID, value);
+    }
+
+    /**
+     * Starts streaming. Before the connection is READY the request is remembered and the
+     * start command is sent as soon as the TX notification has been enabled.
+     */
+    void startSignaling(Callback callback) {
+        setSignalCallback(callback);
+        signalingRequested = true;
+        sendStartIfReady();
+    }
+
+    void stopSignaling() {
+        signalCallback = null;
+        signalingRequested = false;
+        if (mConnectionState == BiosignalManager.STATE_READY) {
+            writeRXCharacteristic(INT_ETX);
+        }
+        // A later startSignaling sends the start command again
+        stxSent.set(false);
+    }
+
+    List<BluetoothGattService> getSupportedGattServices() {
+        if (mBluetoothGatt == null) return null;
+
+        return mBluetoothGatt.getServices();
+    }
+}
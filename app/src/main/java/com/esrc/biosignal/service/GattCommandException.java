@@ -0,0 +1,26 @@
+package com.esrc.biosignal.service;
+
+/**
+ * Failure of a command run by {@link GattCommandQueue}.
+ */
+public class GattCommandException extends Exception {
+    public static final int STATUS_NONE = -1;
+
+    private final int status;
+
+    public GattCommandException(String message) {
+        this(message, STATUS_NONE);
+    }
+
+    public GattCommandException(String message, int status) {
+        super(status == STATUS_NONE ? message : message + " (status " + status + ")");
+        this.status = status;
+    }
+
+    /**
+     * @return the GATT status reported by the stack, or {@link #STATUS_NONE}
+     */
+    public int getStatus() {
+        return status;
+    }
+}
@@ -0,0 +1,344 @@
+package com.esrc.biosignal.service;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static com.esrc.biosignal.service.BiosignalService.CCCD;
+
+/**
+ * Serialized GATT command queue of one {@link DeviceConnection}.
+ *
+ * Android runs one GATT operation at a time and silently rejects a second one issued before
+ * the first has called back. Commands are therefore queued and started one by one, each when
+ * the previous one completed. A command that the stack refuses is retried, and a command
+ * whose callback never comes fails after its timeout, so the queue cannot stall.
+ *
+ * Every method returns at once with a future, so callers can enqueue a whole sequence
+ * (discover, enable notification, write) up front instead of sleeping between the steps.
+ * All queue state is confined to the queue's own thread.
+ */
+class GattCommandQueue {
+    private final static String TAG = "GattCommandQueue";
+
+    static final long DEFAULT_TIMEOUT_MS = 3000;
+    static final long DISCOVERY_TIMEOUT_MS = 10000;
+    static final int MAX_RETRIES = 2;
+    static final long RETRY_DELAY_MS = 50;
+
+    static final int TYPE_DISCOVER_SERVICES = 0;
+    static final int TYPE_READ_CHARACTERISTIC = 1;
+    static final int TYPE_WRITE_CHARACTERISTIC = 2;
+    static final int TYPE_WRITE_DESCRIPTOR = 3;
+    static final int TYPE_REQUEST_MTU = 4;
+    // Requests the stack accepts without a completion callback
+    static final int TYPE_IMMEDIATE = 5;
+
+    private final int uniqueId;
+    private final HandlerThread thread;
+    private final Handler handler;
+
+    // Only touched on the queue thread
+    private final ArrayDeque<GattCommand> pending = new ArrayDeque<GattCommand>();
+    private GattCommand current = null;
+
+    private volatile BluetoothGatt gatt = null;
+
+    /**
+     * One GATT operation and the future that reports its outcome.
+     */
+    abstract static class GattCommand {
+        final String name;
+        final int type;
+        final UUID uuid;
+        final long timeoutMs;
+        final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+        int attempts = 0;
+
+        GattCommand(String name, int type, UUID uuid, long timeoutMs) {
+            this.name = name;
+            this.type = type;
+            this.uuid = uuid;
+            this.timeoutMs = timeoutMs;
+        }
+
+        /**
+         * Starts the operation.
+         *
+         * @return false if the stack refused it and it should be retried
+         * @throws GattCommandException if it can never succeed, e.g. the characteristic is missing
+         */
+        abstract boolean execute(BluetoothGatt gatt) throws GattCommandException;
+
+        boolean matches(int type, UUID uuid) {
+            return this.type == type && (this.uuid == null || this.uuid.equals(uuid));
+        }
+    }
+
+    GattCommandQueue(int uniqueId) {
+        this.uniqueId = uniqueId;
+        thread = new HandlerThread(TAG + "-" + uniqueId);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    void setGatt(BluetoothGatt gatt) {
+        this.gatt = gatt;
+    }
+
+    CompletableFuture<Integer> discoverServices() {
+        return enqueue(new GattCommand("discoverServices", TYPE_DISCOVER_SERVICES, null, DISCOVERY_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.discoverServices();
+            }
+        });
+    }
+
+    /**
+     * Turns on notifications of a characteristic and writes its CCCD. The future completes
+     * when the descriptor write is acknowledged, i.e. when notifications really flow.
+     */
+    CompletableFuture<Integer> enableNotification(final UUID serviceUuid, final UUID characteristicUuid) {
+        return enqueue(new GattCommand("enableNotification " + characteristicUuid, TYPE_WRITE_DESCRIPTOR, characteristicUuid, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) throws GattCommandException {
+                return writeNotificationDescriptor(gatt, findCharacteristic(gatt, serviceUuid, characteristicUuid));
+            }
+        });
+    }
+
+    /**
+     * Same as {@link #enableNotification(UUID, UUID)} with a characteristic resolved earlier,
+     * e.g. cached from a previous discovery. Fails if its handle is no longer valid.
+     */
+    CompletableFuture<Integer> enableNotification(final BluetoothGattCharacteristic characteristic) {
+        return enqueue(new GattCommand("enableNotification " + characteristic.getUuid(), TYPE_WRITE_DESCRIPTOR, characteristic.getUuid(), DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) throws GattCommandException {
+                return writeNotificationDescriptor(gatt, characteristic);
+            }
+        });
+    }
+
+    CompletableFuture<Integer> write(final UUID serviceUuid, final UUID characteristicUuid, final byte[] value) {
+        return enqueue(new GattCommand("write " + characteristicUuid, TYPE_WRITE_CHARACTERISTIC, characteristicUuid, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) throws GattCommandException {
+                BluetoothGattCharacteristic characteristic = findCharacteristic(gatt, serviceUuid, characteristicUuid);
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        });
+    }
+
+    CompletableFuture<Integer> write(final BluetoothGattCharacteristic characteristic, final byte[] value) {
+        return enqueue(new GattCommand("write " + characteristic.getUuid(), TYPE_WRITE_CHARACTERISTIC, characteristic.getUuid(), DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                characteristic.setValue(value);
+                return gatt.writeCharacteristic(characteristic);
+            }
+        });
+    }
+
+    CompletableFuture<Integer> read(final BluetoothGattCharacteristic characteristic) {
+        return enqueue(new GattCommand("read " + characteristic.getUuid(), TYPE_READ_CHARACTERISTIC, characteristic.getUuid(), DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    CompletableFuture<Integer> requestConnectionPriority(final int priority) {
+        return enqueue(new GattCommand("requestConnectionPriority " + priority, TYPE_IMMEDIATE, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.requestConnectionPriority(priority);
+            }
+        });
+    }
+
+    CompletableFuture<Integer> requestMtu(final int mtu) {
+        return enqueue(new GattCommand("requestMtu " + mtu, TYPE_REQUEST_MTU, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                return gatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    /**
+     * The outcome arrives in onPhyUpdate, which some stacks skip when nothing changed, so the
+     * queue does not wait for it.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    CompletableFuture<Integer> setPreferredPhy(final int phyMask) {
+        return enqueue(new GattCommand("setPreferredPhy " + phyMask, TYPE_IMMEDIATE, null, DEFAULT_TIMEOUT_MS) {
+            @Override
+            boolean execute(BluetoothGatt gatt) {
+                gatt.setPreferredPhy(phyMask, phyMask, BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Called from the GATT callback thread when an operation finished.
+     */
+    void onCommandComplete(final int type, final UUID uuid, final int status) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                GattCommand command = current;
+                if (command == null || !command.matches(type, uuid)) {
+                    // Late callback of a command that already timed out
+                    Log.d(TAG, "[" + uniqueId + "] unexpected completion type=" + type + " uuid=" + uuid);
+                    return;
+                }
+                handler.removeCallbacks(timeoutRunnable);
+                current = null;
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    command.future.complete(status);
+                } else {
+                    command.future.completeExceptionally(new GattCommandException(command.name + " failed", status));
+                }
+                next();
+            }
+        });
+    }
+
+    /**
+     * Fails every queued command, e.g. when the link dropped.
+     */
+    void abort(final String reason) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(timeoutRunnable);
+                handler.removeCallbacks(retryRunnable);
+                GattCommandException e = new GattCommandException(reason);
+                if (current != null) {
+                    current.future.completeExceptionally(e);
+                    current = null;
+                }
+                GattCommand command;
+                while ((command = pending.poll()) != null) {
+                    command.future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    void quit() {
+        abort("queue closed");
+        thread.quitSafely();
+    }
+
+    private CompletableFuture<Integer> enqueue(final GattCommand command) {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                pending.add(command);
+                if (current == null) next();
+            }
+        });
+        return command.future;
+    }
+
+    // Starts the next queued command, on the queue thread
+    private void next() {
+        while (current == null && !pending.isEmpty()) {
+            current = pending.poll();
+            start(current);
+        }
+    }
+
+    private void start(GattCommand command) {
+        BluetoothGatt gatt = this.gatt;
+        if (gatt == null) {
+            finishExceptionally(new GattCommandException(command.name + ": not connected"));
+            return;
+        }
+        command.attempts++;
+        boolean started;
+        try {
+            started = command.execute(gatt);
+        } catch (GattCommandException e) {
+            finishExceptionally(e);
+            return;
+        }
+        if (started && command.type == TYPE_IMMEDIATE) {
+            current = null;
+            command.future.complete(BluetoothGatt.GATT_SUCCESS);
+        } else if (started) {
+            handler.postDelayed(timeoutRunnable, command.timeoutMs);
+        } else if (command.attempts <= MAX_RETRIES) {
+            Log.d(TAG, "[" + uniqueId + "] " + command.name + " refused, retrying");
+            handler.postDelayed(retryRunnable, RETRY_DELAY_MS * command.attempts);
+        } else {
+            finishExceptionally(new GattCommandException(command.name + " refused by the stack"));
+        }
+    }
+
+    // Fails the current command and moves on; `current` is never null here
+    private void finishExceptionally(GattCommandException e) {
+        Log.w(TAG, "[" + uniqueId + "] " + e.getMessage());
+        GattCommand command = current;
+        current = null;
+        command.future.completeExceptionally(e);
+    }
+
+    private final Runnable retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (current != null) start(current);
+            next();
+        }
+    };
+
+    private final Runnable timeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            GattCommand command = current;
+            if (command == null) return;
+            if (command.attempts <= MAX_RETRIES) {
+                Log.d(TAG, "[" + uniqueId + "] " + command.name + " timed out, retrying");
+                start(command);
+            } else {
+                finishExceptionally(new GattCommandException(command.name + " timed out"));
+            }
+            next();
+        }
+    };
+
+    private static boolean writeNotificationDescriptor(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic)
+            throws GattCommandException {
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CCCD);
+        if (descriptor == null) throw new GattCommandException("CCCD not found on " + characteristic.getUuid());
+        if (!gatt.setCharacteristicNotification(characteristic, true)) return false;
+        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        return gatt.writeDescriptor(descriptor);
+    }
+
+    static BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, UUID serviceUuid,
+                                                                  UUID characteristicUuid) throws GattCommandException {
+        BluetoothGattService service = gatt.getService(serviceUuid);
+        if (service == null) throw new GattCommandException("service not found: " + serviceUuid);
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(characteristicUuid);
+        if (characteristic == null) throw new GattCommandException("characteristic not found: " + characteristicUuid);
+        return characteristic;
+    }
+}
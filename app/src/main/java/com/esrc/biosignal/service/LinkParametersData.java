@@ -0,0 +1,51 @@
+package com.esrc.biosignal.service;
+
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import com.esrc.biosignal.libs.LinkParameters;
+import com.esrc.biosignal.libs.LinkProfile;
+
+/**
+ * Parcelable form of {@link LinkParameters}, sent on the state callback.
+ */
+public class LinkParametersData extends LinkParameters implements Parcelable {
+
+    public LinkParametersData(LinkParameters parameters) {
+        super(parameters);
+    }
+
+    public static final Creator<LinkParametersData> CREATOR = new Creator<LinkParametersData>() {
+        @Override
+        public LinkParametersData createFromParcel(Parcel in) {
+            return new LinkParametersData(in);
+        }
+
+        @Override
+        public LinkParametersData[] newArray(int size) {
+            return new LinkParametersData[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel out, int flags) {
+        out.writeString(profile.name());
+        out.writeInt(mtu);
+        out.writeInt(txPhy);
+        out.writeInt(rxPhy);
+        out.writeDouble(estimatedIntervalMs);
+    }
+
+    protected LinkParametersData(Parcel in) {
+        profile = LinkProfile.valueOf(in.readString());
+        mtu = in.readInt();
+        txPhy = in.readInt();
+        rxPhy = in.readInt();
+        estimatedIntervalMs = in.readDouble();
+    }
+}
@@ -0,0 +1,66 @@
+package com.esrc.biosignal.service;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Random;
+
+/**
+ * Schedules reconnect attempts of one {@link DeviceConnection} with exponential backoff.
+ *
+ * The first attempt follows a dropout after about {@link #INITIAL_DELAY_MS}, so a short
+ * mid-session dropout recovers quickly. Every further attempt doubles the delay up to
+ * {@link #MAX_DELAY_MS}. A random jitter spreads the attempts of several sensors that
+ * dropped at the same moment. Attempts run on the looper given to the constructor, never
+ * on the GATT callback thread.
+ */
+class ReconnectScheduler {
+    static final long INITIAL_DELAY_MS = 100;
+    static final long MAX_DELAY_MS = 30000;
+
+    private final Handler handler;
+    private final Runnable reconnect;
+    private final Random random = new Random();
+
+    // Only touched on the scheduler thread
+    private int attempts = 0;
+
+    ReconnectScheduler(Looper looper, Runnable reconnect) {
+        this.handler = new Handler(looper);
+        this.reconnect = reconnect;
+    }
+
+    /**
+     * Schedules the next attempt, replacing one that is still pending.
+     */
+    void schedule() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(reconnect);
+                handler.postDelayed(reconnect, nextDelay());
+                attempts++;
+            }
+        });
+    }
+
+    /**
+     * Cancels a pending attempt and starts the backoff over, e.g. once connected again.
+     */
+    void reset() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                handler.removeCallbacks(reconnect);
+                attempts = 0;
+            }
+        });
+    }
+
+    // Half of the backoff is fixed, the other half random
+    private long nextDelay() {
+        long delay = Math.min(MAX_DELAY_MS, INITIAL_DELAY_MS << Math.min(attempts, 16));
+        long half = delay / 2;
+        return half + (long) (random.nextDouble() * half);
+    }
+}
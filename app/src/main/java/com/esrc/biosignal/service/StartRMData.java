@@ -3,12 +3,15 @@ package com.esrc.biosignal.service;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import com.esrc.biosignal.libs.LinkProfile;
+
 /**
  * Created by lhw48 on 2016-06-22.
  */
 public class StartRMData implements Parcelable {
     private Integer uniqueId;
     private String address;
+    private LinkProfile linkProfile;
 
     public StartRMData(Integer uniqueId) {
         this.uniqueId = uniqueId;
@@ -20,6 +23,12 @@ public class StartRMData implements Parcelable {
         this.address = address;
     }
 
+    public StartRMData(Integer uniqueId, LinkProfile linkProfile) {
+        this.uniqueId = uniqueId;
+        this.address = null;
+        this.linkProfile = linkProfile;
+    }
+
     public Integer getUniqueId() {
         return uniqueId;
     }
@@ -28,6 +37,10 @@ public class StartRMData implements Parcelable {
         return address;
     }
 
+    public LinkProfile getLinkProfile() {
+        return linkProfile;
+    }
+
     public static final Creator<StartRMData> CREATOR = new Creator<StartRMData>() {
         @Override
         public StartRMData createFromParcel(Parcel in) {
@@ -49,10 +62,13 @@ public class StartRMData implements Parcelable {
     public void writeToParcel(Parcel out, int flags) {
         out.writeInt(uniqueId);
         out.writeString(address);
+        out.writeString(linkProfile == null ? null : linkProfile.name());
     }
 
     protected StartRMData(Parcel in) {
         uniqueId = in.readInt();
         address = in.readString();
+        String profile = in.readString();
+        linkProfile = profile == null ? null : LinkProfile.valueOf(profile);
     }
 }
@@ -0,0 +1,71 @@
+package com.esrc.biosignal.graphutils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link SlidingMinMax} against a plain scan of the last N samples.
+ */
+public class SlidingMinMaxTest {
+
+    private static void assertWindow(SlidingMinMax window, float[] values, int end, int size) {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        for (int i = Math.max(0, end - size + 1); i <= end; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        assertEquals("min at " + end, min, window.min(), 0);
+        assertEquals("max at " + end, max, window.max(), 0);
+    }
+
+    private static void check(int size, float[] values) {
+        SlidingMinMax window = new SlidingMinMax(size);
+        for (int i = 0; i < values.length; i++) {
+            window.add(values[i]);
+            assertWindow(window, values, i, size);
+        }
+    }
+
+    @Test
+    public void increasingInput() {
+        check(3, new float[]{1, 2, 3, 4, 5, 6, 7});
+    }
+
+    @Test
+    public void decreasingInput() {
+        check(3, new float[]{6, 5, 4, 3, 2, 1, 0});
+    }
+
+    @Test
+    public void windowOfOne() {
+        check(1, new float[]{3, 1, 4, 1, 5, 9, 2, 6});
+    }
+
+    @Test
+    public void randomInput() {
+        Random random = new Random(47);
+        float[] values = new float[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(50);
+        }
+        check(1, values);
+        check(7, values);
+        check(64, values);
+    }
+
+    @Test
+    public void emptyAndCleared() {
+        SlidingMinMax window = new SlidingMinMax(4);
+        assertTrue(window.isEmpty());
+        assertTrue(Float.isNaN(window.min()));
+        window.add(2);
+        window.clear();
+        assertTrue(Float.isNaN(window.max()));
+        window.add(5);
+        assertEquals(5, window.min(), 0);
+    }
+}
@@ -0,0 +1,86 @@
+package com.esrc.biosignal.recordutils;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput and size of {@link PpgCodec} on a synthetic PPG trace.
+ *
+ * Run with {@code main()} on the development machine; throughput is given in MB of raw
+ * 16-bit samples per second.
+ */
+public class PpgCodecBenchmark {
+    private static final int SAMPLE_RATE = 100;
+    private static final int BLOCK = 25;
+    private static final int SAMPLES = SAMPLE_RATE * 60 * 60;  // one hour
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        int[] samples = synthesize(SAMPLES, new Random(7));
+        byte[] encoded = new byte[PpgCodec.maxEncodedSize(SAMPLES)];
+        int[] decoded = new int[SAMPLES];
+        int[] offsets = new int[SAMPLES / BLOCK + 1];
+
+        // Warm up, then measure
+        int size = 0;
+        for (int round = 0; round < 5; round++) {
+            size = encodeAll(samples, encoded, offsets);
+            decodeAll(encoded, offsets, decoded);
+        }
+        long encodeNanos = Long.MAX_VALUE;
+        long decodeNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            encodeAll(samples, encoded, offsets);
+            long middle = System.nanoTime();
+            decodeAll(encoded, offsets, decoded);
+            long end = System.nanoTime();
+            encodeNanos = Math.min(encodeNanos, middle - start);
+            decodeNanos = Math.min(decodeNanos, end - middle);
+        }
+
+        for (int i = 0; i < SAMPLES; i++) {
+            if (decoded[i] != samples[i]) throw new AssertionError("mismatch at " + i);
+        }
+
+        double rawBytes = 2.0 * SAMPLES;
+        System.out.println(String.format(Locale.US, "samples      : %d in blocks of %d", SAMPLES, BLOCK));
+        System.out.println(String.format(Locale.US, "encoded size : %d bytes, %.2f bytes/sample, %.2fx smaller than uint16",
+                size, (double) size / SAMPLES, rawBytes / size));
+        System.out.println(String.format(Locale.US, "encode       : %.0f MB/s", rawBytes / encodeNanos * 1e3));
+        System.out.println(String.format(Locale.US, "decode       : %.0f MB/s", rawBytes / decodeNanos * 1e3));
+    }
+
+    private static int encodeAll(int[] samples, byte[] encoded, int[] offsets) {
+        int p = 0;
+        for (int i = 0, block = 0; i < samples.length; i += BLOCK, block++) {
+            offsets[block] = p;
+            p += PpgCodec.encode(samples, i, Math.min(BLOCK, samples.length - i), encoded, p);
+        }
+        offsets[offsets.length - 1] = p;
+        return p;
+    }
+
+    private static void decodeAll(byte[] encoded, int[] offsets, int[] decoded) {
+        for (int i = 0, block = 0; i < decoded.length; i += BLOCK, block++) {
+            int length = offsets[block + 1] - offsets[block];
+            PpgCodec.decode(encoded, offsets[block], length, decoded, i, Math.min(BLOCK, decoded.length - i));
+        }
+    }
+
+    // Pulse wave around 1.2 Hz on a drifting baseline, with sensor noise
+    private static int[] synthesize(int count, Random random) {
+        int[] samples = new int[count];
+        double baseline = 32000;
+        for (int i = 0; i < count; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double phase = (t * 1.2) % 1.0;
+            double pulse = Math.exp(-Math.pow((phase - 0.2) / 0.08, 2)) * 1500
+                    + Math.exp(-Math.pow((phase - 0.5) / 0.12, 2)) * 500;
+            baseline += random.nextGaussian() * 2;
+            int value = (int) Math.round(baseline + pulse + random.nextGaussian() * 8);
+            samples[i] = Math.max(0, Math.min(0xffff, value));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,13 @@
+package com.esrc.biosignal.signalutils;
+
+/**
+ * Turns a stream of raw PPG samples into heart rate estimates.
+ */
+public interface BeatEstimator {
+    /**
+     * @param ppg      raw 16-bit sample
+     * @param currTime when the sample was received (ms)
+     * @return the BPM when this sample completes an estimate, otherwise 0
+     */
+    double add(int ppg, long currTime);
+}
@@ -0,0 +1,117 @@
+package com.esrc.biosignal.signalutils;
+
+import com.esrc.biosignal.FFT.Complex;
+import com.esrc.biosignal.FFT.FastFourierTransform;
+
+/**
+ * PPI spectrum, LF/HF and emotion state of a measurement, shared by the measurement screens
+ * and session replay.
+ */
+public class EmotionCalculator {
+    // PPIs collected per measurement, also the FFT size
+    public static final int PPI_COUNT = 32;
+
+    public static final int STATE_ANGRY = 1;
+    public static final int STATE_SAD = 2;
+    public static final int STATE_HAPPY = 3;
+
+    public static class Result {
+        public final double[] spectrum;
+        public final double bpmAverage;
+        public final double lf;
+        public final double hf;
+
+        Result(double[] spectrum, double bpmAverage, double lf, double hf) {
+            this.spectrum = spectrum;
+            this.bpmAverage = bpmAverage;
+            this.lf = lf;
+            this.hf = hf;
+        }
+    }
+
+    /**
+     * Collects the first {@link #PPI_COUNT} beats of a measurement.
+     */
+    public static class PpiWindow {
+        private final double[] ppiList = new double[PPI_COUNT];
+        private final double[] bpmList = new double[PPI_COUNT];
+        private int count = 0;
+
+        /**
+         * @return the PPI in seconds, or 0 if the window was already full
+         */
+        public double add(double bpm) {
+            if (count >= PPI_COUNT) return 0;
+            bpmList[count] = bpm;
+            ppiList[count] = 60 / bpm;
+            return ppiList[count++];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public boolean isFull() {
+            return count >= PPI_COUNT;
+        }
+
+        public Result calculate() {
+            return EmotionCalculator.calculate(ppiList, bpmList);
+        }
+    }
+
+    /**
+     * @param ppiList {@link #PPI_COUNT} PPIs, missing ones left at 0
+     * @param bpmList the BPMs the PPIs came from, missing ones left at 0
+     */
+    public static Result calculate(double[] ppiList, double[] bpmList) {
+        double[] spectrum = powerSpectrum(ppiList);
+        double bpmSum = 0;
+        for (int i = 0; i < PPI_COUNT; i++) {
+            bpmSum += bpmList[i];
+        }
+
+        // LF bins 2~4, HF bins 5~12
+        double lf = 0;
+        for (int j = 2; j <= 4; j++) {
+            lf += spectrum[j];
+        }
+        double hf = 0;
+        for (int k = 5; k <= 12; k++) {
+            hf += spectrum[k];
+        }
+        return new Result(spectrum, bpmSum / PPI_COUNT, lf, hf);
+    }
+
+    public static double[] powerSpectrum(double[] input) {
+        FastFourierTransform fft = new FastFourierTransform();
+        Complex[] cinput = new Complex[input.length];
+        for (int i = 0; i < input.length; i++) {
+            cinput[i] = new Complex(input[i], 0.0);
+        }
+
+        fft.fft(cinput);
+
+        double[] powerSpectrum = new double[input.length];
+        for (int i = 0; i < input.length; i++) {
+            powerSpectrum[i] = ((cinput[i].re * cinput[i].re) + (cinput[i].im * cinput[i].im)) / (input.length * input.length) * 2;
+        }
+        return powerSpectrum;
+    }
+
+    /**
+     * @param lf1 LF of the first (baseline) measurement, the same for hf1 and bpm1
+     * @param lf2 LF of the second (emotion) measurement, the same for hf2 and bpm2
+     */
+    public static int decideState(double lf1, double hf1, double bpm1, double lf2, double hf2, double bpm2) {
+        double lfPerHf1 = lf1 / hf1;
+        double lfPerHf2 = lf2 / hf2;
+        if (lfPerHf1 <= lfPerHf2 && bpm1 >= bpm2) {
+            return STATE_ANGRY;
+        } else if (lfPerHf1 <= lfPerHf2 && bpm1 <= bpm2) {
+            return STATE_SAD;
+        } else {
+            return STATE_HAPPY;
+        }
+    }
+}
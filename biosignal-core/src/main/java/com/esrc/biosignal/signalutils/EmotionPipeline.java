@@ -0,0 +1,166 @@
+package com.esrc.biosignal.signalutils;
+
+/**
+ * The whole measurement from raw PPG to emotion state: BPM estimation, PPI collection, the
+ * baseline and emotion measurements of {@link EmotionCalculator#PPI_COUNT} beats each, and the
+ * state decided from the two.
+ *
+ * Not thread-safe; feed it from one thread.
+ */
+public class EmotionPipeline {
+    public static final int PHASE_BASELINE = 1;
+    public static final int PHASE_EMOTION = 2;
+
+    private final BeatEstimator estimator;
+    private final EmotionCalculator.PpiWindow baselineWindow = new EmotionCalculator.PpiWindow();
+    private final EmotionCalculator.PpiWindow emotionWindow = new EmotionCalculator.PpiWindow();
+    private EmotionCalculator.Result baseline = null;
+    private EmotionCalculator.Result emotion = null;
+    private int state = 0;
+    private boolean emotionOpen = true;
+    private long sampleCount = 0;
+    private long beatCount = 0;
+    private Listener listener = null;
+
+    /**
+     * Callbacks of a pipeline, on the feeding thread.
+     */
+    public interface Listener {
+        /**
+         * @param ppi PPI taken into the current measurement, or 0 once both are complete
+         */
+        void onBeat(long timestamp, double bpm, double ppi);
+
+        void onMeasurement(int phase, EmotionCalculator.Result result);
+
+        void onState(int state);
+    }
+
+    /**
+     * @param startTime clock of the first sample (ms)
+     */
+    public EmotionPipeline(long startTime) {
+        this(new SignalManager(startTime));
+    }
+
+    public EmotionPipeline(BeatEstimator estimator) {
+        this.estimator = estimator;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the BPM if this sample completed an estimate, otherwise 0
+     */
+    public double addSample(int ppg, long time) {
+        sampleCount++;
+        double bpm = estimator.add(ppg, time);
+        if (bpm != 0) addBeat(time, bpm);
+        return bpm;
+    }
+
+    /**
+     * Takes a beat estimated elsewhere. The baseline takes the first PPI_COUNT beats, the
+     * emotion measurement the next; later beats are only counted.
+     */
+    public void addBeat(long time, double bpm) {
+        beatCount++;
+        double ppi = 0;
+        int completed = 0;
+        if (baseline == null) {
+            ppi = baselineWindow.add(bpm);
+            if (baselineWindow.isFull()) {
+                baseline = baselineWindow.calculate();
+                completed = PHASE_BASELINE;
+            }
+        } else if (emotionOpen && emotion == null) {
+            ppi = emotionWindow.add(bpm);
+            if (emotionWindow.isFull()) {
+                completeEmotion();
+                completed = PHASE_EMOTION;
+            }
+        }
+        if (listener == null) return;
+        listener.onBeat(time, bpm, ppi);
+        if (completed != 0) notifyCompleted(completed);
+    }
+
+    /**
+     * Keeps the emotion measurement from taking beats until {@link #endBaseline()}, for a
+     * stimulus that starts on a timer rather than right after the baseline's last beat.
+     */
+    public void deferEmotion() {
+        emotionOpen = false;
+    }
+
+    /**
+     * Closes the baseline with the beats it has so far (missing PPIs left at 0) and opens the
+     * emotion measurement from the next beat.
+     */
+    public void endBaseline() {
+        emotionOpen = true;
+        if (baseline != null) return;
+        baseline = baselineWindow.calculate();
+        if (listener != null) notifyCompleted(PHASE_BASELINE);
+    }
+
+    /**
+     * Closes the emotion measurement with the beats it has so far and decides the state.
+     */
+    public void endEmotion() {
+        if (emotion != null) return;
+        endBaseline();
+        completeEmotion();
+        if (listener != null) notifyCompleted(PHASE_EMOTION);
+    }
+
+    private void completeEmotion() {
+        emotion = emotionWindow.calculate();
+        state = EmotionCalculator.decideState(baseline.lf, baseline.hf, baseline.bpmAverage,
+                emotion.lf, emotion.hf, emotion.bpmAverage);
+    }
+
+    private void notifyCompleted(int phase) {
+        if (phase == PHASE_BASELINE) {
+            listener.onMeasurement(PHASE_BASELINE, baseline);
+        } else {
+            listener.onMeasurement(PHASE_EMOTION, emotion);
+            listener.onState(state);
+        }
+    }
+
+    /**
+     * @return the baseline measurement, or null until it has all its beats
+     */
+    public EmotionCalculator.Result getBaseline() {
+        return baseline;
+    }
+
+    /**
+     * @return the emotion measurement, or null until it has all its beats
+     */
+    public EmotionCalculator.Result getEmotion() {
+        return emotion;
+    }
+
+    /**
+     * @return one of the EmotionCalculator states, or 0 until both measurements are done
+     */
+    public int getState() {
+        return state;
+    }
+
+    public boolean isComplete() {
+        return state != 0;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getBeatCount() {
+        return beatCount;
+    }
+}
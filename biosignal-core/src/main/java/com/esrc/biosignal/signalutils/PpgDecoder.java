@@ -0,0 +1,23 @@
+package com.esrc.biosignal.signalutils;
+
+/**
+ * Decodes the PPG sensor's notification payload: one unsigned 16-bit sample, big-endian.
+ */
+public final class PpgDecoder {
+    public static final int PAYLOAD_SIZE = 2;
+
+    private PpgDecoder() {
+    }
+
+    /**
+     * @return the sample, or 0 if the payload is not one sample
+     */
+    public static int decode(byte[] value) {
+        if (value == null || value.length != PAYLOAD_SIZE) return 0;
+        return decode(value[0], value[1]);
+    }
+
+    public static int decode(byte high, byte low) {
+        return (high & 0xff) * 256 + (low & 0xff);
+    }
+}
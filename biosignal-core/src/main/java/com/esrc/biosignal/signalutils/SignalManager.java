@@ -4,7 +4,11 @@ package com.esrc.biosignal.signalutils;
 import java.util.ArrayList;
 
 
-public class SignalManager {
+/**
+ * BPM estimation by maxima peak detection over a sliding window of PPG_WINDOW_SIZE seconds,
+ * advanced every PPG_INTERVAL_SIZE seconds.
+ */
+public class SignalManager implements BeatEstimator {
     public static final int PPG_WINDOW_SIZE = 10;  // seconds
     public static final int PPG_INTERVAL_SIZE = 1;  // seconds
 
@@ -15,19 +19,29 @@ public class SignalManager {
     private int interval;
 
     public SignalManager() {
+        this(System.currentTimeMillis());
+    }
+
+    // startTime : clock of the first sample, for replaying recorded sessions
+    public SignalManager(long startTime) {
         ppgList = new ArrayList<Double>();
         intervalList = new ArrayList<Integer>();
-        prevTime = System.currentTimeMillis();
+        prevTime = startTime;
         interval = 0;
     }
 
     public double add(int ppg) {
+        return add(ppg, System.currentTimeMillis());
+    }
+
+    // currTime : when the sample was received (ms)
+    @Override
+    public double add(int ppg, long currTime) {
         ppgList.add((double)ppg);
         interval++;
         double bpm = 0;
 
         // Interval
-        long currTime = System.currentTimeMillis();
         if((currTime-prevTime) / 1000.0 >= PPG_INTERVAL_SIZE) {
             prevTime = currTime;
             intervalList.add(interval);
@@ -0,0 +1,111 @@
+package com.esrc.biosignal.signalutils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Band limits, averaging and the state decision of {@link EmotionCalculator}.
+ */
+public class EmotionCalculatorTest {
+    private static final double EPSILON = 1e-9;
+
+    private static double[] randomPpis(long seed) {
+        Random random = new Random(seed);
+        double[] ppi = new double[EmotionCalculator.PPI_COUNT];
+        for (int i = 0; i < ppi.length; i++) {
+            ppi[i] = 0.6 + 0.4 * random.nextDouble();
+        }
+        return ppi;
+    }
+
+    private static double sum(double[] spectrum, int first, int last) {
+        double sum = 0;
+        for (int i = first; i <= last; i++) {
+            sum += spectrum[i];
+        }
+        return sum;
+    }
+
+    @Test
+    public void lfCoversBinsTwoToFour() {
+        double[] bpm = new double[EmotionCalculator.PPI_COUNT];
+        for (long seed = 0; seed < 20; seed++) {
+            EmotionCalculator.Result result = EmotionCalculator.calculate(randomPpis(seed), bpm);
+            assertEquals(sum(result.spectrum, 2, 4), result.lf, EPSILON);
+        }
+    }
+
+    @Test
+    public void hfCoversBinsFiveToTwelve() {
+        double[] bpm = new double[EmotionCalculator.PPI_COUNT];
+        for (long seed = 0; seed < 20; seed++) {
+            EmotionCalculator.Result result = EmotionCalculator.calculate(randomPpis(seed), bpm);
+            assertEquals(sum(result.spectrum, 5, 12), result.hf, EPSILON);
+        }
+    }
+
+    @Test
+    public void steadyPpisHaveNoLfOrHf() {
+        double[] ppi = new double[EmotionCalculator.PPI_COUNT];
+        double[] bpm = new double[EmotionCalculator.PPI_COUNT];
+        for (int i = 0; i < ppi.length; i++) {
+            ppi[i] = 0.8;
+            bpm[i] = 75;
+        }
+        EmotionCalculator.Result result = EmotionCalculator.calculate(ppi, bpm);
+        // All power is in the DC bin: 2 * 0.8^2
+        assertEquals(1.28, result.spectrum[0], EPSILON);
+        assertEquals(0, result.lf, EPSILON);
+        assertEquals(0, result.hf, EPSILON);
+        assertEquals(75, result.bpmAverage, EPSILON);
+    }
+
+    @Test
+    public void bpmAverageCountsMissingBeatsAsZero() {
+        double[] ppi = new double[EmotionCalculator.PPI_COUNT];
+        double[] bpm = new double[EmotionCalculator.PPI_COUNT];
+        for (int i = 0; i < EmotionCalculator.PPI_COUNT / 2; i++) {
+            bpm[i] = 80;
+        }
+        assertEquals(40, EmotionCalculator.calculate(ppi, bpm).bpmAverage, EPSILON);
+    }
+
+    @Test
+    public void ppiWindowKeepsTheFirstBeats() {
+        EmotionCalculator.PpiWindow window = new EmotionCalculator.PpiWindow();
+        assertEquals(1.0, window.add(60), EPSILON);
+        assertEquals(0.75, window.add(80), EPSILON);
+        for (int i = 2; i < EmotionCalculator.PPI_COUNT; i++) {
+            assertFalse(window.isFull());
+            window.add(60);
+        }
+        assertTrue(window.isFull());
+        assertEquals(0, window.add(60), 0);
+        assertEquals(EmotionCalculator.PPI_COUNT, window.size());
+    }
+
+    @Test
+    public void higherRatioAndLowerBpmIsAngry() {
+        assertEquals(EmotionCalculator.STATE_ANGRY, EmotionCalculator.decideState(1, 2, 80, 2, 1, 70));
+    }
+
+    @Test
+    public void higherRatioAndHigherBpmIsSad() {
+        assertEquals(EmotionCalculator.STATE_SAD, EmotionCalculator.decideState(1, 2, 70, 2, 1, 80));
+    }
+
+    @Test
+    public void lowerRatioIsHappy() {
+        assertEquals(EmotionCalculator.STATE_HAPPY, EmotionCalculator.decideState(2, 1, 70, 1, 2, 80));
+        assertEquals(EmotionCalculator.STATE_HAPPY, EmotionCalculator.decideState(2, 1, 80, 1, 2, 70));
+    }
+
+    @Test
+    public void unchangedMeasurementIsAngry() {
+        // Both comparisons are inclusive, the first branch wins
+        assertEquals(EmotionCalculator.STATE_ANGRY, EmotionCalculator.decideState(1, 1, 70, 1, 1, 70));
+    }
+}
@@ -0,0 +1,161 @@
+package com.esrc.biosignal.signalutils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Phases and callbacks of {@link EmotionPipeline}, fed with beats whose PPI spectrum is known.
+ */
+public class EmotionPipelineTest {
+    private static final double EPSILON = 1e-9;
+    private static final int N = EmotionCalculator.PPI_COUNT;
+
+    // BPMs of one measurement oscillating at one FFT bin
+    private static double bpmAt(int i, double average, int bin) {
+        return average + 5 * Math.cos(2 * Math.PI * bin * i / N);
+    }
+
+    private static class RecordingListener implements EmotionPipeline.Listener {
+        final List<Double> ppis = new ArrayList<Double>();
+        final List<Integer> phases = new ArrayList<Integer>();
+        final List<Integer> states = new ArrayList<Integer>();
+
+        @Override
+        public void onBeat(long timestamp, double bpm, double ppi) {
+            ppis.add(ppi);
+        }
+
+        @Override
+        public void onMeasurement(int phase, EmotionCalculator.Result result) {
+            phases.add(phase);
+        }
+
+        @Override
+        public void onState(int state) {
+            states.add(state);
+        }
+    }
+
+    @Test
+    public void baselineThenEmotionThenState() {
+        EmotionPipeline pipeline = new EmotionPipeline(0);
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+
+        // Baseline HF heavy at ~80 BPM, emotion LF heavy at ~70 BPM
+        for (int i = 0; i < N; i++) {
+            assertNull(pipeline.getBaseline());
+            pipeline.addBeat(i, bpmAt(i, 80, 8));
+        }
+        assertNotNull(pipeline.getBaseline());
+        assertNull(pipeline.getEmotion());
+        assertFalse(pipeline.isComplete());
+        for (int i = 0; i < N; i++) {
+            pipeline.addBeat(N + i, bpmAt(i, 70, 3));
+        }
+
+        assertTrue(pipeline.isComplete());
+        assertEquals(EmotionCalculator.STATE_ANGRY, pipeline.getState());
+        assertEquals(80, pipeline.getBaseline().bpmAverage, EPSILON);
+        assertEquals(70, pipeline.getEmotion().bpmAverage, EPSILON);
+        assertTrue(pipeline.getBaseline().hf > pipeline.getBaseline().lf);
+        assertTrue(pipeline.getEmotion().lf > pipeline.getEmotion().hf);
+
+        assertEquals(2, listener.phases.size());
+        assertEquals(EmotionPipeline.PHASE_BASELINE, (int) listener.phases.get(0));
+        assertEquals(EmotionPipeline.PHASE_EMOTION, (int) listener.phases.get(1));
+        assertEquals(1, listener.states.size());
+        assertEquals(EmotionCalculator.STATE_ANGRY, (int) listener.states.get(0));
+        assertEquals(60 / bpmAt(0, 80, 8), listener.ppis.get(0), EPSILON);
+    }
+
+    @Test
+    public void beatsAfterBothMeasurementsAreOnlyCounted() {
+        EmotionPipeline pipeline = new EmotionPipeline(0);
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+        for (int i = 0; i < 2 * N + 5; i++) {
+            pipeline.addBeat(i, bpmAt(i, 75, 4));
+        }
+
+        assertEquals(2 * N + 5, pipeline.getBeatCount());
+        assertEquals(2 * N + 5, listener.ppis.size());
+        for (int i = 2 * N; i < listener.ppis.size(); i++) {
+            assertEquals(0, listener.ppis.get(i), 0);
+        }
+        assertEquals(1, listener.states.size());
+    }
+
+    @Test
+    public void deferredEmotionSkipsBeatsUntilTheBaselineEnds() {
+        EmotionPipeline pipeline = new EmotionPipeline(0);
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+        pipeline.deferEmotion();
+        for (int i = 0; i < N; i++) {
+            pipeline.addBeat(i, bpmAt(i, 80, 8));
+        }
+        // Between the full baseline and the stimulus
+        for (int i = 0; i < 10; i++) {
+            pipeline.addBeat(N + i, 200);
+        }
+        assertNull(pipeline.getEmotion());
+        assertEquals(0, listener.ppis.get(N + 9), 0);
+
+        pipeline.endBaseline();
+        assertEquals(1, listener.phases.size());
+        for (int i = 0; i < N; i++) {
+            pipeline.addBeat(N + 10 + i, bpmAt(i, 70, 3));
+        }
+        assertEquals(70, pipeline.getEmotion().bpmAverage, EPSILON);
+        assertEquals(EmotionCalculator.STATE_ANGRY, pipeline.getState());
+    }
+
+    @Test
+    public void endingEarlyUsesTheBeatsSoFar() {
+        EmotionPipeline pipeline = new EmotionPipeline(0);
+        RecordingListener listener = new RecordingListener();
+        pipeline.setListener(listener);
+        pipeline.deferEmotion();
+        for (int i = 0; i < N / 2; i++) {
+            pipeline.addBeat(i, 80);
+        }
+        pipeline.endBaseline();
+        assertEquals(40, pipeline.getBaseline().bpmAverage, EPSILON);
+        for (int i = 0; i < N / 4; i++) {
+            pipeline.addBeat(N + i, 60);
+        }
+        pipeline.endEmotion();
+        pipeline.endEmotion();
+
+        assertTrue(pipeline.isComplete());
+        assertEquals(15, pipeline.getEmotion().bpmAverage, EPSILON);
+        assertEquals(2, listener.phases.size());
+        assertEquals(1, listener.states.size());
+    }
+
+    @Test
+    public void samplesGoThroughTheEstimator() {
+        // Reports 60 BPM on every tenth sample
+        BeatEstimator estimator = new BeatEstimator() {
+            private int count = 0;
+
+            @Override
+            public double add(int ppg, long currTime) {
+                return ++count % 10 == 0 ? 60 : 0;
+            }
+        };
+        EmotionPipeline pipeline = new EmotionPipeline(estimator);
+        for (int i = 0; i < 95; i++) {
+            double bpm = pipeline.addSample(512, i * 40L);
+            assertEquals((i + 1) % 10 == 0 ? 60 : 0, bpm, 0);
+        }
+        assertEquals(95, pipeline.getSampleCount());
+        assertEquals(9, pipeline.getBeatCount());
+        assertNull(pipeline.getBaseline());
+    }
+}
@@ -0,0 +1,28 @@
+package com.esrc.biosignal.signalutils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PpgDecoderTest {
+    @Test
+    public void decodesBigEndian() {
+        assertEquals(0x1234, PpgDecoder.decode(new byte[]{0x12, 0x34}));
+        assertEquals(1, PpgDecoder.decode(new byte[]{0, 1}));
+        assertEquals(256, PpgDecoder.decode(new byte[]{1, 0}));
+    }
+
+    @Test
+    public void decodesUnsigned() {
+        assertEquals(65535, PpgDecoder.decode(new byte[]{(byte) 0xff, (byte) 0xff}));
+        assertEquals(0x80ff, PpgDecoder.decode((byte) 0x80, (byte) 0xff));
+    }
+
+    @Test
+    public void rejectsOtherPayloads() {
+        assertEquals(0, PpgDecoder.decode(null));
+        assertEquals(0, PpgDecoder.decode(new byte[0]));
+        assertEquals(0, PpgDecoder.decode(new byte[]{1}));
+        assertEquals(0, PpgDecoder.decode(new byte[]{1, 2, 3}));
+    }
+}